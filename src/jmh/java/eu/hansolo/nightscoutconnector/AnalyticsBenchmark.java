@@ -0,0 +1,78 @@
+package eu.hansolo.nightscoutconnector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AnalyticsBenchmark {
+    @Param({ "288", "8640", "25920" })
+    public int noOfEntries;
+
+    private List<Entry>     entries;
+    private GlucoseSeries   series;
+    private Predictor       predictor;
+    private Predictor       regression;
+    private List<Treatment> treatments;
+    private TreatmentJoin   join;
+
+
+    @Setup public void setup() {
+        entries    = SyntheticData.entries(noOfEntries);
+        series     = GlucoseSeries.of(entries);
+        predictor  = new Predictor();
+        regression = new Predictor(Predictor.LINEAR_REGRESSION, Predictor.DEFAULT_HORIZON);
+        // About 10 treatments per day
+        treatments = SyntheticData.treatments(noOfEntries / 28);
+        join       = new TreatmentJoin();
+    }
+
+    @Benchmark public double calcHbA1c() {
+        return Connector.calcHbA1c(entries);
+    }
+
+    @Benchmark public double calcHbA1cSeries() {
+        return Connector.calcHbA1c(series);
+    }
+
+    @Benchmark public Prediction predict() {
+        return Connector.predict(entries);
+    }
+
+    @Benchmark public Prediction predictSeries() {
+        return Connector.predict(series);
+    }
+
+    @Benchmark public Prediction predictor() {
+        return predictor.predict(entries);
+    }
+
+    @Benchmark public Prediction predictorSeries() {
+        return predictor.predict(series);
+    }
+
+    @Benchmark public Prediction predictorLinearRegression() {
+        return regression.predict(series);
+    }
+
+    @Benchmark public List<TreatmentJoin.Response> treatmentJoin() {
+        return join.join(treatments, entries);
+    }
+
+    @Benchmark public AgpProfile.Curves agpProfile() {
+        final AgpProfile profile = new AgpProfile();
+        profile.addAll(series);
+        return profile.getCurves();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,57 @@
+package eu.hansolo.nightscoutconnector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.file.AccessDeniedException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+// Binary codec compared to the json parser (see ParserBenchmark) for 1 day up to 90 days of entries
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CodecBenchmark {
+    @Param({ "288", "8640", "25920" })
+    public int noOfRecords;
+
+    private String      entriesJson;
+    private List<Entry> entries;
+    private ByteBuffer  encoded;
+
+
+    @Setup public void setup() throws AccessDeniedException {
+        entriesJson = SyntheticData.entriesJson(noOfRecords);
+        entries     = Connector.getEntriesFromJsonText(entriesJson);
+        encoded     = BinaryCodec.encodeEntries(entries);
+    }
+
+    @Benchmark public List<Entry> entriesFromJsonText() throws AccessDeniedException {
+        return Connector.getEntriesFromJsonText(entriesJson);
+    }
+
+    @Benchmark public ByteBuffer encodeEntries() {
+        return BinaryCodec.encodeEntries(entries);
+    }
+
+    @Benchmark public List<Entry> decodeEntries() {
+        return BinaryCodec.decodeEntries(encoded.duplicate());
+    }
+
+    @Benchmark public void decodeEntriesWithVisitor(final Blackhole blackhole) {
+        BinaryCodec.decodeEntries(encoded.duplicate(), (datelong, sgv, trend, delta) -> blackhole.consume(sgv));
+    }
+
+    @Benchmark public GlucoseSeries decodeGlucoseSeries() {
+        return BinaryCodec.decodeGlucoseSeries(encoded.duplicate());
+    }
+}
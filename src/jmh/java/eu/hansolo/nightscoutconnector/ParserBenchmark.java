@@ -0,0 +1,57 @@
+package eu.hansolo.nightscoutconnector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+// 1 entry up to 90 days of entries (5 min interval)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParserBenchmark {
+    @Param({ "1", "288", "2016", "8640", "25920" })
+    public int noOfRecords;
+
+    private String entriesJson;
+    private byte[] entriesBytes;
+    private String treatmentsJson;
+
+
+    @Setup public void setup() {
+        entriesJson    = SyntheticData.entriesJson(noOfRecords);
+        entriesBytes   = entriesJson.getBytes(StandardCharsets.UTF_8);
+        treatmentsJson = SyntheticData.treatmentsJson(noOfRecords);
+    }
+
+    @Benchmark public List<Entry> entriesFromJsonText() throws AccessDeniedException {
+        return Connector.getEntriesFromJsonText(entriesJson);
+    }
+
+    @Benchmark public List<Entry> entriesFromInputStream() throws AccessDeniedException {
+        return Connector.getEntriesFromInputStream(new ByteArrayInputStream(entriesBytes));
+    }
+
+    @Benchmark public List<LazyEntry> lazyEntriesFromInputStream() throws AccessDeniedException {
+        return Connector.getLazyEntriesFromInputStream(new ByteArrayInputStream(entriesBytes));
+    }
+
+    @Benchmark public GlucoseSeries glucoseSeriesFromInputStream() throws AccessDeniedException {
+        return Connector.getGlucoseSeriesFromInputStream(new ByteArrayInputStream(entriesBytes));
+    }
+
+    @Benchmark public List<Treatment> treatmentsFromJsonText() throws AccessDeniedException {
+        return Connector.getTreatmentsFromJsonText(treatmentsJson);
+    }
+}
@@ -0,0 +1,45 @@
+package eu.hansolo.nightscoutconnector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.net.URI;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+
+// Only builds the request uris, no request will be sent
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestBenchmark {
+    private NightscoutClient client;
+    private ZonedDateTime    from;
+    private ZonedDateTime    to;
+    private String           entriesUrl;
+
+
+    @Setup public void setup() {
+        client     = NightscoutClient.builder("https://nightscout.example.com").apiSecret("secret").nightscoutToken("token").build();
+        to         = ZonedDateTime.now();
+        from       = to.minusDays(7);
+        entriesUrl = client.getNightscoutUrl() + Constants.ENTRIES_JSON + "?";
+    }
+
+    @Benchmark public URI lastNEntriesUri() {
+        return client.createLastNEntriesUri(10);
+    }
+
+    @Benchmark public URI entriesFromToUri() {
+        return client.createFromToUri(from, to);
+    }
+
+    @Benchmark public URI entriesIntervalUri() {
+        return client.createIntervalUri(entriesUrl, Interval.LAST_7_DAYS);
+    }
+}
@@ -0,0 +1,95 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+
+/**
+ * Creates reproducible Nightscout payloads for the benchmarks.
+ * Entries are 5 minutes apart and ordered newest first like the Nightscout api returns them.
+ */
+final class SyntheticData {
+    static final         long              START_MILLIS = 1_700_000_000_000L;
+    static final         long              STEP_MILLIS  = 300_000L;
+    private static final String[]          DIRECTIONS   = { "Flat", "FortyFiveUp", "SingleUp", "FortyFiveDown", "SingleDown", "DoubleUp", "DoubleDown" };
+    private static final DateTimeFormatter ISO          = DateTimeFormatter.ISO_INSTANT;
+
+
+    // ******************** Constructors **************************************
+    private SyntheticData() {}
+
+
+    // ******************** Methods *******************************************
+    static String entriesJson(final int noOfEntries) {
+        final Random        rnd = new Random(42);
+        final StringBuilder sb  = new StringBuilder(noOfEntries * 330).append("[");
+        double sgv = 120;
+        for (int i = 0 ; i < noOfEntries ; i++) {
+            final long   millis    = START_MILLIS + (noOfEntries - 1 - i) * STEP_MILLIS;
+            final double delta     = rnd.nextGaussian() * 4;
+            final int    direction = rnd.nextInt(DIRECTIONS.length);
+            sgv = Math.max(40, Math.min(400, sgv + delta));
+            if (i > 0) { sb.append(","); }
+            sb.append("{\"_id\":\"").append(String.format("%024x", millis)).append("\",")
+              .append("\"device\":\"xDrip-DexcomG6\",")
+              .append("\"date\":").append(millis).append(",")
+              .append("\"dateString\":\"").append(ISO.format(Instant.ofEpochMilli(millis))).append("\",")
+              .append("\"sgv\":").append(Math.round(sgv)).append(",")
+              .append("\"delta\":").append(String.format(Locale.US, "%.3f", delta)).append(",")
+              .append("\"direction\":\"").append(DIRECTIONS[direction]).append("\",")
+              .append("\"type\":\"sgv\",")
+              .append("\"filtered\":").append(Math.round(sgv * 1000)).append(",")
+              .append("\"unfiltered\":").append(Math.round(sgv * 1000)).append(",")
+              .append("\"rssi\":100,")
+              .append("\"noise\":1,")
+              .append("\"sysTime\":\"").append(ISO.format(Instant.ofEpochMilli(millis))).append("\",")
+              .append("\"utcOffset\":0,")
+              .append("\"trend\":").append(direction)
+              .append("}");
+        }
+        return sb.append("]").toString();
+    }
+
+    static String treatmentsJson(final int noOfTreatments) {
+        final Random        rnd = new Random(42);
+        final StringBuilder sb  = new StringBuilder(noOfTreatments * 250).append("[");
+        for (int i = 0 ; i < noOfTreatments ; i++) {
+            final long    millis = START_MILLIS + (noOfTreatments - 1 - i) * STEP_MILLIS;
+            final boolean meal   = rnd.nextBoolean();
+            if (i > 0) { sb.append(","); }
+            sb.append("{\"_id\":\"").append(String.format("%024x", millis)).append("\",")
+              .append("\"eventType\":\"").append(meal ? "Meal Bolus" : "Correction Bolus").append("\",")
+              .append("\"created_at\":\"").append(ISO.format(Instant.ofEpochMilli(millis))).append("\",")
+              .append("\"glucose\":\"").append(80 + rnd.nextInt(200)).append("\",")
+              .append("\"glucoseType\":\"Sensor\",")
+              .append("\"carbs\":").append(meal ? 10 + rnd.nextInt(80) : 0).append(",")
+              .append("\"protein\":0,")
+              .append("\"fat\":0,")
+              .append("\"insulin\":").append(String.format(Locale.US, "%.2f", rnd.nextDouble() * 8)).append(",")
+              .append("\"units\":\"mg/dl\",")
+              .append("\"notes\":\"\",")
+              .append("\"enteredBy\":\"xDrip4iOS\"")
+              .append("}");
+        }
+        return sb.append("]").toString();
+    }
+
+    static List<Entry> entries(final int noOfEntries) {
+        try {
+            return Connector.getEntriesFromJsonText(entriesJson(noOfEntries));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static List<Treatment> treatments(final int noOfTreatments) {
+        try {
+            return Connector.getTreatmentsFromJsonText(treatmentsJson(noOfTreatments));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
\ No newline at end of file
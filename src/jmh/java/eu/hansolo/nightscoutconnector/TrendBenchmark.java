@@ -0,0 +1,26 @@
+package eu.hansolo.nightscoutconnector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TrendBenchmark {
+    // text key, text key in other case, numeric key and unknown text
+    @Param({ "Flat", "fortyfivedown", "4", "NOT COMPUTABLE" })
+    public String text;
+
+
+    @Benchmark public Trend getFromText() {
+        return Trend.getFromText(text);
+    }
+}
@@ -0,0 +1,148 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.List;
+
+
+/**
+ * Ambulatory glucose profile (AGP), the percentiles of the readings per time of day, e.g. for the
+ * reports of the last 14 or 90 days.
+ * The readings will be streamed into one QuantileSketch per time of day bucket (15 minutes by default),
+ * so the memory doesn't depend on the number of readings and there is no need to keep and sort the entries.
+ * Profiles with the same bucket size and accuracy can be merged, e.g. the profiles of days that have been
+ * fetched one after the other or the profiles of several patients.
+ * The time of day is the local time in the zone of the profile, the zone offset will only be looked up
+ * again when a reading is outside of the period of the last offset (e.g. after a daylight saving time change).
+ * Instances are not thread safe.
+ */
+public class AgpProfile {
+    public  static final Duration         DEFAULT_BUCKET_SIZE = Duration.ofMinutes(15);
+    // Percentiles of the AGP report, the 5th to 95th and the 25th to 75th percentile are shown as bands around the median
+    public  static final List<Double>     PERCENTILES         = List.of(0.05, 0.25, 0.5, 0.75, 0.95);
+    private static final int              SECONDS_PER_DAY     = 86_400;
+    private final        ZoneId           zone;
+    private final        ZoneRules        rules;
+    private final        int              bucketSeconds;
+    private final        QuantileSketch[] sketches;
+    private              double           sum;
+    private              long             count;
+    private              long             offsetValidFrom;
+    private              long             offsetValidTo;
+    private              int              offsetSeconds;
+
+
+    // ******************** Constructors **************************************
+    public AgpProfile() {
+        this(ZoneId.systemDefault(), DEFAULT_BUCKET_SIZE, QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+    }
+    public AgpProfile(final ZoneId zone, final Duration bucketSize, final double relativeAccuracy) {
+        if (null == zone) { throw new IllegalArgumentException("zone cannot be null"); }
+        if (null == bucketSize || bucketSize.getSeconds() <= 0 || SECONDS_PER_DAY % bucketSize.getSeconds() != 0) { throw new IllegalArgumentException("bucketSize must be a divisor of one day"); }
+        this.zone            = zone;
+        this.rules           = zone.getRules();
+        this.bucketSeconds   = (int) bucketSize.getSeconds();
+        this.sketches        = new QuantileSketch[SECONDS_PER_DAY / bucketSeconds];
+        for (int i = 0 ; i < sketches.length ; i++) { sketches[i] = new QuantileSketch(relativeAccuracy); }
+        this.offsetValidFrom = Long.MAX_VALUE;
+        this.offsetValidTo   = Long.MIN_VALUE;
+    }
+
+
+    // ******************** Methods *******************************************
+    public void add(final Entry entry) {
+        if (null == entry) { throw new IllegalArgumentException("entry cannot be null"); }
+        add(entry.datelong(), entry.sgv());
+    }
+    public void add(final long datelong, final double sgv) {
+        sketches[getBucket(datelong)].add(sgv);
+        sum += sgv;
+        count++;
+    }
+
+    public void addAll(final List<Entry> entries) {
+        if (null == entries) { throw new IllegalArgumentException("list of entries cannot be null"); }
+        for (int i = 0, size = entries.size() ; i < size ; i++) { add(entries.get(i)); }
+    }
+
+    public void addAll(final GlucoseSeries series) {
+        if (null == series) { throw new IllegalArgumentException("series cannot be null"); }
+        for (int i = 0 ; i < series.size() ; i++) { add(series.getDatelong(i), series.getSgv(i)); }
+    }
+
+    /**
+     * Adds the readings of the given profile to this profile, both profiles must have the same number of buckets and accuracy.
+     */
+    public void merge(final AgpProfile other) {
+        if (null == other) { throw new IllegalArgumentException("profile cannot be null"); }
+        if (other.sketches.length != sketches.length) { throw new IllegalArgumentException("profiles must have the same bucket size"); }
+        for (int i = 0 ; i < sketches.length ; i++) { sketches[i].merge(other.sketches[i]); }
+        sum   += other.sum;
+        count += other.count;
+    }
+
+    public ZoneId getZone() { return zone; }
+
+    public Duration getBucketSize() { return Duration.ofSeconds(bucketSeconds); }
+
+    public int getNoOfBuckets() { return sketches.length; }
+
+    public long getCount() { return count; }
+
+    public boolean isEmpty() { return 0 == count; }
+
+    public double getMean() { return 0 == count ? 0 : sum / count; }
+
+    // Same formula as Connector.calcHbA1c()
+    public double getHbA1c() { return 0 == count ? 0 : (0.0296 * getMean()) + 2.419; }
+
+    /**
+     * Returns the index of the time of day bucket of the given datelong (epoch seconds) in the zone of the profile.
+     */
+    public int getBucket(final long datelong) {
+        if (datelong < offsetValidFrom || datelong >= offsetValidTo) { updateOffset(datelong); }
+        return (int) (Math.floorMod(datelong + offsetSeconds, (long) SECONDS_PER_DAY) / bucketSeconds);
+    }
+
+    public long getCount(final int bucket) { return sketches[bucket].getCount(); }
+
+    // The sgv at the given percentile (0.0 - 1.0) in the given bucket or NaN if there are no readings in the bucket
+    public double getPercentile(final int bucket, final double percentile) { return sketches[bucket].getQuantile(percentile); }
+
+    /**
+     * Returns the sgv at the given percentile (0.0 - 1.0) for every bucket, starting at midnight.
+     */
+    public double[] getCurve(final double percentile) {
+        final double[] curve = new double[sketches.length];
+        for (int i = 0 ; i < sketches.length ; i++) { curve[i] = sketches[i].getQuantile(percentile); }
+        return curve;
+    }
+
+    // The curves of the AGP report (PERCENTILES)
+    public Curves getCurves() {
+        return new Curves(getCurve(PERCENTILES.get(0)), getCurve(PERCENTILES.get(1)), getCurve(PERCENTILES.get(2)), getCurve(PERCENTILES.get(3)), getCurve(PERCENTILES.get(4)));
+    }
+
+    public void clear() {
+        for (QuantileSketch sketch : sketches) { sketch.clear(); }
+        sum   = 0;
+        count = 0;
+    }
+
+    private void updateOffset(final long datelong) {
+        final Instant              instant  = Instant.ofEpochSecond(datelong);
+        final ZoneOffsetTransition previous = rules.previousTransition(instant.plusSeconds(1));
+        final ZoneOffsetTransition next     = rules.nextTransition(instant);
+        offsetSeconds   = rules.getOffset(instant).getTotalSeconds();
+        offsetValidFrom = null == previous ? Long.MIN_VALUE : previous.toEpochSecond();
+        offsetValidTo   = null == next     ? Long.MAX_VALUE : next.toEpochSecond();
+    }
+
+
+    // ******************** Inner Classes *************************************
+    // Every curve has one value per bucket, NaN for buckets without readings
+    public record Curves(double[] p5, double[] p25, double[] p50, double[] p75, double[] p95) {}
+}
@@ -0,0 +1,147 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+
+/**
+ * Runs the same request against many Nightscout sites at once, e.g. to get the current entry of all monitored users.
+ * The number of requests in flight is limited globally and per host. Failing sites will be reported
+ * in the failures of the BatchResult and won't fail the whole batch.
+ * The limiter of a host will be removed as soon as no site of that host is fetched anymore, so a long running
+ * fetcher doesn't keep a limiter for every host it has ever seen.
+ */
+public class BatchFetcher {
+    public static final int                                    DEFAULT_MAX_IN_FLIGHT = 256;
+    public static final int                                    DEFAULT_MAX_PER_HOST  = 8;
+    private final       ConcurrencyLimiter                     globalLimiter;
+    private final       int                                    maxPerHost;
+    private final       ConcurrentHashMap<String, HostLimiter> hostLimiters;
+
+
+    // ******************** Constructors **************************************
+    public BatchFetcher() {
+        this(DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_PER_HOST);
+    }
+    public BatchFetcher(final int maxInFlight, final int maxPerHost) {
+        if (maxInFlight < 1) { throw new IllegalArgumentException("maxInFlight must at least be 1"); }
+        if (maxPerHost < 1) { throw new IllegalArgumentException("maxPerHost must at least be 1"); }
+        this.globalLimiter = new ConcurrencyLimiter(maxInFlight);
+        this.maxPerHost    = maxPerHost;
+        this.hostLimiters  = new ConcurrentHashMap<>();
+    }
+
+
+    // ******************** Methods *******************************************
+    public CompletableFuture<BatchResult<Entry>> getCurrentEntries(final Collection<NightscoutClient> sites) {
+        return fetch(sites, NightscoutClient::getCurrentEntryAsync, null);
+    }
+    public CompletableFuture<BatchResult<Entry>> getCurrentEntries(final Collection<NightscoutClient> sites, final BiConsumer<NightscoutClient, Entry> onResult) {
+        return fetch(sites, NightscoutClient::getCurrentEntryAsync, onResult);
+    }
+
+    public CompletableFuture<BatchResult<List<Entry>>> getLastNEntries(final int noOfEntries, final Collection<NightscoutClient> sites) {
+        if (noOfEntries < 1) { throw new IllegalArgumentException("no of entries must at least be 1"); }
+        return fetch(sites, site -> site.getLastNEntriesAsync(noOfEntries), null);
+    }
+
+    public CompletableFuture<BatchResult<List<Entry>>> getEntriesFromInterval(final TimeInterval interval, final Collection<NightscoutClient> sites) {
+        return fetch(sites, site -> site.getEntriesFromIntervalAsync(interval), null);
+    }
+
+    /**
+     * Runs the given request for every site. If onResult is not null it will be called for every
+     * successful site as soon as its result is available, an exception thrown by onResult will be reported as failure of that site.
+     */
+    public <T> CompletableFuture<BatchResult<T>> fetch(final Collection<NightscoutClient> sites, final Function<NightscoutClient, CompletableFuture<T>> request, final BiConsumer<NightscoutClient, T> onResult) {
+        if (null == sites) { throw new IllegalArgumentException("sites cannot be null"); }
+        if (null == request) { throw new IllegalArgumentException("request cannot be null"); }
+
+        final List<NightscoutClient> clients  = new ArrayList<>(sites);
+        final Object[]               results  = new Object[clients.size()];
+        final Throwable[]            failures = new Throwable[clients.size()];
+        final CompletableFuture<?>[] futures  = new CompletableFuture<?>[clients.size()];
+        for (int i = 0 ; i < clients.size() ; i++) {
+            final int index  = i;
+            final NightscoutClient   client = clients.get(i);
+            final String             host   = getHost(client);
+            futures[i] = acquireHost(host).submit(() -> globalLimiter.submit(() -> request.apply(client)))
+                             .handle((result, throwable) -> {
+                                 releaseHost(host);
+                                 if (null == throwable) {
+                                     results[index] = result;
+                                     if (null == onResult) { return null; }
+                                     // A failing callback only fails its own site
+                                     try {
+                                         onResult.accept(client, result);
+                                     } catch (RuntimeException e) {
+                                         failures[index] = e;
+                                     }
+                                 } else {
+                                     failures[index] = throwable instanceof CompletionException && null != throwable.getCause() ? throwable.getCause() : throwable;
+                                 }
+                                 return null;
+                             });
+        }
+        return CompletableFuture.allOf(futures).thenApply(v -> {
+            final Map<NightscoutClient, T>         resultMap  = new HashMap<>(clients.size() * 2);
+            final Map<NightscoutClient, Throwable> failureMap = new HashMap<>();
+            for (int i = 0 ; i < clients.size() ; i++) {
+                if (null == failures[i]) {
+                    @SuppressWarnings("unchecked") final T result = (T) results[i];
+                    resultMap.put(clients.get(i), result);
+                } else {
+                    failureMap.put(clients.get(i), failures[i]);
+                }
+            }
+            return new BatchResult<>(resultMap, failureMap);
+        });
+    }
+
+    // Number of hosts that have sites in flight or queued
+    int getNoOfHosts() { return hostLimiters.size(); }
+
+    // The users of a host limiter are only changed inside compute(), which is atomic per host
+    private ConcurrencyLimiter acquireHost(final String host) {
+        return hostLimiters.compute(host, (h, hostLimiter) -> {
+            final HostLimiter limiter = null == hostLimiter ? new HostLimiter(new ConcurrencyLimiter(maxPerHost)) : hostLimiter;
+            limiter.users++;
+            return limiter;
+        }).limiter;
+    }
+
+    private void releaseHost(final String host) {
+        hostLimiters.computeIfPresent(host, (h, hostLimiter) -> --hostLimiter.users == 0 ? null : hostLimiter);
+    }
+
+    private static String getHost(final NightscoutClient client) {
+        final String host = URI.create(client.getNightscoutUrl()).getHost();
+        return null == host ? client.getNightscoutUrl() : host;
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private static final class HostLimiter {
+        private final ConcurrencyLimiter limiter;
+        private       int users;
+
+
+        HostLimiter(final ConcurrencyLimiter limiter) {
+            this.limiter = limiter;
+            this.users   = 0;
+        }
+    }
+
+    public record BatchResult<T>(Map<NightscoutClient, T> results, Map<NightscoutClient, Throwable> failures) {
+        public boolean hasFailures() { return !failures.isEmpty(); }
+    }
+}
@@ -0,0 +1,482 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Compact, versioned binary format for lists of entries and treatments, e.g. to pass parsed data between services.
+ * Layout: magic (4), version (1), kind (1), varint no of records, string dictionary, records.
+ * Every record starts with varint flags that define how its fields are stored.
+ * Timestamps are delta encoded as zigzag varints and ISO 8601 strings of the same time are not stored at all.
+ * Numbers with up to 3 decimals are stored as zigzag varints (doubles otherwise), trends as ordinals,
+ * 24 digit object ids as 12 bytes and repeated strings (device, type, direction, eventType etc.) as
+ * indices into the dictionary. The visitor based decoding of entries doesn't allocate per record.
+ */
+public final class BinaryCodec {
+    public  static final int               VERSION            = 1;
+    private static final int               MAGIC              = 0x4E534243; // NSBC
+    private static final byte              KIND_ENTRIES       = 1;
+    private static final byte              KIND_TREATMENTS    = 2;
+    private static final double            SCALE              = 1000;
+    private static final int               OBJECT_ID          = 1;
+    private static final Trend[]           TRENDS             = Trend.values();
+    private static final HexFormat         HEX                = HexFormat.of();
+    private static final DateTimeFormatter MILLIS_FORMAT      = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+    // Entry flags, the common ones fit into one byte
+    private static final int               DATE_INSTANT       = 1 << 1;
+    private static final int               DATE_MILLIS        = 1 << 2;
+    private static final int               SYS_TIME_INSTANT   = 1 << 3;
+    private static final int               SYS_TIME_MILLIS    = 1 << 4;
+    private static final int               SGV_DOUBLE         = 1 << 5;
+    private static final int               FILTERED_DOUBLE    = 1 << 6;
+    private static final int               UNFILTERED_DOUBLE  = 1 << 7;
+    private static final int               DELTA_DOUBLE       = 1 << 8;
+    // Treatment flags
+    private static final int               CREATED_AT_INSTANT = 1 << 1;
+    private static final int               CREATED_AT_MILLIS  = 1 << 2;
+    private static final int               CARBS_DOUBLE       = 1 << 3;
+    private static final int               PROTEIN_DOUBLE     = 1 << 4;
+    private static final int               FAT_DOUBLE         = 1 << 5;
+    private static final int               INSULIN_DOUBLE     = 1 << 6;
+
+
+    // ******************** Constructors **************************************
+    private BinaryCodec() {}
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Returns a buffer that contains the given entries (position 0, limit at the end of the data).
+     */
+    public static ByteBuffer encodeEntries(final List<Entry> entries) {
+        if (null == entries) { throw new IllegalArgumentException("list of entries cannot be null"); }
+        final Dictionary dictionary = new Dictionary();
+        for (Entry entry : entries) {
+            dictionary.add(entry.direction());
+            dictionary.add(entry.device());
+            dictionary.add(entry.type());
+        }
+        final Output output = new Output(32 + dictionary.byteSize + entries.size() * 24);
+        writeHeader(output, KIND_ENTRIES, entries.size(), dictionary);
+        long lastDatelong = 0;
+        for (Entry entry : entries) {
+            final long millis = entry.datelong() * 1000;
+            final int  flags  = (isObjectId(entry.id())          ? OBJECT_ID         : 0) |
+                                (!isScalable(entry.sgv())        ? SGV_DOUBLE        : 0) |
+                                (!isScalable(entry.filtered())   ? FILTERED_DOUBLE   : 0) |
+                                (!isScalable(entry.unfiltered()) ? UNFILTERED_DOUBLE : 0) |
+                                (!isScalable(entry.delta())      ? DELTA_DOUBLE      : 0) |
+                                getTimestampFormat(entry.dateString(), millis, DATE_INSTANT, DATE_MILLIS) |
+                                getTimestampFormat(entry.sysTime(), millis, SYS_TIME_INSTANT, SYS_TIME_MILLIS);
+            output.putVarLong(flags);
+            writeId(output, flags, entry.id());
+            output.putSignedVarLong(entry.datelong() - lastDatelong);
+            lastDatelong = entry.datelong();
+            writeNumber(output, flags, SGV_DOUBLE, entry.sgv());
+            output.putByte((null == entry.trend() ? Trend.NONE : entry.trend()).ordinal());
+            output.putVarLong(dictionary.indexOf(entry.direction()));
+            output.putVarLong(dictionary.indexOf(entry.device()));
+            output.putVarLong(dictionary.indexOf(entry.type()));
+            if (0 == (flags & (DATE_INSTANT | DATE_MILLIS))) { output.putString(entry.dateString()); }
+            if (0 == (flags & (SYS_TIME_INSTANT | SYS_TIME_MILLIS))) { output.putString(entry.sysTime()); }
+            output.putSignedVarLong(entry.utcOffset());
+            output.putSignedVarLong(entry.noise());
+            output.putSignedVarLong(entry.rssi());
+            writeNumber(output, flags, FILTERED_DOUBLE, entry.filtered());
+            writeNumber(output, flags, UNFILTERED_DOUBLE, entry.unfiltered());
+            writeNumber(output, flags, DELTA_DOUBLE, entry.delta());
+        }
+        return output.toBuffer();
+    }
+
+    /**
+     * Decodes the entries starting at the position of the given buffer and moves its position behind them.
+     */
+    public static List<Entry> decodeEntries(final ByteBuffer buffer) {
+        final int         count      = readHeader(buffer, KIND_ENTRIES);
+        final String[]    dictionary = readDictionary(buffer);
+        final List<Entry> entries    = new ArrayList<>(count);
+        final ZoneId      zoneId     = ZoneId.systemDefault();
+        long datelong = 0;
+        for (int i = 0 ; i < count ; i++) {
+            final int    flags      = (int) getVarLong(buffer);
+            final String id         = readId(buffer, flags);
+            datelong += getSignedVarLong(buffer);
+            final double sgv        = readNumber(buffer, flags, SGV_DOUBLE);
+            final Trend  trend      = TRENDS[buffer.get()];
+            final String direction  = dictionary[(int) getVarLong(buffer)];
+            final String device     = dictionary[(int) getVarLong(buffer)];
+            final String type       = dictionary[(int) getVarLong(buffer)];
+            final String dateString = readTimestamp(buffer, flags, DATE_INSTANT, DATE_MILLIS, datelong * 1000);
+            final String sysTime    = readTimestamp(buffer, flags, SYS_TIME_INSTANT, SYS_TIME_MILLIS, datelong * 1000);
+            final int    utcOffset  = (int) getSignedVarLong(buffer);
+            final int    noise      = (int) getSignedVarLong(buffer);
+            final int    rssi       = (int) getSignedVarLong(buffer);
+            final double filtered   = readNumber(buffer, flags, FILTERED_DOUBLE);
+            final double unfiltered = readNumber(buffer, flags, UNFILTERED_DOUBLE);
+            final double delta      = readNumber(buffer, flags, DELTA_DOUBLE);
+            final OffsetDateTime date = OffsetDateTime.ofInstant(Instant.ofEpochSecond(datelong), zoneId);
+            entries.add(new Entry(id, sgv, datelong, date, dateString, trend, direction, device, type, utcOffset, noise, filtered, unfiltered, rssi, delta, sysTime));
+        }
+        return entries;
+    }
+
+    /**
+     * Calls the visitor with the readings of the encoded entries without creating Entry objects.
+     * Strings and the dictionary are skipped without decoding them.
+     * Returns the number of visited entries.
+     */
+    public static int decodeEntries(final ByteBuffer buffer, final EntryVisitor visitor) {
+        if (null == visitor) { throw new IllegalArgumentException("visitor cannot be null"); }
+        final int count = readHeader(buffer, KIND_ENTRIES);
+        skipDictionary(buffer);
+        long datelong = 0;
+        for (int i = 0 ; i < count ; i++) {
+            final int flags = (int) getVarLong(buffer);
+            if (OBJECT_ID == (flags & OBJECT_ID)) { buffer.position(buffer.position() + 12); } else { skipString(buffer); }
+            datelong += getSignedVarLong(buffer);
+            final double sgv   = readNumber(buffer, flags, SGV_DOUBLE);
+            final Trend  trend = TRENDS[buffer.get()];
+            getVarLong(buffer);
+            getVarLong(buffer);
+            getVarLong(buffer);
+            if (0 == (flags & (DATE_INSTANT | DATE_MILLIS))) { skipString(buffer); }
+            if (0 == (flags & (SYS_TIME_INSTANT | SYS_TIME_MILLIS))) { skipString(buffer); }
+            getSignedVarLong(buffer);
+            getSignedVarLong(buffer);
+            getSignedVarLong(buffer);
+            readNumber(buffer, flags, FILTERED_DOUBLE);
+            readNumber(buffer, flags, UNFILTERED_DOUBLE);
+            final double delta = readNumber(buffer, flags, DELTA_DOUBLE);
+            visitor.visit(datelong, sgv, trend, delta);
+        }
+        return count;
+    }
+
+    public static GlucoseSeries decodeGlucoseSeries(final ByteBuffer buffer) {
+        final GlucoseSeries series = new GlucoseSeries(peekCount(buffer));
+        decodeEntries(buffer, (datelong, sgv, trend, delta) -> series.add(datelong, sgv, trend));
+        return series;
+    }
+
+    /**
+     * Returns a buffer that contains the given treatments (position 0, limit at the end of the data).
+     */
+    public static ByteBuffer encodeTreatments(final List<Treatment> treatments) {
+        if (null == treatments) { throw new IllegalArgumentException("list of treatments cannot be null"); }
+        final Dictionary dictionary = new Dictionary();
+        for (Treatment treatment : treatments) {
+            dictionary.add(treatment.eventType());
+            dictionary.add(treatment.glucose());
+            dictionary.add(treatment.glucoseType());
+            dictionary.add(treatment.units());
+            dictionary.add(treatment.transmitterId());
+            dictionary.add(treatment.sensorCode());
+            dictionary.add(treatment.enteredBy());
+        }
+        final Output output = new Output(32 + dictionary.byteSize + treatments.size() * 24);
+        writeHeader(output, KIND_TREATMENTS, treatments.size(), dictionary);
+        long lastMillis = 0;
+        for (Treatment treatment : treatments) {
+            final long millis          = treatment.createdAtMillis();
+            final int  createdAtFormat = getTimestampFormat(treatment.created_at(), millis, CREATED_AT_INSTANT, CREATED_AT_MILLIS);
+            final int  flags           = (isObjectId(treatment.id())       ? OBJECT_ID      : 0) |
+                                         createdAtFormat |
+                                         (!isScalable(treatment.carbs())   ? CARBS_DOUBLE   : 0) |
+                                         (!isScalable(treatment.protein()) ? PROTEIN_DOUBLE : 0) |
+                                         (!isScalable(treatment.fat())     ? FAT_DOUBLE     : 0) |
+                                         (!isScalable(treatment.insulin()) ? INSULIN_DOUBLE : 0);
+            output.putVarLong(flags);
+            writeId(output, flags, treatment.id());
+            if (0 == createdAtFormat) {
+                output.putString(treatment.created_at());
+            } else {
+                output.putSignedVarLong(millis - lastMillis);
+                lastMillis = millis;
+            }
+            output.putVarLong(dictionary.indexOf(treatment.eventType()));
+            output.putVarLong(dictionary.indexOf(treatment.glucose()));
+            output.putVarLong(dictionary.indexOf(treatment.glucoseType()));
+            output.putVarLong(dictionary.indexOf(treatment.units()));
+            output.putVarLong(dictionary.indexOf(treatment.transmitterId()));
+            output.putVarLong(dictionary.indexOf(treatment.sensorCode()));
+            output.putVarLong(dictionary.indexOf(treatment.enteredBy()));
+            output.putString(treatment.notes());
+            writeNumber(output, flags, CARBS_DOUBLE, treatment.carbs());
+            writeNumber(output, flags, PROTEIN_DOUBLE, treatment.protein());
+            writeNumber(output, flags, FAT_DOUBLE, treatment.fat());
+            writeNumber(output, flags, INSULIN_DOUBLE, treatment.insulin());
+        }
+        return output.toBuffer();
+    }
+
+    /**
+     * Decodes the treatments starting at the position of the given buffer and moves its position behind them.
+     */
+    public static List<Treatment> decodeTreatments(final ByteBuffer buffer) {
+        final int             count      = readHeader(buffer, KIND_TREATMENTS);
+        final String[]        dictionary = readDictionary(buffer);
+        final List<Treatment> treatments = new ArrayList<>(count);
+        long millis = 0;
+        for (int i = 0 ; i < count ; i++) {
+            final int    flags = (int) getVarLong(buffer);
+            final String id    = readId(buffer, flags);
+            final String createdAt;
+            if (0 == (flags & (CREATED_AT_INSTANT | CREATED_AT_MILLIS))) {
+                createdAt = getString(buffer);
+            } else {
+                millis += getSignedVarLong(buffer);
+                createdAt = formatTimestamp(flags, CREATED_AT_INSTANT, millis);
+            }
+            final String eventType     = dictionary[(int) getVarLong(buffer)];
+            final String glucose       = dictionary[(int) getVarLong(buffer)];
+            final String glucoseType   = dictionary[(int) getVarLong(buffer)];
+            final String units         = dictionary[(int) getVarLong(buffer)];
+            final String transmitterId = dictionary[(int) getVarLong(buffer)];
+            final String sensorCode    = dictionary[(int) getVarLong(buffer)];
+            final String enteredBy     = dictionary[(int) getVarLong(buffer)];
+            final String notes         = getString(buffer);
+            final double carbs         = readNumber(buffer, flags, CARBS_DOUBLE);
+            final double protein       = readNumber(buffer, flags, PROTEIN_DOUBLE);
+            final double fat           = readNumber(buffer, flags, FAT_DOUBLE);
+            final double insulin       = readNumber(buffer, flags, INSULIN_DOUBLE);
+            treatments.add(new Treatment(id, eventType, createdAt, glucose, glucoseType, carbs, protein, fat, insulin, units, transmitterId, sensorCode, notes, enteredBy));
+        }
+        return treatments;
+    }
+
+    private static void writeHeader(final Output output, final byte kind, final int count, final Dictionary dictionary) {
+        output.putInt(MAGIC);
+        output.putByte(VERSION);
+        output.putByte(kind);
+        output.putVarLong(count);
+        output.putVarLong(dictionary.strings.size());
+        for (String string : dictionary.strings.keySet()) { output.putString(string); }
+    }
+
+    private static int readHeader(final ByteBuffer buffer, final byte kind) {
+        if (null == buffer) { throw new IllegalArgumentException("buffer cannot be null"); }
+        if (buffer.remaining() < 6 || MAGIC != buffer.getInt()) { throw new IllegalArgumentException("buffer does not contain encoded records"); }
+        final int version = buffer.get();
+        if (version < 1 || version > VERSION) { throw new IllegalArgumentException("Unsupported version " + version); }
+        final byte encodedKind = buffer.get();
+        if (kind != encodedKind) { throw new IllegalArgumentException("buffer contains " + (KIND_ENTRIES == encodedKind ? "entries" : "treatments")); }
+        return (int) getVarLong(buffer);
+    }
+
+    private static int peekCount(final ByteBuffer buffer) {
+        final int position = buffer.position();
+        try {
+            return readHeader(buffer, KIND_ENTRIES);
+        } finally {
+            buffer.position(position);
+        }
+    }
+
+    // Index 0 of the dictionary is null
+    private static String[] readDictionary(final ByteBuffer buffer) {
+        final String[] dictionary = new String[(int) getVarLong(buffer) + 1];
+        for (int i = 1 ; i < dictionary.length ; i++) { dictionary[i] = getString(buffer); }
+        return dictionary;
+    }
+
+    private static void skipDictionary(final ByteBuffer buffer) {
+        final long size = getVarLong(buffer);
+        for (long i = 0 ; i < size ; i++) { skipString(buffer); }
+    }
+
+    private static void writeId(final Output output, final int flags, final String id) {
+        if (OBJECT_ID == (flags & OBJECT_ID)) {
+            output.putBytes(HEX.parseHex(id));
+        } else {
+            output.putString(id);
+        }
+    }
+
+    private static String readId(final ByteBuffer buffer, final int flags) {
+        if (OBJECT_ID != (flags & OBJECT_ID)) { return getString(buffer); }
+        final byte[] bytes = new byte[12];
+        buffer.get(bytes);
+        return HEX.formatHex(bytes);
+    }
+
+    // Numbers are stored as zigzag varint of (value << 1) for integral values and (value * SCALE << 1 | 1) for
+    // values with up to 3 decimals, all other values (flag set) are stored as doubles
+    private static void writeNumber(final Output output, final int flags, final int doubleFlag, final double value) {
+        if (doubleFlag == (flags & doubleFlag)) {
+            output.putDouble(value);
+        } else if ((long) value == value) {
+            output.putSignedVarLong((long) value << 1);
+        } else {
+            output.putSignedVarLong(Math.round(value * SCALE) << 1 | 1);
+        }
+    }
+
+    private static double readNumber(final ByteBuffer buffer, final int flags, final int doubleFlag) {
+        if (doubleFlag == (flags & doubleFlag)) { return buffer.getDouble(); }
+        final long value = getSignedVarLong(buffer);
+        return 0 == (value & 1) ? value >> 1 : (value >> 1) / SCALE;
+    }
+
+    // Only values that will be decoded to exactly the same double are scaled (this also excludes -0.0 and NaN)
+    private static boolean isScalable(final double value) {
+        final double scaled = value * SCALE;
+        return Math.abs(scaled) < 1e15 && Double.compare(Math.round(scaled) / SCALE, value) == 0;
+    }
+
+    // Only lower case ids will be stored as bytes, so they are decoded to the same string
+    private static boolean isObjectId(final String id) {
+        if (null == id || id.length() != 24) { return false; }
+        for (int i = 0 ; i < 24 ; i++) {
+            final char c = id.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) { return false; }
+        }
+        return true;
+    }
+
+    // Timestamps that are the ISO 8601 representation of the given millis don't need to be stored
+    private static int getTimestampFormat(final String timestamp, final long millis, final int instantFlag, final int millisFlag) {
+        if (null == timestamp || timestamp.isEmpty() || 0 == millis) { return 0; }
+        final Instant instant = Instant.ofEpochMilli(millis);
+        if (timestamp.equals(instant.toString())) { return instantFlag; }
+        if (timestamp.equals(MILLIS_FORMAT.format(instant))) { return millisFlag; }
+        return 0;
+    }
+
+    private static String readTimestamp(final ByteBuffer buffer, final int flags, final int instantFlag, final int millisFlag, final long millis) {
+        return 0 == (flags & (instantFlag | millisFlag)) ? getString(buffer) : formatTimestamp(flags, instantFlag, millis);
+    }
+
+    private static String formatTimestamp(final int flags, final int instantFlag, final long millis) {
+        return instantFlag == (flags & instantFlag) ? Instant.ofEpochMilli(millis).toString() : MILLIS_FORMAT.format(Instant.ofEpochMilli(millis));
+    }
+
+    private static long getVarLong(final ByteBuffer buffer) {
+        long value = 0;
+        int  shift = 0;
+        while (true) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) { return value; }
+            shift += 7;
+            if (shift > 63) { throw new IllegalArgumentException("Malformed varint"); }
+        }
+    }
+
+    private static long getSignedVarLong(final ByteBuffer buffer) {
+        final long value = getVarLong(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // Strings are stored as varint (length + 1) followed by the UTF-8 bytes, 0 stands for null
+    private static String getString(final ByteBuffer buffer) {
+        final int length = (int) getVarLong(buffer) - 1;
+        if (length < 0) { return null; }
+        if (0 == length) { return ""; }
+        final String string;
+        if (buffer.hasArray()) {
+            string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            final byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            string = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return string;
+    }
+
+    private static void skipString(final ByteBuffer buffer) {
+        final int length = (int) getVarLong(buffer) - 1;
+        if (length > 0) { buffer.position(buffer.position() + length); }
+    }
+
+
+    // ******************** Inner Classes *************************************
+    @FunctionalInterface public interface EntryVisitor {
+        void visit(long datelong, double sgv, Trend trend, double delta);
+    }
+
+    private static final class Dictionary {
+        private final Map<String, Integer> strings  = new LinkedHashMap<>();
+        private       int                  byteSize = 0;
+
+
+        void add(final String string) {
+            if (null == string || strings.containsKey(string)) { return; }
+            strings.put(string, strings.size() + 1);
+            byteSize += string.length() * 3 + 5;
+        }
+
+        int indexOf(final String string) { return null == string ? 0 : strings.get(string); }
+    }
+
+    private static final class Output {
+        private ByteBuffer buffer;
+
+
+        Output(final int initialCapacity) { this.buffer = ByteBuffer.allocate(Math.max(64, initialCapacity)); }
+
+
+        void putByte(final int value) {
+            ensureCapacity(1);
+            buffer.put((byte) value);
+        }
+
+        void putInt(final int value) {
+            ensureCapacity(4);
+            buffer.putInt(value);
+        }
+
+        void putDouble(final double value) {
+            ensureCapacity(8);
+            buffer.putDouble(value);
+        }
+
+        void putBytes(final byte[] bytes) {
+            ensureCapacity(bytes.length);
+            buffer.put(bytes);
+        }
+
+        void putVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void putSignedVarLong(final long value) { putVarLong((value << 1) ^ (value >> 63)); }
+
+        void putString(final String string) {
+            if (null == string) {
+                putVarLong(0);
+                return;
+            }
+            final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            putVarLong(bytes.length + 1);
+            putBytes(bytes);
+        }
+
+        ByteBuffer toBuffer() { return buffer.flip(); }
+
+        private void ensureCapacity(final int length) {
+            if (buffer.remaining() >= length) { return; }
+            final ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+}
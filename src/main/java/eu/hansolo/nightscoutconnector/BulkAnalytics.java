@@ -0,0 +1,239 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import static eu.hansolo.nightscoutconnector.Constants.MAX_HIGH;
+import static eu.hansolo.nightscoutconnector.Constants.MIN_CRITICAL;
+import static eu.hansolo.nightscoutconnector.Constants.MIN_HIGH;
+import static eu.hansolo.nightscoutconnector.Constants.MIN_NORMAL;
+
+
+/**
+ * Computes the estimated HbA1c, the times in range and the prediction of many patients in parallel on a ForkJoinPool.
+ * The work will be split across the patients and large series (e.g. 90 days) will also be split into chunks
+ * that are summed up in parallel. Every task writes its results into its own slots of the arrays of the Report,
+ * so there is no shared state to synchronize and the work scales with the number of cores.
+ * The formulas and ranges are the same as the ones of Connector.calcHbA1c() and RollingAnalytics.
+ * With the SECOND_DIFFERENCE model and the default horizon the predictions are the ones of Connector.predict(),
+ * every other model and horizon predicts with a Predictor, based on the newest reading.
+ */
+public class BulkAnalytics {
+    // Series with more readings will be split into chunks that are summed up in parallel
+    public  static final int             DEFAULT_SPLIT_THRESHOLD = 8_192;
+    private final        ForkJoinPool    pool;
+    private final        PredictionModel model;
+    private final        Duration        horizon;
+    private final        int             splitThreshold;
+    private final        boolean         connectorPrediction;
+
+
+    // ******************** Constructors **************************************
+    public BulkAnalytics() {
+        this(ForkJoinPool.commonPool(), Predictor.SECOND_DIFFERENCE, Predictor.DEFAULT_HORIZON, DEFAULT_SPLIT_THRESHOLD);
+    }
+    public BulkAnalytics(final ForkJoinPool pool, final PredictionModel model, final Duration horizon, final int splitThreshold) {
+        if (null == pool) { throw new IllegalArgumentException("pool cannot be null"); }
+        if (null == model) { throw new IllegalArgumentException("model cannot be null"); }
+        if (null == horizon || horizon.isNegative()) { throw new IllegalArgumentException("horizon cannot be null or negative"); }
+        if (splitThreshold < 1) { throw new IllegalArgumentException("splitThreshold must at least be 1"); }
+        this.pool                = pool;
+        this.model               = model;
+        this.horizon             = horizon;
+        this.splitThreshold      = splitThreshold;
+        this.connectorPrediction = Predictor.SECOND_DIFFERENCE == model && Predictor.DEFAULT_HORIZON.equals(horizon);
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Analyzes the entries of every patient, the results are in the iteration order of the map.
+     */
+    public Report analyze(final Map<String, List<Entry>> entriesByPatient) {
+        if (null == entriesByPatient) { throw new IllegalArgumentException("map of entries cannot be null"); }
+        final List<String>   patients = new ArrayList<>(entriesByPatient.size());
+        final List<Readings> readings = new ArrayList<>(entriesByPatient.size());
+        for (Map.Entry<String, List<Entry>> e : entriesByPatient.entrySet()) {
+            if (null == e.getValue()) { throw new IllegalArgumentException("list of entries cannot be null"); }
+            patients.add(e.getKey());
+            readings.add(new EntryReadings(e.getValue() instanceof RandomAccess ? e.getValue() : new ArrayList<>(e.getValue())));
+        }
+        return analyze(patients, readings);
+    }
+
+    public Report analyzeSeries(final Map<String, GlucoseSeries> seriesByPatient) {
+        if (null == seriesByPatient) { throw new IllegalArgumentException("map of series cannot be null"); }
+        final List<String>   patients = new ArrayList<>(seriesByPatient.size());
+        final List<Readings> readings = new ArrayList<>(seriesByPatient.size());
+        for (Map.Entry<String, GlucoseSeries> e : seriesByPatient.entrySet()) {
+            if (null == e.getValue()) { throw new IllegalArgumentException("series cannot be null"); }
+            patients.add(e.getKey());
+            readings.add(new SeriesReadings(e.getValue()));
+        }
+        return analyze(patients, readings);
+    }
+
+    private Report analyze(final List<String> patients, final List<Readings> readings) {
+        final Report report = new Report(patients.toArray(new String[0]), new int[patients.size()], new double[patients.size()], new double[patients.size()],
+                                         new double[patients.size()], new double[patients.size()], new double[patients.size()], new double[patients.size()],
+                                         new double[patients.size()], new Prediction[patients.size()]);
+        if (!patients.isEmpty()) { pool.invoke(new PatientTask(readings, report, 0, patients.size())); }
+        return report;
+    }
+
+    // Every patient uses its own Predictor because Predictors are not thread safe, Connector.predict() uses one Predictor per thread
+    private void analyze(final Readings readings, final Report report, final int index) {
+        final int    size = readings.size();
+        final Sums   sums = size > splitThreshold ? new SumTask(readings, 0, size, splitThreshold).invoke() : Sums.of(readings, 0, size);
+        final double mean = 0 == sums.count() ? 0 : sums.sum() / sums.count();
+        report.counts()[index]          = sums.count();
+        report.means()[index]           = mean;
+        report.hbA1cs()[index]          = 0 == sums.count() ? 0 : (0.0296 * mean) + 2.419;
+        report.timesVeryLow()[index]    = percentage(sums.veryLow(), sums.count());
+        report.timesBelowRange()[index] = percentage(sums.belowRange(), sums.count());
+        report.timesInRange()[index]    = percentage(sums.count() - sums.belowRange() - sums.aboveRange(), sums.count());
+        report.timesAboveRange()[index] = percentage(sums.aboveRange(), sums.count());
+        report.timesVeryHigh()[index]   = percentage(sums.veryHigh(), sums.count());
+        if (size < model.getNoOfReadings()) {
+            report.predictions()[index] = Prediction.NONE;
+        } else {
+            report.predictions()[index] = connectorPrediction ? readings.predictFromOldest() : readings.predict(new Predictor(model, horizon));
+        }
+    }
+
+    private static double percentage(final int count, final int total) { return 0 == total ? 0 : count * 100.0 / total; }
+
+
+    // ******************** Inner Classes *************************************
+    /**
+     * Results of all patients, the values of the patient at index i are at index i of every array.
+     * The times in range are percentages, the HbA1c and mean are 0 and the prediction is NONE if a patient has no (or not enough) readings.
+     */
+    public record Report(String[] patients, int[] counts, double[] means, double[] hbA1cs, double[] timesVeryLow, double[] timesBelowRange,
+                         double[] timesInRange, double[] timesAboveRange, double[] timesVeryHigh, Prediction[] predictions) {
+        public int size() { return patients.length; }
+
+        // Index of the given patient or -1 if the report doesn't contain the patient
+        public int indexOf(final String patient) {
+            for (int i = 0 ; i < patients.length ; i++) {
+                if (Objects.equals(patients[i], patient)) { return i; }
+            }
+            return -1;
+        }
+    }
+
+    private interface Readings {
+        int size();
+
+        double getSgv(int index);
+
+        Prediction predict(Predictor predictor);
+
+        Prediction predictFromOldest();
+    }
+
+    private record EntryReadings(List<Entry> entries) implements Readings {
+        @Override public int size() { return entries.size(); }
+
+        @Override public double getSgv(final int index) { return entries.get(index).sgv(); }
+
+        @Override public Prediction predict(final Predictor predictor) { return predictor.predict(entries); }
+
+        @Override public Prediction predictFromOldest() { return Predictor.predictFromOldest(entries); }
+    }
+
+    private record SeriesReadings(GlucoseSeries series) implements Readings {
+        @Override public int size() { return series.size(); }
+
+        @Override public double getSgv(final int index) { return series.getSgv(index); }
+
+        @Override public Prediction predict(final Predictor predictor) { return predictor.predict(series); }
+
+        @Override public Prediction predictFromOldest() { return Predictor.predictFromOldest(series); }
+    }
+
+    private record Sums(double sum, int count, int veryLow, int belowRange, int aboveRange, int veryHigh) {
+        static Sums of(final Readings readings, final int from, final int to) {
+            double sum        = 0;
+            int    veryLow    = 0;
+            int    belowRange = 0;
+            int    aboveRange = 0;
+            int    veryHigh   = 0;
+            for (int i = from ; i < to ; i++) {
+                final double sgv = readings.getSgv(i);
+                sum += sgv;
+                if (sgv < MIN_NORMAL) {
+                    belowRange++;
+                    if (sgv < MIN_CRITICAL) { veryLow++; }
+                } else if (sgv > MIN_HIGH) {
+                    aboveRange++;
+                    if (sgv > MAX_HIGH) { veryHigh++; }
+                }
+            }
+            return new Sums(sum, to - from, veryLow, belowRange, aboveRange, veryHigh);
+        }
+
+        Sums combine(final Sums other) {
+            return new Sums(sum + other.sum, count + other.count, veryLow + other.veryLow, belowRange + other.belowRange, aboveRange + other.aboveRange, veryHigh + other.veryHigh);
+        }
+    }
+
+    private final class PatientTask extends RecursiveAction {
+        private static final long           serialVersionUID = 1L;
+        private final        List<Readings> readings;
+        private final        Report         report;
+        private final        int            from;
+        private final        int            to;
+
+
+        PatientTask(final List<Readings> readings, final Report report, final int from, final int to) {
+            this.readings = readings;
+            this.report   = report;
+            this.from     = from;
+            this.to       = to;
+        }
+
+
+        @Override protected void compute() {
+            if (to - from == 1) {
+                analyze(readings.get(from), report, from);
+            } else {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new PatientTask(readings, report, from, middle), new PatientTask(readings, report, middle, to));
+            }
+        }
+    }
+
+    private static final class SumTask extends RecursiveTask<Sums> {
+        private static final long     serialVersionUID = 1L;
+        private final        Readings readings;
+        private final        int      from;
+        private final        int      to;
+        private final        int      threshold;
+
+
+        SumTask(final Readings readings, final int from, final int to, final int threshold) {
+            this.readings  = readings;
+            this.from      = from;
+            this.to        = to;
+            this.threshold = threshold;
+        }
+
+
+        @Override protected Sums compute() {
+            if (to - from <= threshold) { return Sums.of(readings, from, to); }
+            final int     middle = (from + to) >>> 1;
+            final SumTask left   = new SumTask(readings, from, middle, threshold);
+            left.fork();
+            final Sums right = new SumTask(readings, middle, to, threshold).compute();
+            return left.join().combine(right);
+        }
+    }
+}
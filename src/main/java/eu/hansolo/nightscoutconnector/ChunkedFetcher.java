@@ -0,0 +1,126 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Fetches long ranges of entries (e.g. Interval.LAST_90_DAYS) by splitting them into chunks
+ * (one day by default) that will be requested concurrently over the shared http client.
+ * The number of chunks in flight is limited by the given parallelism. Each chunk is parsed
+ * as soon as it arrives and the result is merged in ascending datelong order without duplicates.
+ */
+public class ChunkedFetcher {
+    public static final Duration DEFAULT_CHUNK_SIZE  = Duration.ofDays(1);
+    public static final int      DEFAULT_PARALLELISM = 4;
+    private final       long     chunkMillis;
+    private final       int      parallelism;
+
+
+    // ******************** Constructors **************************************
+    public ChunkedFetcher() {
+        this(DEFAULT_CHUNK_SIZE, DEFAULT_PARALLELISM);
+    }
+    public ChunkedFetcher(final Duration chunkSize, final int parallelism) {
+        if (null == chunkSize || chunkSize.toMinutes() < 5) { throw new IllegalArgumentException("chunkSize must at least be 5 minutes"); }
+        if (parallelism < 1) { throw new IllegalArgumentException("parallelism must at least be 1"); }
+        this.chunkMillis = chunkSize.toMillis();
+        this.parallelism = parallelism;
+    }
+
+
+    // ******************** Methods *******************************************
+    public List<Entry> getEntriesFromTo(final ZonedDateTime from, final ZonedDateTime to, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) {
+        return join(getEntriesFromToAsync(from, to, nightscoutUrl, apiSecret, nightscoutToken));
+    }
+
+    public List<Entry> getEntriesFromInterval(final TimeInterval interval, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) {
+        return join(getEntriesFromIntervalAsync(interval, nightscoutUrl, apiSecret, nightscoutToken));
+    }
+
+    public CompletableFuture<List<Entry>> getEntriesFromToAsync(final ZonedDateTime from, final ZonedDateTime to, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) {
+        if (null == from || null == to) { throw new IllegalArgumentException("from and to cannot be null"); }
+        return getEntriesAsync(from.toEpochSecond() * 1000, to.toEpochSecond() * 1000, nightscoutUrl, apiSecret, nightscoutToken);
+    }
+
+    public CompletableFuture<List<Entry>> getEntriesFromIntervalAsync(final TimeInterval interval, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) {
+        final long now = Instant.now().getEpochSecond();
+        return getEntriesAsync((now - interval.getSeconds()) * 1000, now * 1000, nightscoutUrl, apiSecret, nightscoutToken);
+    }
+
+    public CompletableFuture<List<Entry>> getEntriesAsync(final long fromMillis, final long toMillis, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) {
+        return getEntriesAsync(Connector.getClient(nightscoutUrl, apiSecret, nightscoutToken), fromMillis, toMillis);
+    }
+
+    public CompletableFuture<List<Entry>> getEntriesFromIntervalAsync(final NightscoutClient client, final TimeInterval interval) {
+        final long now = Instant.now().getEpochSecond();
+        return getEntriesAsync(client, (now - interval.getSeconds()) * 1000, now * 1000);
+    }
+
+    public CompletableFuture<List<Entry>> getEntriesAsync(final NightscoutClient client, final long fromMillis, final long toMillis) {
+        if (null == client) { throw new IllegalArgumentException("client cannot be null"); }
+        if (fromMillis >= toMillis) { throw new IllegalArgumentException("from must be before to parameter"); }
+
+        final int               noOfChunks = (int) ((toMillis - fromMillis + chunkMillis - 1) / chunkMillis);
+        final List<List<Entry>> chunks     = new ArrayList<>(noOfChunks);
+        final AtomicInteger     nextChunk  = new AtomicInteger(0);
+        final int               noOfLanes  = Math.min(parallelism, noOfChunks);
+        // Every chunk has its own slot, the lanes only set the slots of the chunks they fetched
+        for (int i = 0 ; i < noOfChunks ; i++) { chunks.add(null); }
+
+        // Every lane requests the next chunk as soon as its previous chunk has been parsed
+        final CompletableFuture<?>[] lanes = new CompletableFuture<?>[noOfLanes];
+        for (int i = 0 ; i < noOfLanes ; i++) { lanes[i] = fetchNextChunk(client, fromMillis, toMillis, chunks, nextChunk); }
+        return CompletableFuture.allOf(lanes).thenApply(v -> merge(chunks));
+    }
+
+    public long getChunkMillis() { return chunkMillis; }
+
+    public int getParallelism() { return parallelism; }
+
+    private CompletableFuture<Void> fetchNextChunk(final NightscoutClient client, final long fromMillis, final long toMillis, final List<List<Entry>> chunks, final AtomicInteger nextChunk) {
+        final int index = nextChunk.getAndIncrement();
+        if (index >= chunks.size()) { return CompletableFuture.completedFuture(null); }
+        final long chunkFrom = fromMillis + index * chunkMillis;
+        // chunks do not overlap, only the last one includes the end of the range
+        final long chunkTo   = index == chunks.size() - 1 ? toMillis : chunkFrom + chunkMillis - 1;
+        return client.getEntriesBetweenAsync(chunkFrom, chunkTo)
+                     .thenCompose(entries -> {
+                         chunks.set(index, entries);
+                         return fetchNextChunk(client, fromMillis, toMillis, chunks, nextChunk);
+                     });
+    }
+
+    static List<Entry> merge(final List<List<Entry>> chunks) {
+        int size = 0;
+        for (List<Entry> chunk : chunks) { size += chunk.size(); }
+        final List<Entry> entries = new ArrayList<>(size);
+        final Set<String> ids     = new HashSet<>(size * 2);
+        for (List<Entry> chunk : chunks) {
+            // Nightscout returns the newest entries first
+            chunk.sort(Comparator.naturalOrder());
+            for (Entry entry : chunk) {
+                if (ids.add(entry.id())) { entries.add(entry); }
+            }
+        }
+        return entries;
+    }
+
+    private static List<Entry> join(final CompletableFuture<List<Entry>> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) { throw (RuntimeException) e.getCause(); }
+            throw e;
+        }
+    }
+}
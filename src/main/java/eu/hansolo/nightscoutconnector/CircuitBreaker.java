@@ -0,0 +1,68 @@
+package eu.hansolo.nightscoutconnector;
+
+
+/**
+ * Circuit breaker of one host.
+ * CLOSED   : requests pass, consecutive failed calls (after all their retries) are counted
+ * OPEN     : requests fail fast until the open duration is over
+ * HALF_OPEN: one trial request passes, its result closes or opens the circuit again
+ */
+final class CircuitBreaker {
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private State   state;
+    private int     failures;
+    private long    openUntil;
+    private boolean trialRunning;
+
+
+    // ******************** Constructors **************************************
+    CircuitBreaker() {
+        this.state        = State.CLOSED;
+        this.failures     = 0;
+        this.openUntil    = 0;
+        this.trialRunning = false;
+    }
+
+
+    // ******************** Methods *******************************************
+    synchronized boolean tryAcquire(final ResiliencePolicy policy) {
+        if (!policy.isCircuitBreaking()) { return true; }
+        switch (state) {
+            case CLOSED -> { return true; }
+            case OPEN   -> {
+                if (System.nanoTime() - openUntil < 0) { return false; }
+                state        = State.HALF_OPEN;
+                trialRunning = true;
+                return true;
+            }
+            default     -> {
+                if (trialRunning) { return false; }
+                trialRunning = true;
+                return true;
+            }
+        }
+    }
+
+    synchronized void onSuccess() {
+        state        = State.CLOSED;
+        failures     = 0;
+        trialRunning = false;
+    }
+
+    // Only the last attempt of a call counts as failure, so a call with retries doesn't count once per attempt. A failing trial request opens the circuit again right away.
+    synchronized void onFailure(final ResiliencePolicy policy, final boolean lastAttempt) {
+        if (!policy.isCircuitBreaking()) { return; }
+        if (State.HALF_OPEN != state && !lastAttempt) { return; }
+        failures++;
+        trialRunning = false;
+        if (State.HALF_OPEN == state || failures >= policy.getFailureThreshold()) {
+            state     = State.OPEN;
+            openUntil = System.nanoTime() + policy.getOpenDuration().toNanos();
+        }
+    }
+
+    synchronized State getState() { return state; }
+
+    synchronized boolean isOpen() { return State.OPEN == state && System.nanoTime() - openUntil < 0; }
+}
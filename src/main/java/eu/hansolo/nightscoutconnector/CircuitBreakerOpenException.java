@@ -0,0 +1,16 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.io.IOException;
+
+
+/**
+ * Thrown if a request has not been sent because the circuit breaker of the host is open.
+ */
+public class CircuitBreakerOpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+
+    public CircuitBreakerOpenException(final String host) {
+        super("Circuit breaker open for " + host);
+    }
+}
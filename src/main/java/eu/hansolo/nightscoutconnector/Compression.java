@@ -0,0 +1,211 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+
+/**
+ * Support for gzip and deflate compressed responses.
+ * The requests advertise both encodings, the body handlers decompress the response depending on its Content-Encoding.
+ * Streamed bodies will be decompressed lazily by the thread that reads them (e.g. the parser) and not by the http client.
+ */
+final class Compression {
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+
+
+    // ******************** Constructors **************************************
+    private Compression() {}
+
+
+    // ******************** Methods *******************************************
+    static BodyHandler<InputStream> ofInputStream(final URI uri) {
+        final String endpoint = getEndpoint(uri);
+        return responseInfo -> {
+            final String encoding = getContentEncoding(responseInfo.headers());
+            if (!isCompressed(encoding)) { return BodySubscribers.ofInputStream(); }
+            return BodySubscribers.mapping(BodySubscribers.ofInputStream(), inputStream -> decode(inputStream, encoding, endpoint));
+        };
+    }
+
+    static BodyHandler<byte[]> ofByteArray(final URI uri) {
+        final String endpoint = getEndpoint(uri);
+        return responseInfo -> {
+            final String encoding = getContentEncoding(responseInfo.headers());
+            if (!isCompressed(encoding)) { return BodySubscribers.ofByteArray(); }
+            return BodySubscribers.mapping(BodySubscribers.ofByteArray(), bytes -> decodeAll(bytes, encoding, endpoint));
+        };
+    }
+
+    static BodyHandler<String> ofString(final URI uri) {
+        final String endpoint = getEndpoint(uri);
+        return responseInfo -> {
+            final String  encoding = getContentEncoding(responseInfo.headers());
+            final Charset charset  = getCharset(responseInfo.headers());
+            if (!isCompressed(encoding)) { return BodySubscribers.ofString(charset); }
+            return BodySubscribers.mapping(BodySubscribers.ofByteArray(), bytes -> new String(decodeAll(bytes, encoding, endpoint), charset));
+        };
+    }
+
+    // Returns the decompressed body of a response that has been received as raw bytes
+    static InputStream getBody(final HttpResponse<byte[]> response) {
+        final String      encoding    = getContentEncoding(response.headers());
+        final InputStream inputStream = new ByteArrayInputStream(response.body());
+        return isCompressed(encoding) ? decode(inputStream, encoding, getEndpoint(response.uri())) : inputStream;
+    }
+
+    static InputStream decode(final InputStream inputStream, final String encoding, final String endpoint) {
+        return isCompressed(encoding) ? new DecodingInputStream(inputStream, encoding, endpoint) : inputStream;
+    }
+
+    static String getContentEncoding(final HttpHeaders headers) {
+        return headers.firstValue("Content-Encoding").map(encoding -> encoding.trim().toLowerCase(Locale.ROOT)).orElse("");
+    }
+
+    static boolean isCompressed(final String encoding) {
+        return "gzip".equals(encoding) || "x-gzip".equals(encoding) || "deflate".equals(encoding);
+    }
+
+    private static byte[] decodeAll(final byte[] bytes, final String encoding, final String endpoint) {
+        try (InputStream inputStream = decode(new ByteArrayInputStream(bytes), encoding, endpoint)) {
+            return inputStream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Charset getCharset(final HttpHeaders headers) {
+        final String contentType = headers.firstValue("Content-Type").orElse("");
+        final int    index       = contentType.toLowerCase(Locale.ROOT).indexOf("charset=");
+        if (index < 0) { return StandardCharsets.UTF_8; }
+        try {
+            return Charset.forName(contentType.substring(index + 8).split(";")[0].trim().replace("\"", ""));
+        } catch (IllegalArgumentException e) {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+    // Only needed if metrics are recorded
+    private static String getEndpoint(final URI uri) {
+        return Metrics.NONE == Connector.getMetrics() || null == uri ? null : Metrics.getEndpoint(uri);
+    }
+
+
+    // ******************** Inner Classes *************************************
+    /**
+     * Creates the decompressing stream on the first read, so the http client never blocks while waiting for the gzip header.
+     * Reports the compressed and decompressed number of bytes to the metrics when it is closed.
+     */
+    private static final class DecodingInputStream extends InputStream {
+        private final CountingInputStream source;
+        private final String              encoding;
+        private final String              endpoint;
+        private       InputStream         decoded;
+        private       Inflater            inflater;
+        private       long                decodedBytes;
+        private       boolean             closed;
+
+
+        DecodingInputStream(final InputStream source, final String encoding, final String endpoint) {
+            this.source       = new CountingInputStream(source);
+            this.encoding     = encoding;
+            this.endpoint     = endpoint;
+            this.decodedBytes = 0;
+            this.closed       = false;
+        }
+
+
+        @Override public int read() throws IOException {
+            final int b = getDecoded().read();
+            if (b >= 0) { decodedBytes++; }
+            return b;
+        }
+
+        @Override public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+            final int n = getDecoded().read(buffer, offset, length);
+            if (n > 0) { decodedBytes += n; }
+            return n;
+        }
+
+        @Override public int available() throws IOException { return null == decoded ? 0 : decoded.available(); }
+
+        @Override public void close() throws IOException {
+            if (closed) { return; }
+            closed = true;
+            try {
+                if (null == decoded) {
+                    source.close();
+                } else {
+                    decoded.close();
+                }
+            } finally {
+                if (null != inflater) { inflater.end(); }
+                if (null != endpoint) { Connector.getMetrics().recordDecompressed(endpoint, source.count, decodedBytes); }
+            }
+        }
+
+        private InputStream getDecoded() throws IOException {
+            if (null != decoded) { return decoded; }
+            final PushbackInputStream pushback = new PushbackInputStream(source, 2);
+            final int                 b0       = pushback.read();
+            final int                 b1       = b0 < 0 ? -1 : pushback.read();
+            if (b1 >= 0) { pushback.unread(b1); }
+            if (b0 >= 0) { pushback.unread(b0); }
+            if (b0 < 0) {
+                // Empty body
+                decoded = pushback;
+            } else if ("deflate".equals(encoding)) {
+                // deflate should be zlib wrapped but some servers send raw deflate data
+                final boolean zlib = (b0 & 0x0F) == 8 && b1 >= 0 && ((b0 << 8) | b1) % 31 == 0;
+                inflater = new Inflater(!zlib);
+                decoded  = new InflaterInputStream(pushback, inflater, 8192);
+            } else {
+                decoded = new GZIPInputStream(pushback, 8192);
+            }
+            return decoded;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+
+        CountingInputStream(final InputStream inputStream) {
+            super(inputStream);
+            this.count = 0;
+        }
+
+
+        @Override public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) { count++; }
+            return b;
+        }
+
+        @Override public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+            final int n = super.read(buffer, offset, length);
+            if (n > 0) { count += n; }
+            return n;
+        }
+
+        @Override public long skip(final long n) throws IOException {
+            final long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
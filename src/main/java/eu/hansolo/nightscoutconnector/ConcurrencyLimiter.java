@@ -0,0 +1,148 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+
+/**
+ * Limits the number of concurrently running requests.
+ * Async tasks that exceed the limit will be queued without blocking a thread and
+ * started as soon as a running task completes, sync callers wait for a free permit.
+ * Async tasks and sync callers wait in the same FIFO queue, so neither of them can starve the other.
+ * Sync callers wait on a Condition of a ReentrantLock to not pin virtual threads.
+ */
+final class ConcurrencyLimiter {
+    private final int           maxConcurrent;
+    private final ReentrantLock lock;
+    private final Queue<Waiter> waiting;
+    private       int           permits;
+
+
+    // ******************** Constructors **************************************
+    ConcurrencyLimiter(final int maxConcurrent) {
+        if (maxConcurrent < 1) { throw new IllegalArgumentException("maxConcurrent must at least be 1"); }
+        this.maxConcurrent = maxConcurrent;
+        this.lock          = new ReentrantLock();
+        this.waiting       = new ArrayDeque<>();
+        this.permits       = maxConcurrent;
+    }
+
+
+    // ******************** Methods *******************************************
+    <T> CompletableFuture<T> submit(final Supplier<CompletableFuture<T>> task) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final Runnable             start  = () -> {
+            CompletableFuture<T> cf;
+            try {
+                cf = task.get();
+            } catch (Throwable t) {
+                cf = CompletableFuture.failedFuture(t);
+            }
+            cf.whenComplete((value, throwable) -> {
+                release();
+                if (null == throwable) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(throwable);
+                }
+            });
+        };
+        final boolean startNow;
+        lock.lock();
+        try {
+            startNow = permits > 0;
+            if (startNow) {
+                permits--;
+            } else {
+                waiting.add(new Waiter(start, null));
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (startNow) { start.run(); }
+        return result;
+    }
+
+    void acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            if (permits > 0) {
+                permits--;
+                return;
+            }
+            final Waiter waiter = new Waiter(null, lock.newCondition());
+            waiting.add(waiter);
+            try {
+                while (!waiter.granted) { waiter.condition.await(); }
+            } catch (InterruptedException e) {
+                if (!waiter.granted) {
+                    waiting.remove(waiter);
+                    throw e;
+                }
+                // The permit has already been handed over, keep it and restore the interrupt status
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release() {
+        final Waiter next;
+        lock.lock();
+        try {
+            next = waiting.poll();
+            // The permit will directly be handed over to the next waiting task or caller
+            if (null == next) {
+                permits++;
+            } else if (null == next.task) {
+                next.granted = true;
+                next.condition.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        // Start the next task on another thread to not grow the stack if tasks complete immediately
+        if (null != next && null != next.task) { Connector.getExecutor().execute(next.task); }
+    }
+
+    int getMaxConcurrent() { return maxConcurrent; }
+
+    int getQueued() {
+        lock.lock();
+        try {
+            return waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getActive() {
+        lock.lock();
+        try {
+            return maxConcurrent - permits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    // ******************** Inner Classes *************************************
+    // Either an async task (task) or a sync caller (condition)
+    private static final class Waiter {
+        private final Runnable  task;
+        private final Condition condition;
+        private       boolean   granted;
+
+
+        Waiter(final Runnable task, final Condition condition) {
+            this.task      = task;
+            this.condition = condition;
+            this.granted   = false;
+        }
+    }
+}
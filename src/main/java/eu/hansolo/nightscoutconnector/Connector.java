@@ -1,18 +1,26 @@
 package eu.hansolo.nightscoutconnector;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Method;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpClient.Redirect;
 import java.net.http.HttpClient.Version;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.AccessDeniedException;
 import java.time.Duration;
 import java.time.Instant;
@@ -20,18 +28,17 @@ import java.time.OffsetDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 import static eu.hansolo.nightscoutconnector.Constants.*;
 import static eu.hansolo.toolbox.unit.UnitDefinition.MILLIGRAM_PER_DECILITER;
@@ -39,199 +46,206 @@ import static eu.hansolo.toolbox.unit.UnitDefinition.MILLIMOL_PER_LITER;
 
 
 public class Connector {
-    private static final Logger          LOGGER           = Logger.getLogger(Connector.class.getName());
-    private static final ExecutorService EXECUTOR_SERVICE = Executors.newFixedThreadPool(2);
-    private static       HttpClient      httpClient       = createHttpClient();
+    private static final    Logger                                      LOGGER           = Logger.getLogger(Connector.class.getName());
+    // Max number of cached clients of the static methods, the least recently used client will be dropped
+    private static final    int                                         MAX_CLIENTS      = 256;
+    private static final    LinkedHashMap<String, NightscoutClient>     CLIENTS          = new LinkedHashMap<>(16, 0.75f, true);
+    private static final    ValidatorCache                              VALIDATORS       = new ValidatorCache(ValidatorCache.DEFAULT_MAX_ENTRIES);
+    // Executors.newVirtualThreadPerTaskExecutor() if running on Java 21+, otherwise null
+    private static final    Method                                      VIRTUAL_THREADS  = lookupVirtualThreadExecutorFactory();
+    private static volatile Executor                                    executor         = createDefaultExecutor();
+    private static volatile Executor                                    computeExecutor  = ForkJoinPool.commonPool();
+    private static volatile HttpClient                                  httpClient       = createHttpClient();
+    private static volatile Metrics                                     metrics          = Metrics.NONE;
+    private static volatile ResiliencePolicy                            resiliencePolicy = ResiliencePolicy.DEFAULT;
 
 
     // ******************** Sync methods **************************************
     public static final Entry getCurrentEntry(final String nightscoutUrl, final String apiSecret, final String nightscoutToken) throws AccessDeniedException, IllegalArgumentException {
         if (null == nightscoutUrl || nightscoutUrl.isEmpty()) { return null; }
-        final String        secret     = null == apiSecret ? "" : apiSecret;
-        final String        token      = (null == nightscoutToken || nightscoutToken.isEmpty()) ? "" : nightscoutToken;
-        final StringBuilder urlBuilder = new StringBuilder().append(nightscoutUrl).append(CURRENT_JSON);
-        if (!token.isEmpty()) { urlBuilder.append("&token=").append(token); }
-
-        final String               url      = urlBuilder.toString();
-        final HttpResponse<String> response = get(url, secret);
-        if (null != response) {
-            String jsonText = response.body();
-            List<Entry> entries = getEntriesFromJsonText(jsonText);
-            return entries.isEmpty() ? null : entries.get(0);
-        }
-        return null;
+        return getClient(nightscoutUrl, apiSecret, nightscoutToken).getCurrentEntry();
     }
 
     public static final List<Entry> getLastNEntries(final int noOfEntries, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) throws IllegalArgumentException {
-        if (null == nightscoutUrl || nightscoutUrl.isEmpty()) { throw new IllegalArgumentException("nightscoutUrl cannot be null"); }
-        final String secret      = null == apiSecret ? "" : apiSecret;
-        final String token       = (null == nightscoutToken || nightscoutToken.isEmpty()) ? "" : nightscoutToken;
-
-        if (noOfEntries < 1) { throw new IllegalArgumentException("no of entries must at least be 1"); }
-
-        final StringBuilder urlBuilder  = new StringBuilder().append(nightscoutUrl).append(ENTRIES_JSON).append("?count=").append(noOfEntries);
-        if (!token.isEmpty()) { urlBuilder.append("&token=").append(token); }
-
-        final String      url     = urlBuilder.toString();
-        final List<Entry> entries;
-        try {
-            entries = getEntriesFromJsonText(get(url, secret).body());
-        } catch (AccessDeniedException e) {
-            throw new RuntimeException(e);
-        }
-        return entries;
+        return getClient(nightscoutUrl, apiSecret, nightscoutToken).getLastNEntries(noOfEntries);
     }
 
     public static final List<Entry> getEntriesFromTo(final ZonedDateTime from, final ZonedDateTime to, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) throws IllegalArgumentException {
-        if (null == nightscoutUrl || nightscoutUrl.isEmpty()) { throw new IllegalArgumentException("nightscoutUrl cannot be null"); }
-        final String secret      = null == apiSecret ? "" : apiSecret;
-        final String token       = (null == nightscoutToken || nightscoutToken.isEmpty()) ? "" : nightscoutToken;
-        final long   fromSeconds = from.toEpochSecond();
-        final long   toSeconds   = to.toEpochSecond();
-        if (fromSeconds >= toSeconds) { throw new IllegalArgumentException("from must be before to parameter"); }
-        if (toSeconds - fromSeconds < 3600) { throw new IllegalArgumentException("The duration defined by from and to must be at least 1 hour"); }
-
-        final int           noOfEntries = (int) ((toSeconds - fromSeconds) / 300);
-        final StringBuilder urlBuilder  = new StringBuilder().append(nightscoutUrl).append(ENTRIES_JSON).append("?find[date][$gte]=").append(fromSeconds * 1000).append("&find[date][$lte]=").append(toSeconds * 1000).append("&count=").append(noOfEntries);
-        if (!token.isEmpty()) { urlBuilder.append("&token=").append(token); }
-
-        final String      url = urlBuilder.toString();
-        final List<Entry> entries;
-        try {
-            entries = getEntriesFromJsonText(get(url, secret).body());
-        } catch (AccessDeniedException e) {
-            throw new RuntimeException(e);
-        }
-        return entries;
+        return getClient(nightscoutUrl, apiSecret, nightscoutToken).getEntriesFromTo(from, to);
     }
 
     public static final List<Entry> getEntriesFromInterval(final TimeInterval interval, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) throws IllegalArgumentException {
-        if (null == nightscoutUrl || nightscoutUrl.isEmpty()) { throw new IllegalArgumentException("nightscoutUrl cannot be null"); }
-        final String        secret     = null == apiSecret ? "" : apiSecret;
-        final String        token      = (null == nightscoutToken || nightscoutToken.isEmpty()) ? "" : nightscoutToken;
-        final long          now        = Instant.now().getEpochSecond();
-        final long          from       = (now - interval.getSeconds()) * 1000;
-        final long          to         = now * 1000;
-        final StringBuilder urlBuilder = new StringBuilder().append(nightscoutUrl).append(ENTRIES_JSON).append("?find[date][$gte]=").append(from).append("&find[date][$lte]=").append(to).append("&count=").append(interval.getNoOfEntries());
-        if (!token.isEmpty()) { urlBuilder.append("&token=").append(token); }
-
-        final String      url = urlBuilder.toString();
-        final List<Entry> entries;
-        try {
-            entries = getEntriesFromJsonText(get(url, secret).body());
-        } catch (AccessDeniedException e) {
-            throw new RuntimeException(e);
-        }
-        return entries;
+        return getClient(nightscoutUrl, apiSecret, nightscoutToken).getEntriesFromInterval(interval);
+    }
+
+    // Returns entries that are newer than the given datelong (epoch seconds like Entry.datelong())
+    public static final List<Entry> getEntriesSince(final long datelong, final int maxNoOfEntries, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) throws IllegalArgumentException {
+        return getClient(nightscoutUrl, apiSecret, nightscoutToken).getEntriesSince(datelong, maxNoOfEntries);
+    }
+
+    public static final GlucoseSeries getGlucoseSeriesFromInterval(final TimeInterval interval, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) throws IllegalArgumentException {
+        return getClient(nightscoutUrl, apiSecret, nightscoutToken).getGlucoseSeriesFromInterval(interval);
     }
 
     public static final List<Treatment> getTreatmentsFromInterval(final TimeInterval interval, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) {
         if (null == nightscoutUrl || nightscoutUrl.isEmpty()) { return null; }
-        final String        secret     = null == apiSecret ? "" : apiSecret;
-        final String        token      = (null == nightscoutToken || nightscoutToken.isEmpty()) ? "" : nightscoutToken;
-        final long                         now   = Instant.now().getEpochSecond();
-        final long                         from  = (now - interval.getSeconds()) * 1000;
-        final long                         to    = now * 1000;
-        final StringBuilder urlBuilder = new StringBuilder().append(nightscoutUrl).append(TREATMENTS_JSON).append("?find[date][$gte]=").append(from).append("&find[date][$lte]=").append(to).append("&count=").append(interval.getNoOfEntries());
-        if (!token.isEmpty()) { urlBuilder.append("&token=").append(token); }
-
-        final String                             url = urlBuilder.toString();
-        final List<Treatment> treatments;
-        try {
-            treatments = getTreatmentsFromJsonText(get(url, secret).body());
-        } catch (AccessDeniedException e) {
-            throw new RuntimeException(e);
-        }
-        return treatments;
+        return getClient(nightscoutUrl, apiSecret, nightscoutToken).getTreatmentsFromInterval(interval);
     }
 
 
     // ******************** Async methods *************************************
-    public static final CompletableFuture<List<Entry>> getLastNEntriesAsync(final int noOfEntries, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) throws IllegalArgumentException {
-        if (null == nightscoutUrl || nightscoutUrl.isEmpty()) { throw new IllegalArgumentException("nightscoutUrl cannot be null"); }
-        final String secret      = null == apiSecret ? "" : apiSecret;
-        final String token       = (null == nightscoutToken || nightscoutToken.isEmpty()) ? "" : nightscoutToken;
-
-        if (noOfEntries < 1) { throw new IllegalArgumentException("no of entries must at least be 1"); }
-
-        final StringBuilder urlBuilder  = new StringBuilder().append(nightscoutUrl).append(ENTRIES_JSON).append("?count=").append(noOfEntries);
-        if (!token.isEmpty()) { urlBuilder.append("&token=").append(token); }
+    public static final CompletableFuture<Entry> getCurrentEntryAsync(final String nightscoutUrl, final String apiSecret, final String nightscoutToken) throws IllegalArgumentException {
+        return getClient(nightscoutUrl, apiSecret, nightscoutToken).getCurrentEntryAsync();
+    }
 
-        final String                         url = urlBuilder.toString();
-        final CompletableFuture<List<Entry>> cf  = getAsync(url, secret).thenApply(r -> {
-            try {
-                return (null == r || null == r.body() || r.body().isEmpty()) ? new ArrayList<>() : getEntriesFromJsonText(r.body());
-            } catch (AccessDeniedException e) {
-                throw new RuntimeException(e);
-            }
-        });
-        return cf;
+    public static final CompletableFuture<List<Entry>> getLastNEntriesAsync(final int noOfEntries, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) throws IllegalArgumentException {
+        return getClient(nightscoutUrl, apiSecret, nightscoutToken).getLastNEntriesAsync(noOfEntries);
     }
 
     public static final CompletableFuture<List<Entry>> getEntriesFromToAsync(final ZonedDateTime from, final ZonedDateTime to, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) throws IllegalArgumentException {
-        if (null == nightscoutUrl || nightscoutUrl.isEmpty()) { throw new IllegalArgumentException("nightscoutUrl cannot be null"); }
-        final String secret      = null == apiSecret ? "" : apiSecret;
-        final String token       = (null == nightscoutToken || nightscoutToken.isEmpty()) ? "" : nightscoutToken;
-        final long   fromSeconds = from.toEpochSecond();
-        final long   toSeconds   = to.toEpochSecond();
-        if (fromSeconds >= toSeconds) { throw new IllegalArgumentException("from must be before to parameter"); }
-        if (toSeconds - fromSeconds < 3600) { throw new IllegalArgumentException("The duration defined by from and to must be at least 1 hour"); }
-
-        final int           noOfEntries = (int) ((toSeconds - fromSeconds) / 300);
-        final StringBuilder urlBuilder  = new StringBuilder().append(nightscoutUrl).append(ENTRIES_JSON).append("?find[date][$gte]=").append(fromSeconds * 1000).append("&find[date][$lte]=").append(toSeconds * 1000).append("&count=").append(noOfEntries);
-        if (!token.isEmpty()) { urlBuilder.append("&token=").append(token); }
-
-        final String                         url = urlBuilder.toString();
-        final CompletableFuture<List<Entry>> cf  = getAsync(url, secret).thenApply(r -> {
-            try {
-                return (null == r || null == r.body() || r.body().isEmpty()) ? new ArrayList<>() : getEntriesFromJsonText(r.body());
-            } catch (AccessDeniedException e) {
-                throw new RuntimeException(e);
-            }
-        });
-        return cf;
+        return getClient(nightscoutUrl, apiSecret, nightscoutToken).getEntriesFromToAsync(from, to);
     }
 
     public static final CompletableFuture<List<Entry>> getEntriesFromIntervalAsync(final TimeInterval interval, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) throws IllegalArgumentException {
-        if (null == nightscoutUrl || nightscoutUrl.isEmpty()) { throw new IllegalArgumentException("nightscoutUrl cannot be null"); }
-        final String        secret     = null == apiSecret ? "" : apiSecret;
-        final String        token      = (null == nightscoutToken || nightscoutToken.isEmpty()) ? "" : nightscoutToken;
-        final long          now        = Instant.now().getEpochSecond();
-        final long          from       = (now - interval.getSeconds()) * 1000;
-        final long          to         = now * 1000;
-        final StringBuilder urlBuilder = new StringBuilder().append(nightscoutUrl).append(ENTRIES_JSON).append("?find[date][$gte]=").append(from).append("&find[date][$lte]=").append(to).append("&count=").append(interval.getNoOfEntries());
-        if (!token.isEmpty()) { urlBuilder.append("&token=").append(token); }
-
-        final String                         url = urlBuilder.toString();
-        final CompletableFuture<List<Entry>> cf  = getAsync(url, secret).thenApply(r -> {
-            try {
-                return (null == r || null == r.body() || r.body().isEmpty()) ? new ArrayList<>() : getEntriesFromJsonText(r.body());
-            } catch (AccessDeniedException e) {
-                throw new RuntimeException(e);
-            }
-        });
-        return cf;
+        return getClient(nightscoutUrl, apiSecret, nightscoutToken).getEntriesFromIntervalAsync(interval);
+    }
+
+    public static final CompletableFuture<List<Entry>> getEntriesSinceAsync(final long datelong, final int maxNoOfEntries, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) throws IllegalArgumentException {
+        return getClient(nightscoutUrl, apiSecret, nightscoutToken).getEntriesSinceAsync(datelong, maxNoOfEntries);
+    }
+
+    public static final CompletableFuture<GlucoseSeries> getGlucoseSeriesFromIntervalAsync(final TimeInterval interval, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) throws IllegalArgumentException {
+        return getClient(nightscoutUrl, apiSecret, nightscoutToken).getGlucoseSeriesFromIntervalAsync(interval);
     }
 
     public static final CompletableFuture<List<Treatment>> getTreatmentsFromIntervalAsync(final TimeInterval interval, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) {
         if (null == nightscoutUrl || nightscoutUrl.isEmpty()) { return null; }
-        final String        secret     = null == apiSecret ? "" : apiSecret;
-        final String        token      = (null == nightscoutToken || nightscoutToken.isEmpty()) ? "" : nightscoutToken;
-        final long                         now   = Instant.now().getEpochSecond();
-        final long                         from  = (now - interval.getSeconds()) * 1000;
-        final long                         to    = now * 1000;
-        final StringBuilder urlBuilder = new StringBuilder().append(nightscoutUrl).append(TREATMENTS_JSON).append("?find[date][$gte]=").append(from).append("&find[date][$lte]=").append(to).append("&count=").append(interval.getNoOfEntries());
-        if (!token.isEmpty()) { urlBuilder.append("&token=").append(token); }
-
-        final String                             url = urlBuilder.toString();
-        final CompletableFuture<List<Treatment>> cf  = getAsync(url, secret).thenApply(r -> {
-            try {
-                return (null == r || null == r.body() || r.body().isEmpty()) ? new ArrayList<>() : getTreatmentsFromJsonText(r.body());
-            } catch (AccessDeniedException e) {
-                throw new RuntimeException(e);
+        return getClient(nightscoutUrl, apiSecret, nightscoutToken).getTreatmentsFromIntervalAsync(interval);
+    }
+
+
+    // ******************** Clients *******************************************
+    // Returns a cached client with default settings for the given site
+    public static final NightscoutClient getClient(final String nightscoutUrl, final String apiSecret, final String nightscoutToken) throws IllegalArgumentException {
+        if (null == nightscoutUrl || nightscoutUrl.isEmpty()) { throw new IllegalArgumentException("nightscoutUrl cannot be null"); }
+        final String secret = null == apiSecret ? "" : apiSecret;
+        final String token  = null == nightscoutToken ? "" : nightscoutToken;
+        final String key    = getClientKey(nightscoutUrl, secret, token);
+        synchronized (CLIENTS) {
+            NightscoutClient client = CLIENTS.get(key);
+            if (null == client) {
+                client = NightscoutClient.builder(nightscoutUrl).apiSecret(secret).nightscoutToken(token).build();
+                CLIENTS.put(key, client);
+                // Dropped clients can still be used by callers that hold them
+                if (CLIENTS.size() > MAX_CLIENTS) { CLIENTS.remove(CLIENTS.keySet().iterator().next()); }
             }
+            return client;
+        }
+    }
+
+    // Removes the cached client of the given site, e.g. when a site is no longer monitored
+    public static final void removeClient(final String nightscoutUrl, final String apiSecret, final String nightscoutToken) {
+        if (null == nightscoutUrl || nightscoutUrl.isEmpty()) { return; }
+        final String key = getClientKey(nightscoutUrl, null == apiSecret ? "" : apiSecret, null == nightscoutToken ? "" : nightscoutToken);
+        synchronized (CLIENTS) { CLIENTS.remove(key); }
+    }
+
+    public static final void clearClients() {
+        synchronized (CLIENTS) { CLIENTS.clear(); }
+    }
+
+    private static String getClientKey(final String nightscoutUrl, final String secret, final String token) {
+        return new StringBuilder(nightscoutUrl).append('\n').append(secret).append('\n').append(token).toString();
+    }
+
+
+    // ******************** Executors *****************************************
+    // Executor used by the http client for sending requests and receiving responses
+    public static final Executor getExecutor() { return executor; }
+    public static final synchronized void setExecutor(final Executor executor) {
+        if (null == executor) { throw new IllegalArgumentException("executor cannot be null"); }
+        Connector.executor   = executor;
+        Connector.httpClient = createHttpClient();
+    }
+
+    // Executor used to parse the responses of the async methods
+    public static final Executor getComputeExecutor() { return computeExecutor; }
+    public static final void setComputeExecutor(final Executor computeExecutor) {
+        if (null == computeExecutor) { throw new IllegalArgumentException("computeExecutor cannot be null"); }
+        Connector.computeExecutor = computeExecutor;
+    }
+
+    public static final boolean isVirtualThreadSupported() { return null != VIRTUAL_THREADS; }
+
+    public static final void useVirtualThreads() {
+        if (null == VIRTUAL_THREADS) { throw new UnsupportedOperationException("Virtual threads need at least Java 21"); }
+        setExecutor(createVirtualThreadExecutor());
+    }
+
+    private static Executor createDefaultExecutor() {
+        if (null != VIRTUAL_THREADS) { return createVirtualThreadExecutor(); }
+        return Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "NightscoutConnector");
+            thread.setDaemon(true);
+            return thread;
         });
-        return cf;
+    }
+
+    // The library targets Java 17, so virtual threads can only be used via reflection when running on Java 21+
+    private static Method lookupVirtualThreadExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) VIRTUAL_THREADS.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create virtual thread executor", e);
+        }
+    }
+
+
+    // ******************** Resilience ****************************************
+    // Policy for retries, hedging and circuit breaking of all requests of clients without their own policy
+    public static final ResiliencePolicy getResiliencePolicy() { return resiliencePolicy; }
+    public static final void setResiliencePolicy(final ResiliencePolicy resiliencePolicy) {
+        Connector.resiliencePolicy = null == resiliencePolicy ? ResiliencePolicy.NONE : resiliencePolicy;
+    }
+
+
+    // ******************** Conditional requests ******************************
+    // Max number of responses whose validators (ETag, Last-Modified) and records are kept for conditional requests, 0 disables them
+    public static final int getValidatorCacheSize() { return VALIDATORS.getMaxEntries(); }
+    public static final void setValidatorCacheSize(final int maxEntries) { VALIDATORS.setMaxEntries(maxEntries); }
+
+    public static final void clearValidatorCache() { VALIDATORS.clear(); }
+
+    static ValidatorCache getValidatorCache() { return VALIDATORS; }
+
+
+    // ******************** Metrics *******************************************
+    public static final Metrics getMetrics() { return metrics; }
+    public static final void setMetrics(final Metrics metrics) {
+        Connector.metrics = null == metrics ? Metrics.NONE : metrics;
+    }
+
+
+    // ******************** Internal methods **********************************
+    // Fetches all entries in the range [fromMillis, toMillis] without the minimum duration of getEntriesFromTo()
+    static List<Entry> getEntriesBetween(final long fromMillis, final long toMillis, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) {
+        return getClient(nightscoutUrl, apiSecret, nightscoutToken).getEntriesBetween(fromMillis, toMillis);
+    }
+
+    static CompletableFuture<List<Entry>> getEntriesBetweenAsync(final long fromMillis, final long toMillis, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) {
+        return getClient(nightscoutUrl, apiSecret, nightscoutToken).getEntriesBetweenAsync(fromMillis, toMillis);
+    }
+
+    static List<Treatment> getTreatmentsBetween(final long fromMillis, final long toMillis, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) {
+        return getClient(nightscoutUrl, apiSecret, nightscoutToken).getTreatmentsBetween(fromMillis, toMillis);
     }
 
 
@@ -250,40 +264,33 @@ public class Connector {
         if (null == entries) { throw new IllegalArgumentException("list of entries cannot be null"); }
         double hba1c = 0;
         if (!entries.isEmpty()) {
-            double average = entries.stream().map(entry -> entry.sgv()).reduce(0.0, Double::sum).doubleValue() / entries.size();
+            double sum = 0;
+            for (int i = 0, n = entries.size() ; i < n ; i++) { sum += entries.get(i).sgv(); }
+            double average = sum / entries.size();
             //hba1c   = (46.7 + average) / 28.7;  // formula from 2008
             hba1c   = (0.0296 * average) + 2.419; // formula from 2014 (https://www.ncbi.nlm.nih.gov/pmc/articles/PMC4771657/)
         }
         return hba1c;
     }
 
+    public static final double calcHbA1c(final GlucoseSeries series) {
+        if (null == series) { throw new IllegalArgumentException("series cannot be null"); }
+        return series.isEmpty() ? 0 : (0.0296 * series.getAverage()) + 2.419;
+    }
+
     public static final Prediction predict(final List<Entry> entries) throws IllegalArgumentException {
         if (null == entries) { throw new IllegalArgumentException("list of entries cannot be null"); }
         if (entries.size() < 5) { throw new IllegalArgumentException("list must at least have 5 entries"); }
-        final List<Entry> lastEntries = entries.stream().sorted(Comparator.comparingLong(Entry::datelong).reversed()).limit(5).collect(Collectors.toList());
-        final Entry       lastEntry   = entries.stream().sorted(Comparator.comparingLong(Entry::datelong).reversed()).collect(Collectors.toList()).get(entries.size() - 1);
-        final Map<Integer, Double> deltaMap = new HashMap<>(4);
-        for (int i = 1 ; i  < 5 ; i++) {
-            final Entry  entry1         = lastEntries.get(i - 1);
-            final Entry  entry2         = lastEntries.get(i);
-
-            final double sgv1           = entry1.sgv();
-            final double sgv2           = entry2.sgv();
-            final double deltaSGV       = sgv2 - sgv1;
-
-            deltaMap.put(i, deltaSGV);
-        }
-        List<Double> deltaList = new LinkedList<>();
-        for (int i = 1 ; i < 4 ; i++) {
-            double delta = deltaMap.get(i);
-            double nextDelta = deltaMap.get(i + 1);
-            deltaList.add(nextDelta - delta);
-        }
+        return Predictor.predictFromOldest(entries);
+    }
 
-        final double average      = deltaList.stream().mapToDouble(Double::valueOf).sum() / deltaList.size();
-        final double lastSGV      = lastEntry.sgv();
-        final double estimatedSGV = lastSGV + average * 3;
+    public static final Prediction predict(final GlucoseSeries series) throws IllegalArgumentException {
+        if (null == series) { throw new IllegalArgumentException("series cannot be null"); }
+        if (series.size() < 5) { throw new IllegalArgumentException("series must at least have 5 entries"); }
+        return Predictor.predictFromOldest(series);
+    }
 
+    static Prediction getPrediction(final double estimatedSGV) {
         if (estimatedSGV < MIN_CRITICAL) {
             return Prediction.TOO_LOW;
         } else if (estimatedSGV < MIN_ACCEPTABLE) {
@@ -304,76 +311,322 @@ public class Connector {
     // ******************** Parsing *******************************************
     public static final List<Entry> getEntriesFromJsonText(final String jsonText) throws IllegalArgumentException, AccessDeniedException {
         if (null == jsonText || jsonText.isEmpty()) { throw new IllegalArgumentException("jsonText cannot be null or empty"); }
-        final List<Entry> entries     = new ArrayList<>();
-        final Gson        gson        = new Gson();
-        final JsonElement jsonElement = gson.fromJson(jsonText, JsonElement.class);
+        return getEntriesFromReader(new StringReader(jsonText));
+    }
 
-        if (jsonElement.isJsonObject()) {
-            JsonObject jsonObject = jsonElement.getAsJsonObject();
-            String msg = "";
-            if (jsonObject.has("message")) { msg = jsonObject.get("message").getAsString(); }
-            throw new AccessDeniedException(msg.isEmpty() ? "Access denied" : msg);
-        } else {
-            final JsonArray jsonArray = jsonElement.getAsJsonArray();
-            for (JsonElement jsonElmnt : jsonArray) {
-                JsonObject json = jsonElmnt.getAsJsonObject();
-
-                String         id         = json.get(FIELD_ID).getAsString();
-                double         sgv        = json.has(FIELD_SGV) ? json.get(FIELD_SGV).getAsDouble() : 0;
-                long           datelong   = json.has(FIELD_DATE) ? json.get(FIELD_DATE).getAsLong() / 1000 : 0;
-                OffsetDateTime date       = OffsetDateTime.ofInstant(Instant.ofEpochSecond(datelong), ZoneId.systemDefault());
-                String         dateString = json.has(FIELD_DATE_STRING) ? json.get(FIELD_DATE_STRING).getAsString() : "";
-                Trend          trend      = json.has(FIELD_TREND) ? Trend.getFromText(json.get(FIELD_TREND).getAsString()) : Trend.NONE;
-                String         direction  = json.has(FIELD_DIRECTION) ? json.get(FIELD_DIRECTION).getAsString() : "";
-                String         device     = json.has(FIELD_DEVICE) ? json.get(FIELD_DEVICE).getAsString() : "";
-                String         type       = json.has(FIELD_TYPE) ? json.get(FIELD_TYPE).getAsString() : "";
-                int            utcOffset  = json.has(FIELD_UTC_OFFSET) ? json.get(FIELD_UTC_OFFSET).getAsInt() : 0;
-                int            noise      = json.has(FIELD_NOISE) ? json.get(FIELD_NOISE).getAsInt() : 0;
-                double         filtered   = json.has(FIELD_FILTERED) ? json.get(FIELD_FILTERED).getAsDouble() : 0;
-                double         unfiltered = json.has(FIELD_UNFILTERED) ? json.get(FIELD_UNFILTERED).getAsDouble() : 0;
-                int            rssi       = json.has(FIELD_RSSI) ? json.get(FIELD_RSSI).getAsInt() : 0;
-                double         delta      = json.has(FIELD_DELTA) ? json.get(FIELD_DELTA).getAsDouble() : 0;
-                String         sysTime    = json.has(FIELD_SYS_TIME) ? json.get(FIELD_SYS_TIME).getAsString() : "";
-                entries.add(new Entry(id, sgv, datelong, date, dateString, trend, direction, device, type, utcOffset, noise, filtered, unfiltered, rssi, delta, sysTime));
-            }
-            return entries;
-        }
+    public static final List<Entry> getEntriesFromInputStream(final InputStream inputStream) throws IllegalArgumentException, AccessDeniedException {
+        if (null == inputStream) { throw new IllegalArgumentException("inputStream cannot be null"); }
+        return getEntriesFromReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+    }
+
+    // Entries with a lazily created date, dateString and sysTime will not be parsed but derived from date and utcOffset
+    public static final List<LazyEntry> getLazyEntriesFromJsonText(final String jsonText) throws IllegalArgumentException, AccessDeniedException {
+        if (null == jsonText || jsonText.isEmpty()) { throw new IllegalArgumentException("jsonText cannot be null or empty"); }
+        return getLazyEntriesFromReader(new StringReader(jsonText));
+    }
+
+    public static final List<LazyEntry> getLazyEntriesFromInputStream(final InputStream inputStream) throws IllegalArgumentException, AccessDeniedException {
+        if (null == inputStream) { throw new IllegalArgumentException("inputStream cannot be null"); }
+        return getLazyEntriesFromReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+    }
+
+    public static final GlucoseSeries getGlucoseSeriesFromJsonText(final String jsonText) throws IllegalArgumentException, AccessDeniedException {
+        if (null == jsonText || jsonText.isEmpty()) { throw new IllegalArgumentException("jsonText cannot be null or empty"); }
+        final GlucoseSeries series = new GlucoseSeries();
+        readGlucoseSeries(new StringReader(jsonText), series);
+        return series;
+    }
+
+    public static final GlucoseSeries getGlucoseSeriesFromInputStream(final InputStream inputStream) throws IllegalArgumentException, AccessDeniedException {
+        if (null == inputStream) { throw new IllegalArgumentException("inputStream cannot be null"); }
+        final GlucoseSeries series = new GlucoseSeries();
+        readGlucoseSeries(new InputStreamReader(inputStream, StandardCharsets.UTF_8), series);
+        series.trimToSize();
+        return series;
     }
 
     public static final List<Treatment> getTreatmentsFromJsonText(final String jsonText) throws IllegalArgumentException, AccessDeniedException {
         if (null == jsonText || jsonText.isEmpty()) { throw new IllegalArgumentException("jsonText cannot be null or empty"); }
-        final List<Treatment> treatments  = new ArrayList<>();
-        final Gson            gson        = new Gson();
-        final JsonElement     jsonElement = gson.fromJson(jsonText, JsonElement.class);
+        return getTreatmentsFromReader(new StringReader(jsonText));
+    }
+
+    public static final List<Treatment> getTreatmentsFromInputStream(final InputStream inputStream) throws IllegalArgumentException, AccessDeniedException {
+        if (null == inputStream) { throw new IllegalArgumentException("inputStream cannot be null"); }
+        return getTreatmentsFromReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+    }
+
+    private static List<Entry> getEntriesFromReader(final Reader source) throws AccessDeniedException {
+        final List<Entry> entries = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(source)) {
+            reader.setLenient(true);
+            beginArray(reader);
+            while (reader.hasNext()) { entries.add(readEntry(reader)); }
+            reader.endArray();
+        } catch (AccessDeniedException e) {
+            throw e;
+        } catch (MalformedJsonException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+        return entries;
+    }
 
-        if (jsonElement.isJsonObject()) {
-            JsonObject jsonObject = jsonElement.getAsJsonObject();
+    private static List<LazyEntry> getLazyEntriesFromReader(final Reader source) throws AccessDeniedException {
+        final List<LazyEntry> entries = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(source)) {
+            reader.setLenient(true);
+            beginArray(reader);
+            while (reader.hasNext()) { entries.add(readLazyEntry(reader)); }
+            reader.endArray();
+        } catch (AccessDeniedException e) {
+            throw e;
+        } catch (MalformedJsonException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+        return entries;
+    }
+
+    // Only sgv, date and trend (or direction) will be read, records without a sgv value (e.g. calibrations) will be skipped
+    private static void readGlucoseSeries(final Reader source, final GlucoseSeries series) throws AccessDeniedException {
+        try (JsonReader reader = new JsonReader(source)) {
+            reader.setLenient(true);
+            beginArray(reader);
+            while (reader.hasNext()) {
+                boolean hasSgv   = false;
+                double  sgv      = 0;
+                long    datelong = 0;
+                Trend   trend    = Trend.NONE;
+                Trend   fromDir  = Trend.NONE;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    final String name = reader.nextName();
+                    if (JsonToken.NULL == reader.peek()) { reader.skipValue(); continue; }
+                    switch (name) {
+                        case FIELD_SGV       -> { sgv = reader.nextDouble(); hasSgv = true; }
+                        case FIELD_DATE      -> datelong = nextLong(reader) / 1000;
+                        case FIELD_TREND     -> trend    = nextTrend(reader);
+                        case FIELD_DIRECTION -> fromDir  = Trend.getFromText(reader.nextString());
+                        default              -> reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (hasSgv) { series.add(datelong, sgv, Trend.NONE == fromDir ? trend : fromDir); }
+            }
+            reader.endArray();
+        } catch (AccessDeniedException e) {
+            throw e;
+        } catch (MalformedJsonException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    private static List<Treatment> getTreatmentsFromReader(final Reader source) throws AccessDeniedException {
+        final List<Treatment> treatments = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(source)) {
+            reader.setLenient(true);
+            beginArray(reader);
+            while (reader.hasNext()) { treatments.add(readTreatment(reader)); }
+            reader.endArray();
+        } catch (AccessDeniedException e) {
+            throw e;
+        } catch (MalformedJsonException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+        return treatments;
+    }
+
+    // Nightscout answers with a json object instead of an array if the request was not authorized
+    private static void beginArray(final JsonReader reader) throws IOException {
+        final JsonToken token = reader.peek();
+        if (JsonToken.BEGIN_OBJECT == token) {
             String msg = "";
-            if (jsonObject.has("message")) { msg = jsonObject.get("message").getAsString(); }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("message".equals(reader.nextName()) && JsonToken.STRING == reader.peek()) {
+                    msg = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
             throw new AccessDeniedException(msg.isEmpty() ? "Access denied" : msg);
-        } else {
-            final JsonArray       jsonArray  = jsonElement.getAsJsonArray();
-            for (JsonElement jsonElmnt : jsonArray) {
-                JsonObject     json       = jsonElmnt.getAsJsonObject();
-
-                String id            = json.get(FIELD_ID).getAsString();
-                String eventType     = json.has(FIELD_EVENT_TYPE)     ? json.get(FIELD_EVENT_TYPE).getAsString()     : "";
-                String createdAt     = json.has(FIELD_CREATED_AT)     ? json.get(FIELD_CREATED_AT).getAsString()     : "";
-                String glucose       = json.has(FIELD_GLUCOSE)        ? json.get(FIELD_GLUCOSE).getAsString()        : "";
-                String glucoseType   = json.has(FIELD_GLUCOSE_TYPE)   ? json.get(FIELD_GLUCOSE_TYPE).getAsString()   : "";
-                double carbs         = json.has(FIELD_CARBS)          ? json.get(FIELD_CARBS).getAsDouble()          : 0.0;
-                double protein       = json.has(FIELD_PROTEIN)        ? json.get(FIELD_PROTEIN).getAsDouble()        : 0.0;
-                double fat           = json.has(FIELD_FAT)            ? json.get(FIELD_FAT).getAsDouble()            : 0.0;
-                double insulin       = json.has(FIELD_INSULIN)        ? json.get(FIELD_INSULIN).getAsDouble()        : 0.0;
-                String units         = json.has(FIELD_UNITS)          ? json.get(FIELD_UNITS).getAsString()          : "";
-                String transmitterId = json.has(FIELD_TRANSMITTER_ID) ? json.get(FIELD_TRANSMITTER_ID).getAsString() : "";
-                String sensorCode    = json.has(FIELD_SENSOR_CODE)    ? json.get(FIELD_SENSOR_CODE).getAsString()    : "";
-                String notes         = json.has(FIELD_NOTES)          ? json.get(FIELD_NOTES).getAsString()          : "";
-                String enteredBy     = json.has(FIELD_ENTERED_BY)     ? json.get(FIELD_ENTERED_BY).getAsString()     : "";
-
-                treatments.add(new Treatment(id, eventType, createdAt, glucose, glucoseType, carbs, protein, fat, insulin, units, transmitterId, sensorCode, notes, enteredBy));
+        } else if (JsonToken.BEGIN_ARRAY != token) {
+            throw new JsonSyntaxException("Expected json array but was " + token);
+        }
+        reader.beginArray();
+    }
+
+    private static Entry readEntry(final JsonReader reader) throws IOException {
+        String id         = "";
+        double sgv        = 0;
+        long   datelong   = 0;
+        String dateString = "";
+        Trend  trend      = Trend.NONE;
+        String direction  = "";
+        String device     = "";
+        String type       = "";
+        int    utcOffset  = 0;
+        int    noise      = 0;
+        double filtered   = 0;
+        double unfiltered = 0;
+        int    rssi       = 0;
+        double delta      = 0;
+        String sysTime    = "";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if (JsonToken.NULL == reader.peek()) { reader.skipValue(); continue; }
+            switch (name) {
+                case FIELD_ID          -> id         = reader.nextString();
+                case FIELD_SGV         -> sgv        = reader.nextDouble();
+                case FIELD_DATE        -> datelong   = nextLong(reader) / 1000;
+                case FIELD_DATE_STRING -> dateString = reader.nextString();
+                case FIELD_TREND       -> trend      = nextTrend(reader);
+                case FIELD_DIRECTION   -> direction  = reader.nextString();
+                case FIELD_DEVICE      -> device     = reader.nextString();
+                case FIELD_TYPE        -> type       = reader.nextString();
+                case FIELD_UTC_OFFSET  -> utcOffset  = nextInt(reader);
+                case FIELD_NOISE       -> noise      = nextInt(reader);
+                case FIELD_FILTERED    -> filtered   = reader.nextDouble();
+                case FIELD_UNFILTERED  -> unfiltered = reader.nextDouble();
+                case FIELD_RSSI        -> rssi       = nextInt(reader);
+                case FIELD_DELTA       -> delta      = reader.nextDouble();
+                case FIELD_SYS_TIME    -> sysTime    = reader.nextString();
+                default                -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // The direction is the text of the trend (e.g. FortyFiveUp) and takes precedence over the numeric trend
+        final Trend fromDir = Trend.getFromText(direction);
+        if (Trend.NONE != fromDir) {
+            trend = fromDir;
+            // Share the constant instead of keeping one string per entry
+            if (direction.equals(fromDir.getTextKey())) { direction = fromDir.getTextKey(); }
+        }
+
+        final OffsetDateTime date = OffsetDateTime.ofInstant(Instant.ofEpochSecond(datelong), ZoneId.systemDefault());
+        return new Entry(id, sgv, datelong, date, dateString, trend, direction, device, type, utcOffset, noise, filtered, unfiltered, rssi, delta, sysTime);
+    }
+
+    // Same as readEntry() but dateString and sysTime will be skipped without creating strings and the date will be created on demand
+    private static LazyEntry readLazyEntry(final JsonReader reader) throws IOException {
+        String id         = "";
+        double sgv        = 0;
+        long   datelong   = 0;
+        Trend  trend      = Trend.NONE;
+        String direction  = "";
+        String device     = "";
+        String type       = "";
+        int    utcOffset  = 0;
+        int    noise      = 0;
+        double filtered   = 0;
+        double unfiltered = 0;
+        int    rssi       = 0;
+        double delta      = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if (JsonToken.NULL == reader.peek()) { reader.skipValue(); continue; }
+            switch (name) {
+                case FIELD_ID          -> id         = reader.nextString();
+                case FIELD_SGV         -> sgv        = reader.nextDouble();
+                case FIELD_DATE        -> datelong   = nextLong(reader) / 1000;
+                case FIELD_TREND       -> trend      = nextTrend(reader);
+                case FIELD_DIRECTION   -> direction  = reader.nextString();
+                case FIELD_DEVICE      -> device     = reader.nextString();
+                case FIELD_TYPE        -> type       = reader.nextString();
+                case FIELD_UTC_OFFSET  -> utcOffset  = nextInt(reader);
+                case FIELD_NOISE       -> noise      = nextInt(reader);
+                case FIELD_FILTERED    -> filtered   = reader.nextDouble();
+                case FIELD_UNFILTERED  -> unfiltered = reader.nextDouble();
+                case FIELD_RSSI        -> rssi       = nextInt(reader);
+                case FIELD_DELTA       -> delta      = reader.nextDouble();
+                default                -> reader.skipValue();
             }
-            return treatments;
+        }
+        reader.endObject();
+
+        // The direction takes precedence over the numeric trend, the strings will be shared by LazyEntry
+        final Trend fromDir = Trend.getFromText(direction);
+        if (Trend.NONE != fromDir) { trend = fromDir; }
+
+        return new LazyEntry(id, sgv, datelong, trend, direction, device, type, utcOffset, noise, filtered, unfiltered, rssi, delta);
+    }
+
+    private static Treatment readTreatment(final JsonReader reader) throws IOException {
+        String id            = "";
+        String eventType     = "";
+        String createdAt     = "";
+        String glucose       = "";
+        String glucoseType   = "";
+        double carbs         = 0.0;
+        double protein       = 0.0;
+        double fat           = 0.0;
+        double insulin       = 0.0;
+        String units         = "";
+        String transmitterId = "";
+        String sensorCode    = "";
+        String notes         = "";
+        String enteredBy     = "";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if (JsonToken.NULL == reader.peek()) { reader.skipValue(); continue; }
+            switch (name) {
+                case FIELD_ID             -> id            = reader.nextString();
+                case FIELD_EVENT_TYPE     -> eventType     = reader.nextString();
+                case FIELD_CREATED_AT     -> createdAt     = reader.nextString();
+                case FIELD_GLUCOSE        -> glucose       = reader.nextString();
+                case FIELD_GLUCOSE_TYPE   -> glucoseType   = reader.nextString();
+                case FIELD_CARBS          -> carbs         = reader.nextDouble();
+                case FIELD_PROTEIN        -> protein       = reader.nextDouble();
+                case FIELD_FAT            -> fat           = reader.nextDouble();
+                case FIELD_INSULIN        -> insulin       = reader.nextDouble();
+                case FIELD_UNITS          -> units         = reader.nextString();
+                case FIELD_TRANSMITTER_ID -> transmitterId = reader.nextString();
+                case FIELD_SENSOR_CODE    -> sensorCode    = reader.nextString();
+                case FIELD_NOTES          -> notes         = reader.nextString();
+                case FIELD_ENTERED_BY     -> enteredBy     = reader.nextString();
+                default                   -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return new Treatment(id, eventType, createdAt, glucose, glucoseType, carbs, protein, fat, insulin, units, transmitterId, sensorCode, notes, enteredBy);
+    }
+
+    private static long nextLong(final JsonReader reader) throws IOException {
+        try {
+            return reader.nextLong();
+        } catch (NumberFormatException e) {
+            return (long) reader.nextDouble();
+        }
+    }
+
+    // Numeric trends will be resolved without creating a string
+    private static Trend nextTrend(final JsonReader reader) throws IOException {
+        if (JsonToken.NUMBER == reader.peek()) {
+            final double key = reader.nextDouble();
+            return key == (int) key ? Trend.getFromKey((int) key) : Trend.NONE;
+        }
+        return Trend.getFromText(reader.nextString());
+    }
+
+    private static int nextInt(final JsonReader reader) throws IOException {
+        try {
+            return reader.nextInt();
+        } catch (NumberFormatException e) {
+            return (int) reader.nextDouble();
         }
     }
 
@@ -384,52 +637,122 @@ public class Connector {
                          .connectTimeout(Duration.ofSeconds(5))
                          .version(Version.HTTP_2)
                          .followRedirects(Redirect.NORMAL)
-                         .executor(EXECUTOR_SERVICE)
+                         .executor(executor)
                          .build();
     }
 
-    public static final HttpResponse<String> get(final String uri, final String apiSecret) {
+    private static HttpRequest createRequest(final String uri, final String apiSecret) {
+        return HttpRequest.newBuilder()
+                          .GET()
+                          .uri(URI.create(uri))
+                          .setHeader("Accept", "application/json")
+                          .setHeader("Accept-Encoding", Compression.ACCEPT_ENCODING)
+                          .setHeader("User-Agent", "NightscoutConnector")
+                          .setHeader("API_SECRET", apiSecret)
+                          .timeout(Duration.ofSeconds(5))
+                          .build();
+    }
+
+    static HttpClient getHttpClient() {
         if (null == httpClient) { httpClient = createHttpClient(); }
+        return httpClient;
+    }
+
+    // Compressed responses will be decompressed by all methods
+    public static final HttpResponse<String> get(final String uri, final String apiSecret) {
+        final HttpRequest request = createRequest(uri, apiSecret);
+        return send(getHttpClient(), request, Compression.ofString(request.uri()));
+    }
 
-        HttpRequest request = HttpRequest.newBuilder()
-                                         .GET()
-                                         .uri(URI.create(uri))
-                                         .setHeader("Accept", "application/json")
-                                         .setHeader("User-Agent", "NightscoutConnector")
-                                         .setHeader("API_SECRET", apiSecret)
-                                         .timeout(Duration.ofSeconds(5))
-                                         .build();
+    // The body will be decompressed while it is read
+    public static final HttpResponse<InputStream> getInputStream(final String uri, final String apiSecret) {
+        final HttpRequest request = createRequest(uri, apiSecret);
+        return send(getHttpClient(), request, Compression.ofInputStream(request.uri()));
+    }
+
+    public static final CompletableFuture<HttpResponse<String>> getAsync(final String uri, final String apiSecret) {
+        final HttpRequest request = createRequest(uri, apiSecret);
+        return sendAsync(getHttpClient(), request, Compression.ofString(request.uri()));
+    }
+
+    // The body is buffered as raw bytes to not block the client executor while parsing
+    public static final CompletableFuture<HttpResponse<byte[]>> getBytesAsync(final String uri, final String apiSecret) {
+        final HttpRequest request = createRequest(uri, apiSecret);
+        return sendAsync(getHttpClient(), request, Compression.ofByteArray(request.uri()));
+    }
+
+    // Returns null if the site could not be reached (also after all retries) or the circuit breaker of the host is open
+    static <T> HttpResponse<T> send(final HttpClient client, final HttpRequest request, final BodyHandler<T> bodyHandler) {
+        return send(client, request, bodyHandler, resiliencePolicy);
+    }
+    static <T> HttpResponse<T> send(final HttpClient client, final HttpRequest request, final BodyHandler<T> bodyHandler, final ResiliencePolicy policy) {
+        final URI  uri   = request.uri();
         final long start = System.nanoTime();
         try {
-            HttpResponse<String> response = httpClient.send(request, BodyHandlers.ofString());
+            final HttpResponse<T> response;
+            if (ResiliencePolicy.NONE == policy) {
+                response = sendOnce(client, request, bodyHandler);
+            } else {
+                response = Resilience.execute(uri, policy, () -> sendOnceAsync(client, request, bodyHandler)).get();
+            }
             final long responseTime = (System.nanoTime() - start) / 1_000_000;
             if (responseTime > 2_000) {
                 LOGGER.log(Level.INFO, new StringBuilder("Slow response: ").append(uri).append(" -> ").append(responseTime).append("ms").toString());
             }
-            if (response.statusCode() == 200) {
+            if (response.statusCode() == 200 || response.statusCode() == 304) {
                 return response;
             } else {
                 // Problem with url request
                 LOGGER.log(Level.WARNING, new StringBuilder("StatusCode: ").append(response.statusCode()).append(" accessing ").append(uri).toString());
                 return response;
             }
-        } catch (CompletionException | InterruptedException | IOException e) {
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.WARNING, new StringBuilder("Error accessing: ").append(uri).append(" (").append(e.getCause().getMessage()).append(")").toString());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.log(Level.WARNING, new StringBuilder("Interrupted accessing: ").append(uri).toString());
+            return null;
+        } catch (CompletionException | IOException e) {
             LOGGER.log(Level.WARNING, new StringBuilder("Error accessing: ").append(uri).toString());
             return null;
         }
     }
 
-    public static final CompletableFuture<HttpResponse<String>> getAsync(final String uri, final String apiSecret) {
-        if (null == httpClient) { httpClient = createHttpClient(); }
+    static <T> CompletableFuture<HttpResponse<T>> sendAsync(final HttpClient client, final HttpRequest request, final BodyHandler<T> bodyHandler) {
+        return sendAsync(client, request, bodyHandler, resiliencePolicy);
+    }
+    static <T> CompletableFuture<HttpResponse<T>> sendAsync(final HttpClient client, final HttpRequest request, final BodyHandler<T> bodyHandler, final ResiliencePolicy policy) {
+        if (ResiliencePolicy.NONE == policy) { return sendOnceAsync(client, request, bodyHandler); }
+        return Resilience.execute(request.uri(), policy, () -> sendOnceAsync(client, request, bodyHandler));
+    }
+
+    private static <T> HttpResponse<T> sendOnce(final HttpClient client, final HttpRequest request, final BodyHandler<T> bodyHandler) throws IOException, InterruptedException {
+        final Metrics metrics = Connector.metrics;
+        if (Metrics.NONE == metrics) { return client.send(request, bodyHandler); }
+        final String endpoint = Metrics.getEndpoint(request.uri());
+        try {
+            return client.send(request, new InstrumentedBodyHandler<>(metrics, endpoint, bodyHandler));
+        } catch (IOException e) {
+            recordFailure(metrics, endpoint, e);
+            throw e;
+        }
+    }
+
+    private static <T> CompletableFuture<HttpResponse<T>> sendOnceAsync(final HttpClient client, final HttpRequest request, final BodyHandler<T> bodyHandler) {
+        final Metrics metrics = Connector.metrics;
+        if (Metrics.NONE == metrics) { return client.sendAsync(request, bodyHandler); }
+        final String endpoint = Metrics.getEndpoint(request.uri());
+        return client.sendAsync(request, new InstrumentedBodyHandler<>(metrics, endpoint, bodyHandler))
+                     .whenComplete((response, throwable) -> { if (null != throwable) { recordFailure(metrics, endpoint, throwable); } });
+    }
 
-        final HttpRequest request = HttpRequest.newBuilder()
-                                               .GET()
-                                               .uri(URI.create(uri))
-                                               .setHeader("Accept", "application/json")
-                                               .setHeader("User-Agent", "NightscoutConnector")
-                                               .setHeader("API_SECRET", apiSecret)
-                                               .timeout(Duration.ofSeconds(5))
-                                               .build();
-        return httpClient.sendAsync(request, BodyHandlers.ofString());
+    private static void recordFailure(final Metrics metrics, final String endpoint, final Throwable throwable) {
+        final Throwable cause = throwable instanceof CompletionException && null != throwable.getCause() ? throwable.getCause() : throwable;
+        if (cause instanceof HttpTimeoutException) {
+            metrics.recordTimeout(endpoint);
+        } else {
+            metrics.recordError(endpoint);
+        }
     }
 }
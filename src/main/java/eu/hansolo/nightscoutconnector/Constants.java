@@ -13,6 +13,8 @@ public class Constants {
     public static final String            CURRENT_JSON         = "/api/v2/entries/sgv.json?count=1";
     public static final String            ENTRIES_JSON         = "/api/v2/entries/sgv.json";
     public static final String            TREATMENTS_JSON      = "/api/v2/treatments.json";
+    public static final String            ENTRIES_POST_JSON    = "/api/v1/entries.json";
+    public static final String            TREATMENTS_POST_JSON = "/api/v1/treatments.json";
     public static final DateTimeFormatter DTF                  = DateTimeFormatter.ofPattern("dd/MM/YY HH:mm");
     public static final String            FIELD_ID             = "_id";
     public static final String            FIELD_SGV            = "sgv";
@@ -0,0 +1,179 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+
+/**
+ * The measurements of one endpoint, registered as MBean by JmxMetrics.
+ */
+public class EndpointMetrics implements EndpointMetricsMBean {
+    private final String                                endpoint;
+    private final LatencyHistogram                      latency;
+    private final LongAdder                             bytes;
+    private final LongAdder                             bodies;
+    private final LongAdder                             compressedBytes;
+    private final LongAdder                             decompressedBytes;
+    private final LongAdder                             records;
+    private final LongAdder                             parsed;
+    private final LongAdder                             parseNanos;
+    private final ConcurrentHashMap<Integer, LongAdder> statusCodes;
+    private final LongAdder                             timeouts;
+    private final LongAdder                             errors;
+    private final LongAdder                             accessDenied;
+    private final LongAdder                             retries;
+    private final LongAdder                             hedges;
+    private final LongAdder                             rejected;
+
+
+    // ******************** Constructors **************************************
+    EndpointMetrics(final String endpoint) {
+        this.endpoint          = endpoint;
+        this.latency           = new LatencyHistogram();
+        this.bytes             = new LongAdder();
+        this.bodies            = new LongAdder();
+        this.compressedBytes   = new LongAdder();
+        this.decompressedBytes = new LongAdder();
+        this.records           = new LongAdder();
+        this.parsed            = new LongAdder();
+        this.parseNanos        = new LongAdder();
+        this.statusCodes       = new ConcurrentHashMap<>();
+        this.timeouts          = new LongAdder();
+        this.errors            = new LongAdder();
+        this.accessDenied      = new LongAdder();
+        this.retries           = new LongAdder();
+        this.hedges            = new LongAdder();
+        this.rejected          = new LongAdder();
+    }
+
+
+    // ******************** Methods *******************************************
+    void recordResponse(final int statusCode, final long latencyNanos) {
+        latency.record(latencyNanos / 1_000);
+        statusCodes.computeIfAbsent(statusCode, code -> new LongAdder()).increment();
+    }
+
+    void recordBytes(final long bytes) {
+        this.bytes.add(bytes);
+        bodies.increment();
+    }
+
+    void recordDecompressed(final long compressedBytes, final long decompressedBytes) {
+        this.compressedBytes.add(compressedBytes);
+        this.decompressedBytes.add(decompressedBytes);
+    }
+
+    void recordParse(final int records, final long parseNanos) {
+        this.records.add(records);
+        this.parseNanos.add(parseNanos);
+        parsed.increment();
+    }
+
+    void recordTimeout() { timeouts.increment(); }
+
+    void recordError() { errors.increment(); }
+
+    void recordAccessDenied() { accessDenied.increment(); }
+
+    void recordRetry() { retries.increment(); }
+
+    void recordHedge() { hedges.increment(); }
+
+    void recordRejected() { rejected.increment(); }
+
+    @Override public String getEndpoint() { return endpoint; }
+
+    @Override public long getRequests() { return latency.getCount(); }
+
+    @Override public double getLatencyMeanMillis() { return latency.getMean() / 1_000.0; }
+
+    @Override public double getLatencyP50Millis() { return latency.getPercentile(0.5) / 1_000.0; }
+
+    @Override public double getLatencyP99Millis() { return latency.getPercentile(0.99) / 1_000.0; }
+
+    @Override public double getLatencyP999Millis() { return latency.getPercentile(0.999) / 1_000.0; }
+
+    @Override public double getLatencyMaxMillis() { return latency.getMax() / 1_000.0; }
+
+    @Override public long getBytes() { return bytes.sum(); }
+
+    @Override public double getAverageBytesPerResponse() {
+        final long n = bodies.sum();
+        return 0 == n ? 0 : bytes.sum() / (double) n;
+    }
+
+    @Override public long getCompressedBytes() { return compressedBytes.sum(); }
+
+    @Override public long getDecompressedBytes() { return decompressedBytes.sum(); }
+
+    // Decompressed bytes per compressed byte, e.g. 8 means the compression saved 87.5% of the traffic
+    @Override public double getCompressionRatio() {
+        final long compressed = compressedBytes.sum();
+        return 0 == compressed ? 0 : decompressedBytes.sum() / (double) compressed;
+    }
+
+    @Override public long getRecords() { return records.sum(); }
+
+    @Override public double getAverageRecordsPerResponse() {
+        final long n = parsed.sum();
+        return 0 == n ? 0 : records.sum() / (double) n;
+    }
+
+    @Override public double getAverageParseMicrosPerRecord() {
+        final long n = records.sum();
+        return 0 == n ? 0 : parseNanos.sum() / 1_000.0 / n;
+    }
+
+    @Override public String getStatusCodes() {
+        return getStatusCodeCounts().entrySet().stream().map(entry -> entry.getKey() + "=" + entry.getValue()).collect(Collectors.joining(", "));
+    }
+
+    public Map<Integer, Long> getStatusCodeCounts() {
+        final Map<Integer, Long> counts = new TreeMap<>();
+        statusCodes.forEach((code, count) -> counts.put(code, count.sum()));
+        return counts;
+    }
+
+    @Override public long getTimeouts() { return timeouts.sum(); }
+
+    @Override public long getErrors() { return errors.sum(); }
+
+    @Override public long getAccessDenied() { return accessDenied.sum(); }
+
+    @Override public long getRetries() { return retries.sum(); }
+
+    @Override public long getHedges() { return hedges.sum(); }
+
+    @Override public long getRejected() { return rejected.sum(); }
+
+    @Override public void reset() {
+        latency.reset();
+        bytes.reset();
+        bodies.reset();
+        compressedBytes.reset();
+        decompressedBytes.reset();
+        records.reset();
+        parsed.reset();
+        parseNanos.reset();
+        statusCodes.clear();
+        timeouts.reset();
+        errors.reset();
+        accessDenied.reset();
+        retries.reset();
+        hedges.reset();
+        rejected.reset();
+    }
+
+    @Override public String toString() {
+        return new StringBuilder().append(endpoint).append(": ")
+                                  .append(getRequests()).append(" requests, ")
+                                  .append("p50 ").append(getLatencyP50Millis()).append("ms, ")
+                                  .append("p99 ").append(getLatencyP99Millis()).append("ms, ")
+                                  .append("p999 ").append(getLatencyP999Millis()).append("ms, ")
+                                  .append("status [").append(getStatusCodes()).append("]")
+                                  .toString();
+    }
+}
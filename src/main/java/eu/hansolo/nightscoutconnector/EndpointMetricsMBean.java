@@ -0,0 +1,50 @@
+package eu.hansolo.nightscoutconnector;
+
+
+public interface EndpointMetricsMBean {
+    String getEndpoint();
+
+    long getRequests();
+
+    double getLatencyMeanMillis();
+
+    double getLatencyP50Millis();
+
+    double getLatencyP99Millis();
+
+    double getLatencyP999Millis();
+
+    double getLatencyMaxMillis();
+
+    long getBytes();
+
+    double getAverageBytesPerResponse();
+
+    long getCompressedBytes();
+
+    long getDecompressedBytes();
+
+    double getCompressionRatio();
+
+    long getRecords();
+
+    double getAverageRecordsPerResponse();
+
+    double getAverageParseMicrosPerRecord();
+
+    String getStatusCodes();
+
+    long getTimeouts();
+
+    long getErrors();
+
+    long getAccessDenied();
+
+    long getRetries();
+
+    long getHedges();
+
+    long getRejected();
+
+    void reset();
+}
@@ -35,4 +35,20 @@ public record Entry(String id, double sgv, long datelong, OffsetDateTime date, S
                                   .append("}")
                                   .toString();
     }
+
+    // Id for entries without an object id, entries without a type are sgv entries, so every path derives the same id for the same reading
+    static String deriveId(final long datelong, final String type, final String device) {
+        return createId(datelong, null == type || type.isEmpty() ? "sgv" : type, null == device ? "" : device);
+    }
+
+    // 24 hex digits like a MongoDB ObjectId, the seconds followed by a hash of the other fields
+    static String createId(final long seconds, final String... fields) {
+        long hash = 1125899906842597L;
+        for (String field : fields) {
+            final String value = null == field ? "" : field;
+            for (int i = 0 ; i < value.length() ; i++) { hash = 31 * hash + value.charAt(i); }
+            hash = 31 * hash + 0x1F;
+        }
+        return String.format("%08x%016x", seconds & 0xFFFFFFFFL, hash);
+    }
 }
@@ -0,0 +1,144 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+
+/**
+ * Polls the entries of one Nightscout site incrementally.
+ * The first poll loads the whole window, every following poll only requests
+ * the entries that are newer than the newest entry seen so far and merges them
+ * into a rolling window with the size of the given TimeInterval.
+ * New entries will be published to the registered listeners and subscribers in ascending order, also if
+ * several polls complete at the same time. Subscribers that don't keep up (full buffer) miss entries
+ * instead of blocking the polling, the number of dropped entries is available via getDropped().
+ */
+public class EntryPoller implements Flow.Publisher<Entry>, AutoCloseable {
+    private final    NightscoutClient           client;
+    private final    TimeInterval               window;
+    private final    ArrayDeque<Entry>          entries;
+    private final    ArrayDeque<Entry>          pending;
+    private final    List<Consumer<Entry>>      listeners;
+    private final    SubmissionPublisher<Entry> publisher;
+    private final    AtomicLong                 dropped;
+    private          boolean                    delivering;
+    private volatile long                       lastDatelong;
+
+
+    // ******************** Constructors **************************************
+    public EntryPoller(final String nightscoutUrl, final String apiSecret, final String nightscoutToken, final TimeInterval window) {
+        this(Connector.getClient(nightscoutUrl, apiSecret, nightscoutToken), window);
+    }
+    public EntryPoller(final NightscoutClient client, final TimeInterval window) {
+        if (null == client) { throw new IllegalArgumentException("client cannot be null"); }
+        if (null == window) { throw new IllegalArgumentException("window cannot be null"); }
+        this.client       = client;
+        this.window       = window;
+        this.entries      = new ArrayDeque<>(window.getNoOfEntries());
+        this.pending      = new ArrayDeque<>();
+        this.listeners    = new CopyOnWriteArrayList<>();
+        this.publisher    = new SubmissionPublisher<>();
+        this.dropped      = new AtomicLong(0);
+        this.delivering   = false;
+        this.lastDatelong = 0;
+    }
+
+
+    // ******************** Methods *******************************************
+    public List<Entry> poll() {
+        final List<Entry> fetched = 0 == lastDatelong ? client.getEntriesFromInterval(window) : client.getEntriesSince(lastDatelong, window.getNoOfEntries());
+        return merge(fetched);
+    }
+
+    public CompletableFuture<List<Entry>> pollAsync() {
+        final CompletableFuture<List<Entry>> cf = 0 == lastDatelong ? client.getEntriesFromIntervalAsync(window) : client.getEntriesSinceAsync(lastDatelong, window.getNoOfEntries());
+        return cf.thenApply(this::merge);
+    }
+
+    public List<Entry> getEntries() {
+        synchronized (entries) { return new ArrayList<>(entries); }
+    }
+
+    public Entry getLastEntry() {
+        synchronized (entries) { return entries.peekLast(); }
+    }
+
+    public long getLastDatelong() { return lastDatelong; }
+
+    public TimeInterval getWindow() { return window; }
+
+    public NightscoutClient getClient() { return client; }
+
+    // Number of entries that have not been delivered to subscribers because their buffer was full
+    public long getDropped() { return dropped.get(); }
+
+    public void addEntryListener(final Consumer<Entry> listener) {
+        if (null == listener || listeners.contains(listener)) { return; }
+        listeners.add(listener);
+    }
+    public void removeEntryListener(final Consumer<Entry> listener) {
+        listeners.remove(listener);
+    }
+
+    @Override public void subscribe(final Flow.Subscriber<? super Entry> subscriber) { publisher.subscribe(subscriber); }
+
+    @Override public void close() {
+        listeners.clear();
+        publisher.close();
+    }
+
+    private List<Entry> merge(final List<Entry> fetched) {
+        final List<Entry> newEntries = new ArrayList<>(fetched.size());
+        synchronized (entries) {
+            final long last = lastDatelong;
+            for (Entry entry : fetched) {
+                if (entry.datelong() > last) { newEntries.add(entry); }
+            }
+            if (newEntries.isEmpty()) { return newEntries; }
+
+            newEntries.sort(Comparator.naturalOrder());
+            entries.addAll(newEntries);
+            lastDatelong = entries.peekLast().datelong();
+
+            final long oldest = lastDatelong - window.getSeconds();
+            while (!entries.isEmpty() && entries.peekFirst().datelong() < oldest) { entries.pollFirst(); }
+            pending.addAll(newEntries);
+        }
+        deliver();
+        return newEntries;
+    }
+
+    // Only one thread delivers at a time, so the entries of concurrent polls will be delivered in the order they have been merged
+    private void deliver() {
+        synchronized (entries) {
+            if (delivering) { return; }
+            delivering = true;
+        }
+        try {
+            while (true) {
+                final Entry entry;
+                synchronized (entries) {
+                    entry = pending.poll();
+                    if (null == entry) {
+                        delivering = false;
+                        return;
+                    }
+                }
+                listeners.forEach(listener -> listener.accept(entry));
+                // A slow subscriber must not block the polling
+                if (!publisher.isClosed()) { publisher.offer(entry, (subscriber, e) -> { dropped.incrementAndGet(); return false; }); }
+            }
+        } catch (RuntimeException e) {
+            synchronized (entries) { delivering = false; }
+            throw e;
+        }
+    }
+}
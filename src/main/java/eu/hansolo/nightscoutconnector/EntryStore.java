@@ -0,0 +1,321 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+
+/**
+ * Append-only store of glucose entries on disk, e.g. to keep the history of a site over restarts
+ * and only fetch the entries that are newer than the last stored one.
+ * The entries are stored in one segment file per day (UTC) with fixed-width records of 32 bytes:
+ * datelong (8), id (12, the 24 hex digits of the Nightscout object id), sgv (4, float), delta (4, float),
+ * trend ordinal (1) and 3 reserved bytes. The segments are read via memory mapped buffers, the
+ * sorted segments and the sorted records in each segment are the time index for range queries.
+ * Only sgv entries will be stored, entries that are not newer than the last stored entry will be skipped.
+ */
+public class EntryStore implements AutoCloseable {
+    public  static final String                      SEGMENT_SUFFIX  = ".seg";
+    public  static final int                         RECORD_SIZE     = 32;
+    private static final long                        SECONDS_PER_DAY = 86_400;
+    private static final Trend[]                     TRENDS          = Trend.values();
+    private static final HexFormat                   HEX             = HexFormat.of();
+    private final        Path                        directory;
+    private final        NavigableMap<Long, Segment> segments;
+    private              long                        lastDatelong;
+    private              long                        size;
+    private              boolean                     closed;
+
+
+    // ******************** Constructors **************************************
+    private EntryStore(final Path directory) throws IOException {
+        this.directory    = directory;
+        this.segments     = new TreeMap<>();
+        this.lastDatelong = 0;
+        this.size         = 0;
+        this.closed       = false;
+        load();
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Opens the store in the given directory and creates the directory if it doesn't exist.
+     */
+    public static EntryStore open(final Path directory) throws IOException {
+        if (null == directory) { throw new IllegalArgumentException("directory cannot be null"); }
+        Files.createDirectories(directory);
+        return new EntryStore(directory);
+    }
+
+    public Path getDirectory() { return directory; }
+
+    // datelong (epoch seconds) of the newest stored entry or 0 if the store is empty
+    public synchronized long getLastDatelong() { return lastDatelong; }
+
+    public synchronized long size() { return size; }
+
+    public synchronized boolean isEmpty() { return 0 == size; }
+
+    /**
+     * Appends the given entries in ascending datelong order and returns the number of stored entries.
+     * The order of the given list doesn't matter, Nightscout returns the newest entries first.
+     */
+    public synchronized int append(final List<Entry> entries) throws IOException {
+        if (null == entries) { throw new IllegalArgumentException("list of entries cannot be null"); }
+        checkClosed();
+        final List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.naturalOrder());
+
+        final ByteBuffer buffer   = ByteBuffer.allocate(sorted.size() * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        long             day      = Long.MIN_VALUE;
+        int              appended = 0;
+        for (Entry entry : sorted) {
+            if (entry.datelong() <= lastDatelong || !isSgv(entry)) { continue; }
+            final long entryDay = Math.floorDiv(entry.datelong(), SECONDS_PER_DAY);
+            if (entryDay != day && buffer.position() > 0) { write(day, buffer); }
+            day = entryDay;
+            putRecord(buffer, entry);
+            lastDatelong = entry.datelong();
+            appended++;
+        }
+        if (buffer.position() > 0) { write(day, buffer); }
+        size += appended;
+        return appended;
+    }
+
+    /**
+     * Returns the stored entries from the given datelong to the given datelong (epoch seconds, both inclusive)
+     * in ascending datelong order.
+     */
+    public synchronized List<Entry> getEntries(final long fromDatelong, final long toDatelong) throws IOException {
+        checkClosed();
+        final List<Entry> entries = new ArrayList<>();
+        for (Segment segment : getSegments(fromDatelong, toDatelong)) {
+            final ByteBuffer buffer = segment.getBuffer();
+            for (int i = segment.indexOf(buffer, fromDatelong) ; i < segment.size ; i++) {
+                final int offset = i * RECORD_SIZE;
+                if (buffer.getLong(offset) > toDatelong) { break; }
+                entries.add(getEntry(buffer, offset));
+            }
+        }
+        return entries;
+    }
+    public synchronized List<Entry> getEntries() throws IOException { return getEntries(Long.MIN_VALUE, Long.MAX_VALUE); }
+
+    /**
+     * Returns the stored readings from the given datelong to the given datelong (epoch seconds, both inclusive)
+     * as a GlucoseSeries without creating Entry objects.
+     */
+    public synchronized GlucoseSeries getGlucoseSeries(final long fromDatelong, final long toDatelong) throws IOException {
+        checkClosed();
+        // The matching records of every segment will be located first, so the series can be sized exactly
+        final List<Segment> matching = getSegments(fromDatelong, toDatelong);
+        final int[]         from     = new int[matching.size()];
+        final int[]         to       = new int[matching.size()];
+        long                count    = 0;
+        for (int s = 0 ; s < matching.size() ; s++) {
+            final Segment    segment = matching.get(s);
+            final ByteBuffer buffer  = segment.getBuffer();
+            from[s] = segment.indexOf(buffer, fromDatelong);
+            to[s]   = Long.MAX_VALUE == toDatelong ? segment.size : segment.indexOf(buffer, toDatelong + 1);
+            count  += to[s] - from[s];
+        }
+        final GlucoseSeries series = new GlucoseSeries((int) Math.min(count, Integer.MAX_VALUE - 8));
+        for (int s = 0 ; s < matching.size() ; s++) {
+            final ByteBuffer buffer = matching.get(s).getBuffer();
+            for (int i = from[s] ; i < to[s] ; i++) {
+                final int offset = i * RECORD_SIZE;
+                series.add(buffer.getLong(offset), buffer.getFloat(offset + 20), TRENDS[buffer.get(offset + 28)]);
+            }
+        }
+        return series;
+    }
+    public synchronized GlucoseSeries getGlucoseSeries() throws IOException { return getGlucoseSeries(Long.MIN_VALUE, Long.MAX_VALUE); }
+
+    /**
+     * Fetches and appends the entries that are newer than the last stored entry.
+     * If the store is empty the entries of the given interval will be fetched.
+     * Returns the number of appended entries.
+     */
+    public int sync(final NightscoutClient client, final TimeInterval initialInterval) throws IOException {
+        try {
+            return syncAsync(client, initialInterval).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) { throw ((UncheckedIOException) e.getCause()).getCause(); }
+            if (e.getCause() instanceof RuntimeException) { throw (RuntimeException) e.getCause(); }
+            throw e;
+        }
+    }
+
+    public CompletableFuture<Integer> syncAsync(final NightscoutClient client, final TimeInterval initialInterval) {
+        if (null == client) { throw new IllegalArgumentException("client cannot be null"); }
+        if (null == initialInterval) { throw new IllegalArgumentException("initialInterval cannot be null"); }
+        final long last       = getLastDatelong();
+        final long nowMillis  = Instant.now().getEpochSecond() * 1000;
+        // datelong only has second precision, so skip the remaining milliseconds of the last stored second
+        final long fromMillis = 0 == last ? nowMillis - initialInterval.getSeconds() * 1000 : last * 1000 + 1000;
+        if (fromMillis >= nowMillis) { return CompletableFuture.completedFuture(0); }
+        return new ChunkedFetcher().getEntriesAsync(client, fromMillis, nowMillis).thenApply(entries -> {
+            try {
+                return append(entries);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override public synchronized void close() {
+        closed = true;
+        segments.clear();
+    }
+
+    private void load() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                final String fileName = path.getFileName().toString();
+                final long   day;
+                try {
+                    day = LocalDate.parse(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length())).toEpochDay();
+                } catch (DateTimeParseException e) {
+                    continue;
+                }
+                final Segment segment = new Segment(path);
+                // Drop an incomplete record at the end, e.g. after a crash while appending
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    final long fileSize = channel.size();
+                    if (fileSize % RECORD_SIZE != 0) { channel.truncate(fileSize - fileSize % RECORD_SIZE); }
+                    segment.size = (int) (channel.size() / RECORD_SIZE);
+                }
+                if (0 == segment.size) { continue; }
+                segments.put(day, segment);
+                size += segment.size;
+            }
+        }
+        if (!segments.isEmpty()) {
+            final Segment last = segments.lastEntry().getValue();
+            lastDatelong = last.getBuffer().getLong((last.size - 1) * RECORD_SIZE);
+        }
+    }
+
+    private void write(final long day, final ByteBuffer buffer) throws IOException {
+        final Segment segment = segments.computeIfAbsent(day, d -> new Segment(directory.resolve(LocalDate.ofEpochDay(d) + SEGMENT_SUFFIX)));
+        buffer.flip();
+        final int records = buffer.remaining() / RECORD_SIZE;
+        try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (buffer.hasRemaining()) { channel.write(buffer); }
+        }
+        segment.size += records;
+        buffer.clear();
+    }
+
+    private List<Segment> getSegments(final long fromDatelong, final long toDatelong) {
+        if (fromDatelong > toDatelong) { throw new IllegalArgumentException("from must be before to parameter"); }
+        final long fromDay = Math.floorDiv(fromDatelong, SECONDS_PER_DAY);
+        final long toDay   = Math.floorDiv(toDatelong, SECONDS_PER_DAY);
+        return new ArrayList<>(segments.subMap(fromDay, true, toDay, true).values());
+    }
+
+    private void checkClosed() {
+        if (closed) { throw new IllegalStateException("EntryStore is closed"); }
+    }
+
+    private static boolean isSgv(final Entry entry) {
+        return null == entry.type() || entry.type().isEmpty() || "sgv".equals(entry.type());
+    }
+
+    private static void putRecord(final ByteBuffer buffer, final Entry entry) {
+        final int    start = buffer.position();
+        final String id    = entry.id();
+        buffer.putLong(entry.datelong());
+        if (null != id && id.length() == 24 && id.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+            buffer.put(HEX.parseHex(id));
+        } else {
+            // Entries without an object id are stored with the id that an upload would derive for them
+            buffer.put(HEX.parseHex(Entry.deriveId(entry.datelong(), entry.type(), entry.device())));
+        }
+        buffer.putFloat((float) entry.sgv());
+        buffer.putFloat((float) entry.delta());
+        buffer.put((byte) (null == entry.trend() ? Trend.NONE : entry.trend()).ordinal());
+        buffer.position(start + RECORD_SIZE);
+    }
+
+    private static Entry getEntry(final ByteBuffer buffer, final int offset) {
+        final long   datelong = buffer.getLong(offset);
+        final byte[] idBytes  = new byte[12];
+        buffer.get(offset + 8, idBytes);
+        // Records that have been written without an id get the id of an sgv entry without device, so they don't all equal each other
+        final String id    = isZero(idBytes) ? Entry.deriveId(datelong, "sgv", "") : HEX.formatHex(idBytes);
+        final Trend  trend = TRENDS[buffer.get(offset + 28)];
+        final OffsetDateTime date = OffsetDateTime.ofInstant(Instant.ofEpochSecond(datelong), ZoneId.systemDefault());
+        return new Entry(id, buffer.getFloat(offset + 20), datelong, date, "", trend, trend.getTextKey(), "", "sgv", 0, 0, 0, 0, 0, buffer.getFloat(offset + 24), "");
+    }
+
+    private static boolean isZero(final byte[] bytes) {
+        for (byte b : bytes) { if (0 != b) { return false; } }
+        return true;
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private static final class Segment {
+        private final Path             path;
+        private       MappedByteBuffer buffer;
+        private       int              size;
+
+
+        Segment(final Path path) {
+            this.path = path;
+            this.size = 0;
+        }
+
+
+        // The segment will be mapped again if records have been appended since it has been mapped
+        ByteBuffer getBuffer() throws IOException {
+            final long length = (long) size * RECORD_SIZE;
+            if (null == buffer || buffer.capacity() < length) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    buffer = channel.map(MapMode.READ_ONLY, 0, length);
+                }
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return buffer;
+        }
+
+        // Index of the first record with a datelong >= the given datelong
+        int indexOf(final ByteBuffer buffer, final long datelong) {
+            int low  = 0;
+            int high = size;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (buffer.getLong(mid * RECORD_SIZE) < datelong) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+
+/**
+ * Columnar store of glucose readings backed by parallel primitive arrays.
+ * Each reading only needs 13 bytes (datelong, sgv and trend ordinal) instead of a full Entry record.
+ * Entries will only be created on demand by getEntry(index) or the list returned by asEntries().
+ */
+public class GlucoseSeries {
+    private static final int     DEFAULT_CAPACITY = 288;
+    private static final Trend[] TRENDS           = Trend.values();
+    private              long[]  datelongs;
+    private              float[] sgvs;
+    private              byte[]  trends;
+    private              int     size;
+
+
+    // ******************** Constructors **************************************
+    public GlucoseSeries() {
+        this(DEFAULT_CAPACITY);
+    }
+    public GlucoseSeries(final int initialCapacity) {
+        if (initialCapacity < 0) { throw new IllegalArgumentException("initialCapacity cannot be negative"); }
+        this.datelongs = new long[initialCapacity];
+        this.sgvs      = new float[initialCapacity];
+        this.trends    = new byte[initialCapacity];
+        this.size      = 0;
+    }
+
+
+    // ******************** Methods *******************************************
+    public static GlucoseSeries of(final List<Entry> entries) {
+        if (null == entries) { throw new IllegalArgumentException("list of entries cannot be null"); }
+        final GlucoseSeries series = new GlucoseSeries(entries.size());
+        for (Entry entry : entries) { series.add(entry); }
+        return series;
+    }
+
+    public void add(final Entry entry) {
+        add(entry.datelong(), entry.sgv(), entry.trend());
+    }
+    public void add(final long datelong, final double sgv, final Trend trend) {
+        if (size == datelongs.length) { grow(); }
+        datelongs[size] = datelong;
+        sgvs[size]      = (float) sgv;
+        trends[size]    = (byte) (null == trend ? Trend.NONE : trend).ordinal();
+        size++;
+    }
+
+    public int size() { return size; }
+
+    public boolean isEmpty() { return 0 == size; }
+
+    public void clear() { size = 0; }
+
+    public long getDatelong(final int index) {
+        checkIndex(index);
+        return datelongs[index];
+    }
+
+    public double getSgv(final int index) {
+        checkIndex(index);
+        return sgvs[index];
+    }
+
+    public Trend getTrend(final int index) {
+        checkIndex(index);
+        return TRENDS[trends[index]];
+    }
+
+    // The id is derived from the datelong (like the id of an uploaded entry without id), so entries of different readings are not equal
+    public Entry getEntry(final int index) {
+        checkIndex(index);
+        final long  datelong = datelongs[index];
+        final Trend trend    = TRENDS[trends[index]];
+        return new Entry(Entry.deriveId(datelong, "sgv", ""), sgvs[index], datelong, OffsetDateTime.ofInstant(Instant.ofEpochSecond(datelong), ZoneId.systemDefault()), "", trend, trend.getTextKey(), "", "sgv", 0, 0, 0, 0, 0, 0, "");
+    }
+
+    public List<Entry> asEntries() { return new EntryView(); }
+
+    public double getAverage() {
+        if (0 == size) { return 0; }
+        double sum = 0;
+        for (int i = 0 ; i < size ; i++) { sum += sgvs[i]; }
+        return sum / size;
+    }
+
+    public void trimToSize() {
+        if (size == datelongs.length) { return; }
+        datelongs = Arrays.copyOf(datelongs, size);
+        sgvs      = Arrays.copyOf(sgvs, size);
+        trends    = Arrays.copyOf(trends, size);
+    }
+
+    private void grow() {
+        final int capacity = Math.max(16, datelongs.length + (datelongs.length >> 1));
+        datelongs = Arrays.copyOf(datelongs, capacity);
+        sgvs      = Arrays.copyOf(sgvs, capacity);
+        trends    = Arrays.copyOf(trends, capacity);
+    }
+
+    private void checkIndex(final int index) {
+        if (index < 0 || index >= size) { throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size); }
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private class EntryView extends AbstractList<Entry> implements RandomAccess {
+        @Override public Entry get(final int index) { return getEntry(index); }
+
+        @Override public int size() { return size; }
+    }
+}
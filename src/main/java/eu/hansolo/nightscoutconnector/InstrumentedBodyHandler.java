@@ -0,0 +1,72 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.ResponseInfo;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+
+/**
+ * Wraps a BodyHandler to report the latency until the response headers arrived, the status code
+ * and the number of bytes of the response body to the given Metrics.
+ * The latency is measured from the creation of the handler, so it has to be created right before sending the request.
+ */
+final class InstrumentedBodyHandler<T> implements BodyHandler<T> {
+    private final Metrics        metrics;
+    private final String         endpoint;
+    private final BodyHandler<T> delegate;
+    private final long           start;
+
+
+    // ******************** Constructors **************************************
+    InstrumentedBodyHandler(final Metrics metrics, final String endpoint, final BodyHandler<T> delegate) {
+        this.metrics  = metrics;
+        this.endpoint = endpoint;
+        this.delegate = delegate;
+        this.start    = System.nanoTime();
+    }
+
+
+    // ******************** Methods *******************************************
+    @Override public BodySubscriber<T> apply(final ResponseInfo responseInfo) {
+        metrics.recordResponse(endpoint, responseInfo.statusCode(), System.nanoTime() - start);
+        return new CountingBodySubscriber<>(delegate.apply(responseInfo));
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private final class CountingBodySubscriber<B> implements BodySubscriber<B> {
+        private final BodySubscriber<B> subscriber;
+        private       long              bytes;
+
+
+        CountingBodySubscriber(final BodySubscriber<B> subscriber) {
+            this.subscriber = subscriber;
+            this.bytes      = 0;
+        }
+
+
+        @Override public CompletionStage<B> getBody() { return subscriber.getBody(); }
+
+        @Override public void onSubscribe(final Flow.Subscription subscription) { subscriber.onSubscribe(subscription); }
+
+        // onNext, onError and onComplete are called sequentially, so no synchronization needed for bytes
+        @Override public void onNext(final List<ByteBuffer> buffers) {
+            for (ByteBuffer buffer : buffers) { bytes += buffer.remaining(); }
+            subscriber.onNext(buffers);
+        }
+
+        @Override public void onError(final Throwable throwable) {
+            metrics.recordBytes(endpoint, bytes);
+            subscriber.onError(throwable);
+        }
+
+        @Override public void onComplete() {
+            metrics.recordBytes(endpoint, bytes);
+            subscriber.onComplete();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package eu.hansolo.nightscoutconnector;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Metrics implementation that keeps the measurements per endpoint and registers every endpoint
+ * as MBean (eu.hansolo.nightscoutconnector:type=Endpoint,name="...") at the platform MBean server,
+ * so they can be inspected with JConsole or any JMX exporter.
+ */
+public class JmxMetrics implements Metrics, AutoCloseable {
+    public static final  String                                     DOMAIN = "eu.hansolo.nightscoutconnector";
+    private static final Logger                                     LOGGER = Logger.getLogger(JmxMetrics.class.getName());
+    private final        MBeanServer                                mBeanServer;
+    private final        ConcurrentHashMap<String, EndpointMetrics> endpoints;
+
+
+    // ******************** Constructors **************************************
+    public JmxMetrics() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+    public JmxMetrics(final MBeanServer mBeanServer) {
+        this.mBeanServer = mBeanServer;
+        this.endpoints   = new ConcurrentHashMap<>();
+    }
+
+
+    // ******************** Methods *******************************************
+    @Override public void recordResponse(final String endpoint, final int statusCode, final long latencyNanos) {
+        getOrCreate(endpoint).recordResponse(statusCode, latencyNanos);
+    }
+
+    @Override public void recordBytes(final String endpoint, final long bytes) {
+        getOrCreate(endpoint).recordBytes(bytes);
+    }
+
+    @Override public void recordDecompressed(final String endpoint, final long compressedBytes, final long decompressedBytes) {
+        getOrCreate(endpoint).recordDecompressed(compressedBytes, decompressedBytes);
+    }
+
+    @Override public void recordParse(final String endpoint, final int records, final long parseNanos) {
+        getOrCreate(endpoint).recordParse(records, parseNanos);
+    }
+
+    @Override public void recordTimeout(final String endpoint) { getOrCreate(endpoint).recordTimeout(); }
+
+    @Override public void recordError(final String endpoint) { getOrCreate(endpoint).recordError(); }
+
+    @Override public void recordAccessDenied(final String endpoint) { getOrCreate(endpoint).recordAccessDenied(); }
+
+    @Override public void recordRetry(final String endpoint) { getOrCreate(endpoint).recordRetry(); }
+
+    @Override public void recordHedge(final String endpoint) { getOrCreate(endpoint).recordHedge(); }
+
+    @Override public void recordRejected(final String endpoint) { getOrCreate(endpoint).recordRejected(); }
+
+    public EndpointMetrics getEndpoint(final String endpoint) { return endpoints.get(endpoint); }
+
+    public Collection<EndpointMetrics> getEndpoints() { return Collections.unmodifiableCollection(endpoints.values()); }
+
+    public void reset() { endpoints.values().forEach(EndpointMetrics::reset); }
+
+    // Unregisters all MBeans
+    @Override public void close() {
+        endpoints.keySet().forEach(endpoint -> {
+            try {
+                final ObjectName name = createObjectName(endpoint);
+                if (null != mBeanServer && mBeanServer.isRegistered(name)) { mBeanServer.unregisterMBean(name); }
+            } catch (JMException e) {
+                LOGGER.log(Level.WARNING, "Error unregistering metrics of " + endpoint, e);
+            }
+        });
+        endpoints.clear();
+    }
+
+    private EndpointMetrics getOrCreate(final String endpoint) {
+        final EndpointMetrics metrics = endpoints.get(endpoint);
+        return null == metrics ? endpoints.computeIfAbsent(endpoint, this::register) : metrics;
+    }
+
+    private EndpointMetrics register(final String endpoint) {
+        final EndpointMetrics metrics = new EndpointMetrics(endpoint);
+        if (null == mBeanServer) { return metrics; }
+        try {
+            final ObjectName name = createObjectName(endpoint);
+            if (mBeanServer.isRegistered(name)) { mBeanServer.unregisterMBean(name); }
+            mBeanServer.registerMBean(metrics, name);
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Error registering metrics of " + endpoint, e);
+        }
+        return metrics;
+    }
+
+    private static ObjectName createObjectName(final String endpoint) throws JMException {
+        return new ObjectName(DOMAIN + ":type=Endpoint,name=" + ObjectName.quote(endpoint));
+    }
+}
@@ -0,0 +1,192 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.net.http.HttpRequest.BodyPublisher;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import static eu.hansolo.nightscoutconnector.Constants.*;
+
+
+/**
+ * Request body with a json array of entries or treatments.
+ * The records will be serialized chunk by chunk when the http client requests the next buffer,
+ * so the body is never completely in memory. Every subscription starts from the first record,
+ * so the same publisher can be sent again when a request will be retried.
+ * Records without an id get an id that is derived from their content (timestamp, type and device
+ * or event type), so a retried batch or a record that is uploaded twice will not create duplicates.
+ */
+final class JsonBodyPublisher<T> implements BodyPublisher {
+    private static final int                          CHUNK_SIZE = 16_384;
+    private final        List<T>                      records;
+    private final        BiConsumer<StringBuilder, T> writer;
+
+
+    // ******************** Constructors **************************************
+    private JsonBodyPublisher(final List<T> records, final BiConsumer<StringBuilder, T> writer) {
+        this.records = records;
+        this.writer  = writer;
+    }
+
+
+    // ******************** Methods *******************************************
+    static JsonBodyPublisher<Entry> ofEntries(final List<Entry> entries) { return new JsonBodyPublisher<>(List.copyOf(entries), JsonBodyPublisher::appendEntry); }
+
+    static JsonBodyPublisher<Treatment> ofTreatments(final List<Treatment> treatments) { return new JsonBodyPublisher<>(List.copyOf(treatments), JsonBodyPublisher::appendTreatment); }
+
+    int size() { return records.size(); }
+
+    // The length is unknown because the body will be serialized while it is sent
+    @Override public long contentLength() { return -1; }
+
+    @Override public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+        subscriber.onSubscribe(new JsonSubscription(subscriber));
+    }
+
+    static void appendEntry(final StringBuilder json, final Entry entry) {
+        final String date      = Instant.ofEpochSecond(entry.datelong()).toString();
+        final String direction = null == entry.direction() || entry.direction().isEmpty() ? (null == entry.trend() ? "" : entry.trend().getTextKey()) : entry.direction();
+        final String id        = null == entry.id() || entry.id().isEmpty() ? Entry.deriveId(entry.datelong(), entry.type(), entry.device()) : entry.id();
+        json.append('{');
+        appendString(json, FIELD_ID, id).append(',');
+        appendString(json, FIELD_TYPE, empty(entry.type()) ? "sgv" : entry.type()).append(',');
+        appendNumber(json, FIELD_DATE, entry.datelong() * 1000).append(',');
+        appendString(json, FIELD_DATE_STRING, empty(entry.dateString()) ? date : entry.dateString()).append(',');
+        appendString(json, FIELD_SYS_TIME, empty(entry.sysTime()) ? date : entry.sysTime()).append(',');
+        appendNumber(json, FIELD_SGV, entry.sgv()).append(',');
+        appendNumber(json, FIELD_DELTA, entry.delta()).append(',');
+        if (!direction.isEmpty()) { appendString(json, FIELD_DIRECTION, direction).append(','); }
+        if (!empty(entry.device())) { appendString(json, FIELD_DEVICE, entry.device()).append(','); }
+        appendNumber(json, FIELD_FILTERED, entry.filtered()).append(',');
+        appendNumber(json, FIELD_UNFILTERED, entry.unfiltered()).append(',');
+        appendNumber(json, FIELD_RSSI, entry.rssi()).append(',');
+        appendNumber(json, FIELD_NOISE, entry.noise()).append(',');
+        appendNumber(json, FIELD_UTC_OFFSET, entry.utcOffset());
+        json.append('}');
+    }
+
+    static void appendTreatment(final StringBuilder json, final Treatment treatment) {
+        final String id = null == treatment.id() || treatment.id().isEmpty() ? Entry.createId(treatment.createdAtMillis() / 1000, treatment.eventType(), treatment.enteredBy(), Double.toString(treatment.carbs()), Double.toString(treatment.insulin())) : treatment.id();
+        json.append('{');
+        appendString(json, FIELD_ID, id).append(',');
+        appendString(json, FIELD_EVENT_TYPE, treatment.eventType()).append(',');
+        appendString(json, FIELD_CREATED_AT, treatment.created_at()).append(',');
+        appendString(json, FIELD_GLUCOSE, treatment.glucose()).append(',');
+        appendString(json, FIELD_GLUCOSE_TYPE, treatment.glucoseType()).append(',');
+        appendNumber(json, FIELD_CARBS, treatment.carbs()).append(',');
+        appendNumber(json, FIELD_PROTEIN, treatment.protein()).append(',');
+        appendNumber(json, FIELD_FAT, treatment.fat()).append(',');
+        appendNumber(json, FIELD_INSULIN, treatment.insulin()).append(',');
+        appendString(json, FIELD_UNITS, treatment.units()).append(',');
+        appendString(json, FIELD_TRANSMITTER_ID, treatment.transmitterId()).append(',');
+        appendString(json, FIELD_SENSOR_CODE, treatment.sensorCode()).append(',');
+        appendString(json, FIELD_NOTES, treatment.notes()).append(',');
+        appendString(json, FIELD_ENTERED_BY, treatment.enteredBy());
+        json.append('}');
+    }
+
+    private static boolean empty(final String text) { return null == text || text.isEmpty(); }
+
+    private static StringBuilder appendNumber(final StringBuilder json, final String name, final double value) {
+        json.append('"').append(name).append("\":");
+        if (Double.isNaN(value) || Double.isInfinite(value)) { return json.append('0'); }
+        return value == (long) value ? json.append((long) value) : json.append(value);
+    }
+
+    private static StringBuilder appendString(final StringBuilder json, final String name, final String value) {
+        json.append('"').append(name).append("\":\"");
+        final String text = null == value ? "" : value;
+        for (int i = 0 ; i < text.length() ; i++) {
+            final char c = text.charAt(i);
+            switch (c) {
+                case '"'  -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default   -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        return json.append('"');
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private final class JsonSubscription implements Flow.Subscription {
+        private final    Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final    AtomicLong                          demand;
+        private final    AtomicInteger                       wip;
+        private final    StringBuilder                       json;
+        private          int                                 index;
+        private volatile boolean                             done;
+
+
+        JsonSubscription(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+            this.demand     = new AtomicLong(0);
+            this.wip        = new AtomicInteger(0);
+            this.json       = new StringBuilder(CHUNK_SIZE + 1024);
+            this.index      = 0;
+            this.done       = false;
+        }
+
+
+        @Override public void request(final long n) {
+            if (done) { return; }
+            if (n <= 0) {
+                done = true;
+                subscriber.onError(new IllegalArgumentException("number of requested buffers must be positive"));
+                return;
+            }
+            demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+            drain();
+        }
+
+        @Override public void cancel() { done = true; }
+
+        // Only one thread serializes at a time, requests from within onNext() will be handled by the loop
+        private void drain() {
+            if (wip.getAndIncrement() != 0) { return; }
+            do {
+                while (!done && demand.get() > 0) {
+                    final ByteBuffer buffer = nextChunk();
+                    if (null == buffer) {
+                        done = true;
+                        subscriber.onComplete();
+                        return;
+                    }
+                    demand.decrementAndGet();
+                    subscriber.onNext(buffer);
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+
+        // Returns null after the closing bracket has been sent
+        private ByteBuffer nextChunk() {
+            final int size = records.size();
+            if (index > size) { return null; }
+            json.setLength(0);
+            if (0 == index) { json.append('['); }
+            while (index < size && json.length() < CHUNK_SIZE) {
+                if (index > 0) { json.append(','); }
+                writer.accept(json, records.get(index++));
+            }
+            if (index == size) {
+                json.append(']');
+                index++;
+            }
+            return ByteBuffer.wrap(json.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
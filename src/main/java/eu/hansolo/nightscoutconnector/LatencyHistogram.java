@@ -0,0 +1,89 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Lock free histogram of latencies in microseconds.
+ * Each power of two is split into 8 sub buckets which gives a relative error of at most 12.5%
+ * for values between 1 microsecond and about 25 days with a fixed footprint of 312 counters.
+ */
+final class LatencyHistogram {
+    private static final int             SUB_BUCKET_BITS = 3;
+    private static final int             SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;
+    private static final int             MAX_EXPONENT    = 40;
+    private static final int             NO_OF_BUCKETS   = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private final        AtomicLongArray counts;
+    private final        LongAdder       count;
+    private final        LongAdder       sum;
+    private final        LongAccumulator max;
+
+
+    // ******************** Constructors **************************************
+    LatencyHistogram() {
+        this.counts = new AtomicLongArray(NO_OF_BUCKETS);
+        this.count  = new LongAdder();
+        this.sum    = new LongAdder();
+        this.max    = new LongAccumulator(Math::max, 0);
+    }
+
+
+    // ******************** Methods *******************************************
+    void record(final long micros) {
+        final long value = Math.max(0, micros);
+        counts.incrementAndGet(getBucket(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    long getCount() { return count.sum(); }
+
+    long getMax() { return max.get(); }
+
+    double getMean() {
+        final long n = count.sum();
+        return 0 == n ? 0 : sum.sum() / (double) n;
+    }
+
+    // Returns the upper bound of the bucket that contains the given quantile (0 - 1)
+    long getPercentile(final double quantile) {
+        final long[] snapshot = new long[NO_OF_BUCKETS];
+        long total = 0;
+        for (int i = 0 ; i < NO_OF_BUCKETS ; i++) {
+            snapshot[i] = counts.get(i);
+            total      += snapshot[i];
+        }
+        if (0 == total) { return 0; }
+        final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0 ; i < NO_OF_BUCKETS ; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) { return Math.min(getUpperBound(i), max.get()); }
+        }
+        return max.get();
+    }
+
+    void reset() {
+        for (int i = 0 ; i < NO_OF_BUCKETS ; i++) { counts.set(i, 0); }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    static int getBucket(final long value) {
+        if (value < SUB_BUCKETS) { return (int) value; }
+        final int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        if (exponent == MAX_EXPONENT && value >= (1L << (MAX_EXPONENT + 1))) { return NO_OF_BUCKETS - 1; }
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    static long getUpperBound(final int bucket) {
+        if (bucket < SUB_BUCKETS) { return bucket; }
+        final int  exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long width    = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + bucket % SUB_BUCKETS) * width + width - 1;
+    }
+}
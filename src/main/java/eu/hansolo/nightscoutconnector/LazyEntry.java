@@ -0,0 +1,175 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Lightweight alternative to Entry with the same accessors for consumers that mostly read sgv and datelong.
+ * The numeric fields will be parsed eagerly, the date will only be created on the first call of date() with a
+ * cached zone offset (no zone rules lookup per entry). The date string and sys time will not be parsed at all
+ * but derived from datelong and utcOffset on first access (ISO 8601 with second precision).
+ * Device, type and direction strings are deduplicated, so all entries of a device share the same instances.
+ * Use toEntry() to get a full Entry.
+ */
+public final class LazyEntry implements Comparable<LazyEntry> {
+    private static final int                               MAX_SHARED_STRINGS = 4_096;
+    private static final ConcurrentHashMap<String, String> SHARED_STRINGS     = new ConcurrentHashMap<>();
+    private static final ZoneId                            ZONE               = ZoneId.systemDefault();
+    private static       ZoneCache                         zoneCache          = new ZoneCache(0, Long.MIN_VALUE, Long.MIN_VALUE);
+    private final        String                            id;
+    private final        double                            sgv;
+    private final        long                              datelong;
+    private final        Trend                             trend;
+    private final        String                            direction;
+    private final        String                            device;
+    private final        String                            type;
+    private final        int                               utcOffset;
+    private final        int                               noise;
+    private final        double                            filtered;
+    private final        double                            unfiltered;
+    private final        int                               rssi;
+    private final        double                            delta;
+    // Lazily created, racy single check is fine because the values are immutable
+    private              OffsetDateTime                    date;
+    private              String                            dateString;
+
+
+    // ******************** Constructors **************************************
+    public LazyEntry(final String id, final double sgv, final long datelong, final Trend trend, final String direction, final String device, final String type,
+                     final int utcOffset, final int noise, final double filtered, final double unfiltered, final int rssi, final double delta) {
+        this.id         = null == id ? "" : id;
+        this.sgv        = sgv;
+        this.datelong   = datelong;
+        this.trend      = null == trend ? Trend.NONE : trend;
+        this.direction  = share(direction);
+        this.device     = share(device);
+        this.type       = share(type);
+        this.utcOffset  = utcOffset;
+        this.noise      = noise;
+        this.filtered   = filtered;
+        this.unfiltered = unfiltered;
+        this.rssi       = rssi;
+        this.delta      = delta;
+    }
+
+
+    // ******************** Methods *******************************************
+    public static LazyEntry of(final Entry entry) {
+        if (null == entry) { throw new IllegalArgumentException("entry cannot be null"); }
+        return new LazyEntry(entry.id(), entry.sgv(), entry.datelong(), entry.trend(), entry.direction(), entry.device(), entry.type(),
+                             entry.utcOffset(), entry.noise(), entry.filtered(), entry.unfiltered(), entry.rssi(), entry.delta());
+    }
+
+    public String id() { return id; }
+
+    public double sgv() { return sgv; }
+
+    public long datelong() { return datelong; }
+
+    // Date in the system default zone (at the time the class has been loaded)
+    public OffsetDateTime date() {
+        OffsetDateTime d = date;
+        if (null == d) {
+            final ZoneOffset offset = ZoneOffset.ofTotalSeconds(getOffsetSeconds(datelong));
+            d    = OffsetDateTime.of(LocalDateTime.ofEpochSecond(datelong, 0, offset), offset);
+            date = d;
+        }
+        return d;
+    }
+
+    public String dateString() {
+        String s = dateString;
+        if (null == s) {
+            s          = DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(OffsetDateTime.ofInstant(Instant.ofEpochSecond(datelong), ZoneOffset.ofTotalSeconds(utcOffset * 60)));
+            dateString = s;
+        }
+        return s;
+    }
+
+    public Trend trend() { return trend; }
+
+    public String direction() { return direction; }
+
+    public String device() { return device; }
+
+    public String type() { return type; }
+
+    public int utcOffset() { return utcOffset; }
+
+    public int noise() { return noise; }
+
+    public double filtered() { return filtered; }
+
+    public double unfiltered() { return unfiltered; }
+
+    public int rssi() { return rssi; }
+
+    public double delta() { return delta; }
+
+    // Nightscout uses the same timestamp for sysTime and dateString
+    public String sysTime() { return dateString(); }
+
+    public Entry toEntry() {
+        return new Entry(id, sgv, datelong, date(), dateString(), trend, direction, device, type, utcOffset, noise, filtered, unfiltered, rssi, delta, sysTime());
+    }
+
+    // Same order as Entry.compareTo()
+    @Override public int compareTo(final LazyEntry other) { return Long.compare(datelong, other.datelong()); }
+
+    // Same as Entry, entries are identified by their id
+    @Override public boolean equals(final Object o) {
+        if (this == o) { return true; }
+        if (o == null || getClass() != o.getClass()) { return false; }
+        LazyEntry that = (LazyEntry) o;
+        return Objects.equals(that.id, id);
+    }
+
+    @Override public int hashCode() { return Objects.hashCode(id); }
+
+    @Override public String toString() {
+        return new StringBuilder().append("{")
+                                  .append("\"type\":\"").append(type).append("\",")
+                                  .append("\"date\":\"").append(Constants.DTF.format(date())).append("\",")
+                                  .append("\"sgv\":").append(sgv)
+                                  .append("}")
+                                  .toString();
+    }
+
+    // Returns the shared instance of the given string, the number of shared strings is limited because devices are free text
+    static String share(final String text) {
+        if (null == text || text.isEmpty()) { return ""; }
+        final Trend trend = Trend.getFromText(text);
+        if (Trend.NONE != trend && trend.getTextKey().equals(text)) { return trend.getTextKey(); }
+        final String shared = SHARED_STRINGS.get(text);
+        if (null != shared) { return shared; }
+        if (SHARED_STRINGS.size() >= MAX_SHARED_STRINGS) { return text; }
+        final String previous = SHARED_STRINGS.putIfAbsent(text, text);
+        return null == previous ? text : previous;
+    }
+
+    // The offset only changes at the transitions of the zone (e.g. daylight saving time), so it will be cached until the next transition
+    private static int getOffsetSeconds(final long datelong) {
+        final ZoneCache cache = zoneCache;
+        if (datelong >= cache.validFrom() && datelong < cache.validTo()) { return cache.offsetSeconds(); }
+        final ZoneRules            rules    = ZONE.getRules();
+        final Instant              instant  = Instant.ofEpochSecond(datelong);
+        final ZoneOffsetTransition previous = rules.previousTransition(instant.plusSeconds(1));
+        final ZoneOffsetTransition next     = rules.nextTransition(instant);
+        final ZoneCache            updated  = new ZoneCache(rules.getOffset(instant).getTotalSeconds(), null == previous ? Long.MIN_VALUE : previous.toEpochSecond(), null == next ? Long.MAX_VALUE : next.toEpochSecond());
+        zoneCache = updated;
+        return updated.offsetSeconds();
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private record ZoneCache(int offsetSeconds, long validFrom, long validTo) {}
+}
@@ -0,0 +1,167 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.time.Duration;
+import java.util.function.Consumer;
+
+
+/**
+ * Fixed-capacity ring buffer of the newest entries of one source with a single writer (e.g. an EntryPoller
+ * via poller.addEntryListener(feed)) and any number of lock-free readers.
+ * Every reader uses its own Cursor, readers that fall behind by more than the capacity skip the overwritten
+ * entries and count them as missed. The latest Snapshot (entry, trend and prediction) will be computed by
+ * the writer, so readers get it without locking and without extra requests.
+ */
+public class LiveFeed implements Consumer<Entry> {
+    public  static final int       DEFAULT_CAPACITY = 64;
+    private final        Slot[]    slots;
+    private final        int       mask;
+    private final        Predictor predictor;
+    private final        long[]    datelongs;
+    private final        double[]  sgvs;
+    private volatile     long      sequence;
+    private volatile     Snapshot  latest;
+
+
+    // ******************** Constructors **************************************
+    public LiveFeed() {
+        this(DEFAULT_CAPACITY, new Predictor());
+    }
+    public LiveFeed(final int capacity, final Predictor predictor) {
+        if (capacity < 2) { throw new IllegalArgumentException("capacity must at least be 2"); }
+        if (null == predictor) { throw new IllegalArgumentException("predictor cannot be null"); }
+        // Capacity will be rounded up to the next power of 2
+        final int size = Integer.highestOneBit(capacity - 1) << 1;
+        if (size < predictor.getModel().getNoOfReadings()) { throw new IllegalArgumentException("capacity must at least be the number of readings of the prediction model"); }
+        this.slots     = new Slot[size];
+        this.mask      = size - 1;
+        this.predictor = predictor;
+        this.datelongs = new long[predictor.getModel().getNoOfReadings()];
+        this.sgvs      = new double[predictor.getModel().getNoOfReadings()];
+        this.sequence  = 0;
+        this.latest    = null;
+    }
+
+
+    // ******************** Methods *******************************************
+    @Override public void accept(final Entry entry) { publish(entry); }
+
+    /**
+     * Must only be called by one thread. Entries that are not newer than the last published entry will be ignored.
+     * Returns true if the entry has been published.
+     */
+    public boolean publish(final Entry entry) {
+        if (null == entry) { throw new IllegalArgumentException("entry cannot be null"); }
+        final long     seq  = sequence;
+        final Snapshot last = latest;
+        if (null != last && entry.datelong() <= last.entry().datelong()) { return false; }
+        slots[(int) (seq & mask)] = new Slot(seq, entry);
+        // The volatile write publishes the slot to the readers
+        sequence = seq + 1;
+        latest   = createSnapshot(entry, seq + 1);
+        return true;
+    }
+
+    // The newest entry with its trend and prediction or null if nothing has been published yet
+    public Snapshot getLatest() { return latest; }
+
+    // Number of entries that have been published so far
+    public long getSequence() { return sequence; }
+
+    public int getCapacity() { return slots.length; }
+
+    // Cursor that only returns entries that will be published after it has been created
+    public Cursor newCursor() { return new Cursor(sequence); }
+
+    // Cursor that starts with the oldest entry that is still in the buffer
+    public Cursor newCursorFromOldest() { return new Cursor(Math.max(0, sequence - slots.length)); }
+
+    private Snapshot createSnapshot(final Entry entry, final long seq) {
+        final int n     = datelongs.length;
+        final int count = (int) Math.min(seq, n);
+        // The newest readings, newest first, are still in the buffer because the capacity is at least the number of readings of the model
+        for (int i = 0 ; i < count ; i++) {
+            final Entry e = slots[(int) ((seq - 1 - i) & mask)].entry();
+            datelongs[i] = e.datelong();
+            sgvs[i]      = e.sgv();
+        }
+        final Trend      trend      = null == entry.trend() ? Trend.NONE : entry.trend();
+        final double     estimate   = count < n ? entry.sgv() : predictor.estimate(datelongs, sgvs, n);
+        final Prediction prediction = count < n ? Prediction.NONE : Connector.getPrediction(estimate);
+        return new Snapshot(entry, trend, prediction, estimate, seq);
+    }
+
+
+    // ******************** Inner Classes *************************************
+    /**
+     * The entry of a snapshot is the entry with the given sequence number (1 based).
+     * The estimated sgv is the one at the horizon of the predictor, it is the sgv of the entry
+     * as long as there are not enough readings for the prediction model.
+     */
+    public record Snapshot(Entry entry, Trend trend, Prediction prediction, double estimatedSgv, long sequence) {
+        public Duration getAge() { return Duration.ofSeconds(Math.max(0, System.currentTimeMillis() / 1000 - entry.datelong())); }
+    }
+
+    // The sequence number (0 based) tells readers if the slot has been overwritten while they were reading it
+    private record Slot(long sequence, Entry entry) {}
+
+    /**
+     * Position of one reader in the feed, a cursor must only be used by one thread.
+     */
+    public final class Cursor {
+        private long next;
+        private long missed;
+
+
+        private Cursor(final long next) {
+            this.next   = next;
+            this.missed = 0;
+        }
+
+
+        /**
+         * Returns the next entry or null if there is no new entry.
+         */
+        public Entry poll() {
+            while (true) {
+                final long published = sequence;
+                if (next >= published) { return null; }
+                skipOverwritten(published);
+                final Slot slot = slots[(int) (next & mask)];
+                // The writer might have overwritten the slot in the meantime
+                if (slot.sequence() > next) {
+                    skipOverwritten(slot.sequence() + 1);
+                    continue;
+                }
+                next++;
+                return slot.entry();
+            }
+        }
+
+        /**
+         * Passes all new entries to the given consumer and returns their number.
+         */
+        public int drainTo(final Consumer<Entry> consumer) {
+            if (null == consumer) { throw new IllegalArgumentException("consumer cannot be null"); }
+            int   count = 0;
+            Entry entry;
+            while (null != (entry = poll())) {
+                consumer.accept(entry);
+                count++;
+            }
+            return count;
+        }
+
+        public int available() { return (int) Math.min(slots.length, sequence - next); }
+
+        // Number of entries that have been overwritten before this cursor could read them
+        public long getMissed() { return missed; }
+
+        private void skipOverwritten(final long published) {
+            final long oldest = published - slots.length;
+            if (next < oldest) {
+                missed += oldest - next;
+                next    = oldest;
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.net.URI;
+
+
+/**
+ * Receives the measurements of all requests sent by the Connector and the NightscoutClients.
+ * The endpoint is the authority and path of the request uri (e.g. mysite.herokuapp.com/api/v2/entries/sgv.json).
+ * Implementations will be called from many threads concurrently and must not block.
+ * Set it with Connector.setMetrics(), e.g. Connector.setMetrics(new JmxMetrics()).
+ */
+public interface Metrics {
+    Metrics NONE = new Metrics() {};
+
+
+    // Called when the response headers arrived, the latency is the time from sending the request until then
+    default void recordResponse(final String endpoint, final int statusCode, final long latencyNanos) {}
+
+    // Called when the response body has been received completely, bytes as received (compressed if the server compressed the body)
+    default void recordBytes(final String endpoint, final long bytes) {}
+
+    // Called when a compressed response body has been decompressed
+    default void recordDecompressed(final String endpoint, final long compressedBytes, final long decompressedBytes) {}
+
+    // Called after a response body has been parsed to the given number of records
+    default void recordParse(final String endpoint, final int records, final long parseNanos) {}
+
+    default void recordTimeout(final String endpoint) {}
+
+    // Called for connection problems and other io errors
+    default void recordError(final String endpoint) {}
+
+    default void recordAccessDenied(final String endpoint) {}
+
+    // Called before a failed request will be sent again
+    default void recordRetry(final String endpoint) {}
+
+    // Called when a hedged request will be sent because the first one is too slow
+    default void recordHedge(final String endpoint) {}
+
+    // Called when a request has not been sent because the circuit breaker of the host is open
+    default void recordRejected(final String endpoint) {}
+
+
+    static String getEndpoint(final URI uri) {
+        return null == uri.getAuthority() ? uri.getPath() : uri.getAuthority() + uri.getPath();
+    }
+}
@@ -0,0 +1,543 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpClient.Redirect;
+import java.net.http.HttpClient.Version;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static eu.hansolo.nightscoutconnector.Constants.*;
+
+
+/**
+ * Client for one Nightscout site.
+ * The base urls and the hashed API_SECRET will be created once when the client is built,
+ * so the requests don't need to validate and build them on every call.
+ * Timeouts and the number of concurrent requests can be configured per site.
+ */
+public class NightscoutClient {
+    public static final Duration           DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    public static final Duration           DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(5);
+    private static final int               NOT_MODIFIED            = 304;
+    private final       String             nightscoutUrl;
+    private final       String             nightscoutToken;
+    private final       String             apiSecretHash;
+    private final       String             tokenParameter;
+    private final       URI                currentUri;
+    private final       String             entriesUrl;
+    private final       String             treatmentsUrl;
+    private final       URI                entriesPostUri;
+    private final       URI                treatmentsPostUri;
+    private final       Duration           connectTimeout;
+    private final       Duration           requestTimeout;
+    private final       int                maxConcurrentRequests;
+    private final       HttpClient         httpClient;
+    private final       ConcurrencyLimiter limiter;
+    private final       ResiliencePolicy   resiliencePolicy;
+
+
+    // ******************** Constructors **************************************
+    private NightscoutClient(final Builder builder) {
+        this.nightscoutUrl         = builder.nightscoutUrl.endsWith("/") ? builder.nightscoutUrl.substring(0, builder.nightscoutUrl.length() - 1) : builder.nightscoutUrl;
+        this.nightscoutToken       = null == builder.nightscoutToken ? "" : builder.nightscoutToken;
+        this.apiSecretHash         = hashApiSecret(builder.apiSecret);
+        this.tokenParameter        = nightscoutToken.isEmpty() ? "" : "&token=" + nightscoutToken;
+        this.currentUri            = URI.create(nightscoutUrl + CURRENT_JSON + tokenParameter);
+        this.entriesUrl            = nightscoutUrl + ENTRIES_JSON + "?";
+        this.treatmentsUrl         = nightscoutUrl + TREATMENTS_JSON + "?";
+        this.entriesPostUri        = URI.create(nightscoutUrl + ENTRIES_POST_JSON + (nightscoutToken.isEmpty() ? "" : "?token=" + nightscoutToken));
+        this.treatmentsPostUri     = URI.create(nightscoutUrl + TREATMENTS_POST_JSON + (nightscoutToken.isEmpty() ? "" : "?token=" + nightscoutToken));
+        this.connectTimeout        = builder.connectTimeout;
+        this.requestTimeout        = builder.requestTimeout;
+        this.maxConcurrentRequests = builder.maxConcurrentRequests;
+        // Clients with the default connect timeout share the http client of the Connector
+        if (null != builder.httpClient) {
+            this.httpClient = builder.httpClient;
+        } else if (DEFAULT_CONNECT_TIMEOUT.equals(connectTimeout)) {
+            this.httpClient = null;
+        } else {
+            this.httpClient = HttpClient.newBuilder()
+                                        .connectTimeout(connectTimeout)
+                                        .version(Version.HTTP_2)
+                                        .followRedirects(Redirect.NORMAL)
+                                        .executor(Connector.getExecutor())
+                                        .build();
+        }
+        this.limiter          = Integer.MAX_VALUE == maxConcurrentRequests ? null : new ConcurrencyLimiter(maxConcurrentRequests);
+        this.resiliencePolicy = builder.resiliencePolicy;
+    }
+
+
+    // ******************** Methods *******************************************
+    public static Builder builder(final String nightscoutUrl) { return new Builder(nightscoutUrl); }
+
+    public String getNightscoutUrl() { return nightscoutUrl; }
+
+    public String getNightscoutToken() { return nightscoutToken; }
+
+    public Duration getConnectTimeout() { return connectTimeout; }
+
+    public Duration getRequestTimeout() { return requestTimeout; }
+
+    public int getMaxConcurrentRequests() { return maxConcurrentRequests; }
+
+    // Returns the policy of this client or the one of the Connector if no policy has been set
+    public ResiliencePolicy getResiliencePolicy() { return null == resiliencePolicy ? Connector.getResiliencePolicy() : resiliencePolicy; }
+
+
+    // ******************** Sync methods **************************************
+    public Entry getCurrentEntry() throws AccessDeniedException {
+        final List<Entry> entries = getConditional(currentUri.toString(), currentUri, NightscoutClient::parseEntries);
+        return null == entries || entries.isEmpty() ? null : entries.get(0);
+    }
+
+    public List<Entry> getLastNEntries(final int noOfEntries) throws IllegalArgumentException {
+        final URI uri = createLastNEntriesUri(noOfEntries);
+        return getConditionalOrEmpty(uri.toString(), uri, NightscoutClient::parseEntries);
+    }
+
+    public List<Entry> getEntriesFromTo(final ZonedDateTime from, final ZonedDateTime to) throws IllegalArgumentException {
+        return getEntries(createFromToUri(from, to));
+    }
+
+    public List<Entry> getEntriesFromInterval(final TimeInterval interval) {
+        return getConditionalOrEmpty(getIntervalKey(entriesUrl, interval), createIntervalUri(entriesUrl, interval), NightscoutClient::parseEntries);
+    }
+
+    public List<Entry> getEntriesSince(final long datelong, final int maxNoOfEntries) throws IllegalArgumentException {
+        return getEntries(createSinceUri(datelong, maxNoOfEntries));
+    }
+
+    public GlucoseSeries getGlucoseSeriesFromInterval(final TimeInterval interval) {
+        final URI                       uri      = createIntervalUri(entriesUrl, interval);
+        final HttpResponse<InputStream> response = send(uri, Compression.ofInputStream(uri));
+        try {
+            return null == response ? new GlucoseSeries(0) : parseGlucoseSeries(uri, response.body());
+        } catch (AccessDeniedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public List<Treatment> getTreatmentsFromInterval(final TimeInterval interval) {
+        return getConditionalOrEmpty(getIntervalKey(treatmentsUrl, interval), createIntervalUri(treatmentsUrl, interval), NightscoutClient::parseTreatments);
+    }
+
+    /**
+     * Uploads the entries with one request (json array), returns true if the site accepted them.
+     * Failed requests will be retried with the ResiliencePolicy, entries without an id get an id
+     * that is derived from their content, so retries don't create duplicates. Use an Uploader to batch single entries.
+     */
+    public boolean uploadEntries(final List<Entry> entries) {
+        if (null == entries) { throw new IllegalArgumentException("list of entries cannot be null"); }
+        return upload(entriesPostUri, JsonBodyPublisher.ofEntries(entries));
+    }
+
+    public boolean uploadTreatments(final List<Treatment> treatments) {
+        if (null == treatments) { throw new IllegalArgumentException("list of treatments cannot be null"); }
+        return upload(treatmentsPostUri, JsonBodyPublisher.ofTreatments(treatments));
+    }
+
+
+    // ******************** Async methods *************************************
+    public CompletableFuture<Entry> getCurrentEntryAsync() {
+        return getConditionalAsync(currentUri.toString(), currentUri, NightscoutClient::parseEntries).thenApply(entries -> entries.isEmpty() ? null : entries.get(0));
+    }
+
+    public CompletableFuture<List<Entry>> getLastNEntriesAsync(final int noOfEntries) throws IllegalArgumentException {
+        final URI uri = createLastNEntriesUri(noOfEntries);
+        return getConditionalAsync(uri.toString(), uri, NightscoutClient::parseEntries);
+    }
+
+    public CompletableFuture<List<Entry>> getEntriesFromToAsync(final ZonedDateTime from, final ZonedDateTime to) throws IllegalArgumentException {
+        return getEntriesAsync(createFromToUri(from, to));
+    }
+
+    public CompletableFuture<List<Entry>> getEntriesFromIntervalAsync(final TimeInterval interval) {
+        return getConditionalAsync(getIntervalKey(entriesUrl, interval), createIntervalUri(entriesUrl, interval), NightscoutClient::parseEntries);
+    }
+
+    public CompletableFuture<List<Entry>> getEntriesSinceAsync(final long datelong, final int maxNoOfEntries) throws IllegalArgumentException {
+        return getEntriesAsync(createSinceUri(datelong, maxNoOfEntries));
+    }
+
+    public CompletableFuture<GlucoseSeries> getGlucoseSeriesFromIntervalAsync(final TimeInterval interval) {
+        final URI uri = createIntervalUri(entriesUrl, interval);
+        return sendAsync(uri, BodyHandlers.ofByteArray()).thenApplyAsync(r -> {
+            try {
+                return (null == r.body() || r.body().length == 0) ? new GlucoseSeries(0) : parseGlucoseSeries(uri, Compression.getBody(r));
+            } catch (AccessDeniedException e) {
+                throw new RuntimeException(e);
+            }
+        }, Connector.getComputeExecutor());
+    }
+
+    public CompletableFuture<List<Treatment>> getTreatmentsFromIntervalAsync(final TimeInterval interval) {
+        return getConditionalAsync(getIntervalKey(treatmentsUrl, interval), createIntervalUri(treatmentsUrl, interval), NightscoutClient::parseTreatments);
+    }
+
+    // Several uploads can be in flight at the same time, they share the connection of the http client (HTTP/2 streams)
+    public CompletableFuture<Boolean> uploadEntriesAsync(final List<Entry> entries) {
+        if (null == entries) { throw new IllegalArgumentException("list of entries cannot be null"); }
+        return uploadAsync(entriesPostUri, JsonBodyPublisher.ofEntries(entries));
+    }
+
+    public CompletableFuture<Boolean> uploadTreatmentsAsync(final List<Treatment> treatments) {
+        if (null == treatments) { throw new IllegalArgumentException("list of treatments cannot be null"); }
+        return uploadAsync(treatmentsPostUri, JsonBodyPublisher.ofTreatments(treatments));
+    }
+
+
+    // ******************** Internal methods **********************************
+    // Fetches all entries in the range [fromMillis, toMillis], throws a RuntimeException if the site could not be reached
+    List<Entry> getEntriesBetween(final long fromMillis, final long toMillis) {
+        final URI                       uri      = createRangeUri(entriesUrl, fromMillis, toMillis);
+        final HttpResponse<InputStream> response = send(uri, Compression.ofInputStream(uri));
+        if (null == response) { throw new RuntimeException("Error accessing " + nightscoutUrl); }
+        try {
+            return parseEntries(uri, response.body());
+        } catch (AccessDeniedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    CompletableFuture<List<Entry>> getEntriesBetweenAsync(final long fromMillis, final long toMillis) {
+        return getEntriesAsync(createRangeUri(entriesUrl, fromMillis, toMillis));
+    }
+
+    List<Treatment> getTreatmentsBetween(final long fromMillis, final long toMillis) {
+        final URI                       uri      = createRangeUri(treatmentsUrl, fromMillis, toMillis);
+        final HttpResponse<InputStream> response = send(uri, Compression.ofInputStream(uri));
+        if (null == response) { throw new RuntimeException("Error accessing " + nightscoutUrl); }
+        try {
+            return parseTreatments(uri, response.body());
+        } catch (AccessDeniedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private List<Entry> getEntries(final URI uri) {
+        final HttpResponse<InputStream> response = send(uri, Compression.ofInputStream(uri));
+        try {
+            return null == response ? new ArrayList<>() : parseEntries(uri, response.body());
+        } catch (AccessDeniedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // The body is received as it is (compressed or not) and will be decompressed while parsing on the compute executor
+    private CompletableFuture<List<Entry>> getEntriesAsync(final URI uri) {
+        return sendAsync(uri, BodyHandlers.ofByteArray()).thenApplyAsync(r -> {
+            try {
+                return (null == r.body() || r.body().length == 0) ? new ArrayList<>() : parseEntries(uri, Compression.getBody(r));
+            } catch (AccessDeniedException e) {
+                throw new RuntimeException(e);
+            }
+        }, Connector.getComputeExecutor());
+    }
+
+    // Sends the request with the validators of the last response with the same key and returns
+    // a copy of its records without parsing if the server answers with 304 Not Modified
+    private <T> List<T> getConditional(final String key, final URI uri, final Parser<T> parser) throws AccessDeniedException {
+        final ValidatorCache            cache     = Connector.getValidatorCache();
+        final ValidatorCache.Validated  validated = cache.get(key);
+        final HttpResponse<InputStream> response  = send(createRequest(uri, validated), Compression.ofInputStream(uri));
+        if (null == response) { return null; }
+        if (NOT_MODIFIED == response.statusCode()) {
+            closeQuietly(response.body());
+            return null == validated ? new ArrayList<>() : validated.copyOfRecords();
+        }
+        final List<T> records = parser.parse(uri, response.body());
+        if (200 == response.statusCode()) { cache.put(key, uri, response.headers(), records); }
+        return records;
+    }
+
+    private <T> List<T> getConditionalOrEmpty(final String key, final URI uri, final Parser<T> parser) {
+        try {
+            final List<T> records = getConditional(key, uri, parser);
+            return null == records ? new ArrayList<>() : records;
+        } catch (AccessDeniedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private <T> CompletableFuture<List<T>> getConditionalAsync(final String key, final URI uri, final Parser<T> parser) {
+        final ValidatorCache           cache     = Connector.getValidatorCache();
+        final ValidatorCache.Validated validated = cache.get(key);
+        return sendAsync(createRequest(uri, validated), BodyHandlers.ofByteArray()).thenApplyAsync(r -> {
+            if (NOT_MODIFIED == r.statusCode()) { return null == validated ? new ArrayList<T>() : validated.<T>copyOfRecords(); }
+            if (null == r.body() || r.body().length == 0) { return new ArrayList<T>(); }
+            try {
+                final List<T> records = parser.parse(uri, Compression.getBody(r));
+                if (200 == r.statusCode()) { cache.put(key, uri, r.headers(), records); }
+                return records;
+            } catch (AccessDeniedException e) {
+                throw new RuntimeException(e);
+            }
+        }, Connector.getComputeExecutor());
+    }
+
+    // The uri of interval requests changes with every request, so they are identified by the interval
+    private String getIntervalKey(final String baseUrl, final TimeInterval interval) {
+        if (null == interval) { throw new IllegalArgumentException("interval cannot be null"); }
+        return new StringBuilder(baseUrl).append("interval=").append(interval.getSeconds()).append('/').append(interval.getNoOfEntries()).append(tokenParameter).toString();
+    }
+
+    URI createLastNEntriesUri(final int noOfEntries) {
+        if (noOfEntries < 1) { throw new IllegalArgumentException("no of entries must at least be 1"); }
+        return URI.create(new StringBuilder(entriesUrl.length() + 32).append(entriesUrl).append("count=").append(noOfEntries).append(tokenParameter).toString());
+    }
+
+    URI createFromToUri(final ZonedDateTime from, final ZonedDateTime to) {
+        final long fromSeconds = from.toEpochSecond();
+        final long toSeconds   = to.toEpochSecond();
+        if (fromSeconds >= toSeconds) { throw new IllegalArgumentException("from must be before to parameter"); }
+        if (toSeconds - fromSeconds < 3600) { throw new IllegalArgumentException("The duration defined by from and to must be at least 1 hour"); }
+        return createRangeUri(entriesUrl, fromSeconds * 1000, toSeconds * 1000, (int) ((toSeconds - fromSeconds) / 300));
+    }
+
+    URI createIntervalUri(final String baseUrl, final TimeInterval interval) {
+        if (null == interval) { throw new IllegalArgumentException("interval cannot be null"); }
+        final long now = Instant.now().getEpochSecond();
+        return createRangeUri(baseUrl, (now - interval.getSeconds()) * 1000, now * 1000, interval.getNoOfEntries());
+    }
+
+    // Requests up to one record per minute to also cover sensors with a higher frequency than 5 minutes
+    private URI createRangeUri(final String baseUrl, final long fromMillis, final long toMillis) {
+        if (fromMillis > toMillis) { throw new IllegalArgumentException("from must be before to parameter"); }
+        return createRangeUri(baseUrl, fromMillis, toMillis, (toMillis - fromMillis) / 60_000 + 1);
+    }
+    private URI createRangeUri(final String baseUrl, final long fromMillis, final long toMillis, final long noOfEntries) {
+        return URI.create(new StringBuilder(baseUrl.length() + 96).append(baseUrl).append("find[date][$gte]=").append(fromMillis).append("&find[date][$lte]=").append(toMillis).append("&count=").append(noOfEntries).append(tokenParameter).toString());
+    }
+
+    // datelong only has second precision, so skip the remaining milliseconds of that second
+    private URI createSinceUri(final long datelong, final int maxNoOfEntries) {
+        if (maxNoOfEntries < 1) { throw new IllegalArgumentException("max no of entries must at least be 1"); }
+        return URI.create(new StringBuilder(entriesUrl.length() + 64).append(entriesUrl).append("find[date][$gt]=").append(datelong * 1000 + 999).append("&count=").append(maxNoOfEntries).append(tokenParameter).toString());
+    }
+
+    private HttpRequest createRequest(final URI uri) { return createRequest(uri, null); }
+    private HttpRequest createRequest(final URI uri, final ValidatorCache.Validated validated) {
+        final HttpRequest.Builder builder = HttpRequest.newBuilder()
+                                                       .GET()
+                                                       .uri(uri)
+                                                       .setHeader("Accept", "application/json")
+                                                       .setHeader("Accept-Encoding", Compression.ACCEPT_ENCODING)
+                                                       .setHeader("User-Agent", "NightscoutConnector")
+                                                       .setHeader("API_SECRET", apiSecretHash)
+                                                       .timeout(requestTimeout);
+        if (null != validated) {
+            if (null != validated.etag()) { builder.setHeader("If-None-Match", validated.etag()); }
+            // The last modified date only applies to exactly the same uri, the range of interval requests moves with every request
+            if (null != validated.lastModified() && uri.equals(validated.uri())) { builder.setHeader("If-Modified-Since", validated.lastModified()); }
+        }
+        return builder.build();
+    }
+
+    private HttpRequest createPostRequest(final URI uri, final JsonBodyPublisher<?> body) {
+        return HttpRequest.newBuilder()
+                          .POST(body)
+                          .uri(uri)
+                          .setHeader("Content-Type", "application/json")
+                          .setHeader("Accept", "application/json")
+                          .setHeader("User-Agent", "NightscoutConnector")
+                          .setHeader("API_SECRET", apiSecretHash)
+                          .timeout(requestTimeout)
+                          .build();
+    }
+
+    private boolean upload(final URI uri, final JsonBodyPublisher<?> body) {
+        if (0 == body.size()) { return true; }
+        return isAccepted(send(createPostRequest(uri, body), BodyHandlers.discarding()));
+    }
+
+    private CompletableFuture<Boolean> uploadAsync(final URI uri, final JsonBodyPublisher<?> body) {
+        if (0 == body.size()) { return CompletableFuture.completedFuture(true); }
+        return sendAsync(createPostRequest(uri, body), BodyHandlers.discarding()).handle((response, throwable) -> null == throwable && isAccepted(response));
+    }
+
+    private static boolean isAccepted(final HttpResponse<?> response) { return null != response && response.statusCode() >= 200 && response.statusCode() < 300; }
+
+    private <T> HttpResponse<T> send(final URI uri, final BodyHandler<T> bodyHandler) { return send(createRequest(uri), bodyHandler); }
+    private <T> HttpResponse<T> send(final HttpRequest request, final BodyHandler<T> bodyHandler) {
+        final HttpClient client = null == httpClient ? Connector.getHttpClient() : httpClient;
+        if (null == limiter) { return Connector.send(client, request, bodyHandler, getResiliencePolicy()); }
+        try {
+            limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        try {
+            return Connector.send(client, request, bodyHandler, getResiliencePolicy());
+        } finally {
+            limiter.release();
+        }
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> sendAsync(final URI uri, final BodyHandler<T> bodyHandler) { return sendAsync(createRequest(uri), bodyHandler); }
+    private <T> CompletableFuture<HttpResponse<T>> sendAsync(final HttpRequest request, final BodyHandler<T> bodyHandler) {
+        final HttpClient                                   client = null == httpClient ? Connector.getHttpClient() : httpClient;
+        final Supplier<CompletableFuture<HttpResponse<T>>> task   = () -> Connector.sendAsync(client, request, bodyHandler, getResiliencePolicy());
+        return null == limiter ? task.get() : limiter.submit(task);
+    }
+
+    // The parse time of the sync methods includes reading the response body from the stream
+    private static List<Entry> parseEntries(final URI uri, final InputStream inputStream) throws AccessDeniedException {
+        final Metrics metrics = Connector.getMetrics();
+        if (Metrics.NONE == metrics) { return Connector.getEntriesFromInputStream(inputStream); }
+        final String endpoint = Metrics.getEndpoint(uri);
+        final long   start    = System.nanoTime();
+        try {
+            final List<Entry> entries = Connector.getEntriesFromInputStream(inputStream);
+            metrics.recordParse(endpoint, entries.size(), System.nanoTime() - start);
+            return entries;
+        } catch (AccessDeniedException e) {
+            metrics.recordAccessDenied(endpoint);
+            throw e;
+        }
+    }
+
+    private static GlucoseSeries parseGlucoseSeries(final URI uri, final InputStream inputStream) throws AccessDeniedException {
+        final Metrics metrics = Connector.getMetrics();
+        if (Metrics.NONE == metrics) { return Connector.getGlucoseSeriesFromInputStream(inputStream); }
+        final String endpoint = Metrics.getEndpoint(uri);
+        final long   start    = System.nanoTime();
+        try {
+            final GlucoseSeries series = Connector.getGlucoseSeriesFromInputStream(inputStream);
+            metrics.recordParse(endpoint, series.size(), System.nanoTime() - start);
+            return series;
+        } catch (AccessDeniedException e) {
+            metrics.recordAccessDenied(endpoint);
+            throw e;
+        }
+    }
+
+    private static List<Treatment> parseTreatments(final URI uri, final InputStream inputStream) throws AccessDeniedException {
+        final Metrics metrics = Connector.getMetrics();
+        if (Metrics.NONE == metrics) { return Connector.getTreatmentsFromInputStream(inputStream); }
+        final String endpoint = Metrics.getEndpoint(uri);
+        final long   start    = System.nanoTime();
+        try {
+            final List<Treatment> treatments = Connector.getTreatmentsFromInputStream(inputStream);
+            metrics.recordParse(endpoint, treatments.size(), System.nanoTime() - start);
+            return treatments;
+        } catch (AccessDeniedException e) {
+            metrics.recordAccessDenied(endpoint);
+            throw e;
+        }
+    }
+
+    // Nightscout expects the SHA-1 hash of the API_SECRET, secrets that are already hashed will be used as they are
+    private static String hashApiSecret(final String apiSecret) {
+        if (null == apiSecret || apiSecret.isEmpty()) { return ""; }
+        if (apiSecret.length() == 40 && apiSecret.chars().allMatch(c -> Character.digit(c, 16) >= 0)) { return apiSecret.toLowerCase(Locale.ROOT); }
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return HexFormat.of().formatHex(digest.digest(apiSecret.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void closeQuietly(final InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException e) { /* nothing to do */ }
+    }
+
+    @Override public String toString() { return nightscoutUrl; }
+
+
+    // ******************** Inner Classes *************************************
+    @FunctionalInterface private interface Parser<T> {
+        List<T> parse(URI uri, InputStream inputStream) throws AccessDeniedException;
+    }
+
+    public static class Builder {
+        private final String           nightscoutUrl;
+        private       String           apiSecret;
+        private       String           nightscoutToken;
+        private       Duration         connectTimeout;
+        private       Duration         requestTimeout;
+        private       int              maxConcurrentRequests;
+        private       HttpClient       httpClient;
+        private       ResiliencePolicy resiliencePolicy;
+
+
+        // ******************** Constructors **********************************
+        private Builder(final String nightscoutUrl) {
+            if (null == nightscoutUrl || nightscoutUrl.isEmpty()) { throw new IllegalArgumentException("nightscoutUrl cannot be null"); }
+            this.nightscoutUrl         = nightscoutUrl;
+            this.apiSecret             = "";
+            this.nightscoutToken       = "";
+            this.connectTimeout        = DEFAULT_CONNECT_TIMEOUT;
+            this.requestTimeout        = DEFAULT_REQUEST_TIMEOUT;
+            this.maxConcurrentRequests = Integer.MAX_VALUE;
+            this.httpClient            = null;
+            this.resiliencePolicy      = null;
+        }
+
+
+        // ******************** Methods ***************************************
+        public Builder apiSecret(final String apiSecret) {
+            this.apiSecret = apiSecret;
+            return this;
+        }
+
+        public Builder nightscoutToken(final String nightscoutToken) {
+            this.nightscoutToken = nightscoutToken;
+            return this;
+        }
+
+        public Builder connectTimeout(final Duration connectTimeout) {
+            if (null == connectTimeout || connectTimeout.isNegative() || connectTimeout.isZero()) { throw new IllegalArgumentException("connectTimeout must be positive"); }
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        public Builder requestTimeout(final Duration requestTimeout) {
+            if (null == requestTimeout || requestTimeout.isNegative() || requestTimeout.isZero()) { throw new IllegalArgumentException("requestTimeout must be positive"); }
+            this.requestTimeout = requestTimeout;
+            return this;
+        }
+
+        public Builder maxConcurrentRequests(final int maxConcurrentRequests) {
+            if (maxConcurrentRequests < 1) { throw new IllegalArgumentException("maxConcurrentRequests must at least be 1"); }
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        // Use the given http client instead of the shared one, e.g. to share it between some clients with a custom connect timeout
+        public Builder httpClient(final HttpClient httpClient) {
+            this.httpClient = httpClient;
+            return this;
+        }
+
+        // Use the given policy instead of the one of the Connector, e.g. ResiliencePolicy.NONE to not retry requests of this site
+        public Builder resiliencePolicy(final ResiliencePolicy resiliencePolicy) {
+            this.resiliencePolicy = resiliencePolicy;
+            return this;
+        }
+
+        public NightscoutClient build() { return new NightscoutClient(this); }
+    }
+}
@@ -0,0 +1,14 @@
+package eu.hansolo.nightscoutconnector;
+
+
+/**
+ * Estimates the sgv at a given time after the newest reading.
+ * The Predictor passes the newest readings ordered newest first, the arrays might be longer than count.
+ * Implementations must not keep references to the arrays, they are reused for every prediction.
+ */
+public interface PredictionModel {
+    // Number of newest readings the model needs
+    int getNoOfReadings();
+
+    double estimate(long[] datelongs, double[] sgvs, int count, long horizonSeconds);
+}
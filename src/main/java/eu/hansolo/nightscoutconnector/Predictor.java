@@ -0,0 +1,232 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.time.Duration;
+import java.util.List;
+
+
+/**
+ * Predicts the glucose level with a pluggable PredictionModel.
+ * The newest readings are selected in a single pass over the list or series (no sorting, no boxing)
+ * and stored in primitive arrays that are reused for every prediction.
+ * Instances are not thread safe, use one Predictor per thread.
+ */
+public class Predictor {
+    public  static final Duration               DEFAULT_HORIZON       = Duration.ofMinutes(15);
+    // Average of the second differences of the last 5 readings, same heuristic as Connector.predict() but based on the newest reading
+    public  static final PredictionModel        SECOND_DIFFERENCE     = new SecondDifference();
+    // Least squares line through the readings of the last 30 minutes
+    public  static final PredictionModel        LINEAR_REGRESSION     = linearRegression(6);
+    // Holt's double exponential smoothing of the readings of the last hour
+    public  static final PredictionModel        EXPONENTIAL_SMOOTHING = exponentialSmoothing(0.5, 0.3, 12);
+    private static final long                   READING_INTERVAL      = 300;
+    // Reused by Connector.predict(), so the static predictions don't allocate once a thread has its Predictor
+    private static final ThreadLocal<Predictor> FROM_OLDEST           = ThreadLocal.withInitial(Predictor::new);
+    private final        PredictionModel        model;
+    private final        long                   horizonSeconds;
+    private final        long[]                 datelongs;
+    private final        double[]               sgvs;
+
+
+    // ******************** Constructors **************************************
+    public Predictor() {
+        this(SECOND_DIFFERENCE, DEFAULT_HORIZON);
+    }
+    public Predictor(final PredictionModel model, final Duration horizon) {
+        if (null == model) { throw new IllegalArgumentException("model cannot be null"); }
+        if (model.getNoOfReadings() < 1) { throw new IllegalArgumentException("model must at least use 1 reading"); }
+        if (null == horizon || horizon.isNegative()) { throw new IllegalArgumentException("horizon cannot be null or negative"); }
+        this.model          = model;
+        this.horizonSeconds = horizon.getSeconds();
+        this.datelongs      = new long[model.getNoOfReadings()];
+        this.sgvs           = new double[model.getNoOfReadings()];
+    }
+
+
+    // ******************** Methods *******************************************
+    public static PredictionModel linearRegression(final int noOfReadings) {
+        if (noOfReadings < 2) { throw new IllegalArgumentException("linear regression needs at least 2 readings"); }
+        return new LinearRegression(noOfReadings);
+    }
+
+    public static PredictionModel exponentialSmoothing(final double alpha, final double beta, final int noOfReadings) {
+        if (alpha <= 0 || alpha > 1 || beta <= 0 || beta > 1) { throw new IllegalArgumentException("alpha and beta must be in the range (0, 1]"); }
+        if (noOfReadings < 2) { throw new IllegalArgumentException("exponential smoothing needs at least 2 readings"); }
+        return new ExponentialSmoothing(alpha, beta, noOfReadings);
+    }
+
+    public PredictionModel getModel() { return model; }
+
+    public Duration getHorizon() { return Duration.ofSeconds(horizonSeconds); }
+
+    public Prediction predict(final List<Entry> entries) { return Connector.getPrediction(estimate(entries)); }
+    public Prediction predict(final GlucoseSeries series) { return Connector.getPrediction(estimate(series)); }
+    /**
+     * Predicts from the given readings that must be ordered newest first, e.g. the content of a ring buffer.
+     */
+    public Prediction predict(final long[] datelongs, final double[] sgvs, final int count) { return Connector.getPrediction(estimate(datelongs, sgvs, count)); }
+
+    public double estimate(final List<Entry> entries) { return model.estimate(datelongs, sgvs, selectNewest(entries), horizonSeconds); }
+
+    public double estimate(final GlucoseSeries series) { return model.estimate(datelongs, sgvs, selectNewest(series), horizonSeconds); }
+
+    public double estimate(final long[] datelongs, final double[] sgvs, final int count) {
+        if (null == datelongs || null == sgvs) { throw new IllegalArgumentException("datelongs and sgvs cannot be null"); }
+        if (count > datelongs.length || count > sgvs.length) { throw new IllegalArgumentException("count exceeds the length of the arrays"); }
+        checkSize(count);
+        return model.estimate(datelongs, sgvs, model.getNoOfReadings(), horizonSeconds);
+    }
+
+    // Heuristic of Connector.predict(): the average second difference of the 5 newest readings over 15 minutes added to the sgv of the oldest reading
+    static Prediction predictFromOldest(final List<Entry> entries) {
+        final Predictor predictor = FROM_OLDEST.get();
+        predictor.selectNewest(entries);
+        int oldestIndex = 0;
+        for (int i = 0, size = entries.size() ; i < size ; i++) {
+            if (entries.get(i).datelong() <= entries.get(oldestIndex).datelong()) { oldestIndex = i; }
+        }
+        return Connector.getPrediction(entries.get(oldestIndex).sgv() + averageSecondDifference(predictor.sgvs) * 3);
+    }
+    static Prediction predictFromOldest(final GlucoseSeries series) {
+        final Predictor predictor = FROM_OLDEST.get();
+        predictor.selectNewest(series);
+        int oldestIndex = 0;
+        for (int i = 0 ; i < series.size() ; i++) {
+            if (series.getDatelong(i) <= series.getDatelong(oldestIndex)) { oldestIndex = i; }
+        }
+        return Connector.getPrediction(series.getSgv(oldestIndex) + averageSecondDifference(predictor.sgvs) * 3);
+    }
+
+    // Stores the newest readings of the model newest first in datelongs and sgvs and returns their number
+    private int selectNewest(final List<Entry> entries) {
+        if (null == entries) { throw new IllegalArgumentException("list of entries cannot be null"); }
+        final int n = checkSize(entries.size());
+        int filled = 0;
+        for (int i = 0, size = entries.size() ; i < size ; i++) {
+            final Entry entry = entries.get(i);
+            final int   pos   = insertPosition(entry.datelong(), filled);
+            if (pos < n) {
+                insert(pos, filled, entry.datelong(), entry.sgv());
+                if (filled < n) { filled++; }
+            }
+        }
+        return n;
+    }
+    private int selectNewest(final GlucoseSeries series) {
+        if (null == series) { throw new IllegalArgumentException("series cannot be null"); }
+        final int n = checkSize(series.size());
+        int filled = 0;
+        for (int i = 0, size = series.size() ; i < size ; i++) {
+            final long datelong = series.getDatelong(i);
+            final int  pos      = insertPosition(datelong, filled);
+            if (pos < n) {
+                insert(pos, filled, datelong, series.getSgv(i));
+                if (filled < n) { filled++; }
+            }
+        }
+        return n;
+    }
+
+    // Average of the second differences of the 5 readings, ordered newest first
+    private static double averageSecondDifference(final double[] sgvs) {
+        double sum = 0;
+        for (int i = 1 ; i < 4 ; i++) {
+            final double delta     = sgvs[i] - sgvs[i - 1];
+            final double nextDelta = sgvs[i + 1] - sgvs[i];
+            sum += nextDelta - delta;
+        }
+        return sum / 3;
+    }
+
+    private int checkSize(final int size) {
+        final int n = model.getNoOfReadings();
+        if (size < n) { throw new IllegalArgumentException("model needs at least " + n + " readings"); }
+        return n;
+    }
+
+    // Newest first, readings with the same datelong keep their order
+    private int insertPosition(final long datelong, final int filled) {
+        int pos = filled;
+        while (pos > 0 && datelongs[pos - 1] < datelong) { pos--; }
+        return pos;
+    }
+
+    private void insert(final int pos, final int filled, final long datelong, final double sgv) {
+        final int moved = Math.min(filled, datelongs.length - 1) - pos;
+        if (moved > 0) {
+            System.arraycopy(datelongs, pos, datelongs, pos + 1, moved);
+            System.arraycopy(sgvs, pos, sgvs, pos + 1, moved);
+        }
+        datelongs[pos] = datelong;
+        sgvs[pos]      = sgv;
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private static final class SecondDifference implements PredictionModel {
+        @Override public int getNoOfReadings() { return 5; }
+
+        @Override public double estimate(final long[] datelongs, final double[] sgvs, final int count, final long horizonSeconds) {
+            return sgvs[0] + averageSecondDifference(sgvs) * horizonSeconds / READING_INTERVAL;
+        }
+    }
+
+    private static final class LinearRegression implements PredictionModel {
+        private final int noOfReadings;
+
+
+        LinearRegression(final int noOfReadings) { this.noOfReadings = noOfReadings; }
+
+
+        @Override public int getNoOfReadings() { return noOfReadings; }
+
+        // Times are relative to the newest reading, so the intercept is the fitted value of the newest reading
+        @Override public double estimate(final long[] datelongs, final double[] sgvs, final int count, final long horizonSeconds) {
+            double sumX  = 0;
+            double sumY  = 0;
+            double sumXX = 0;
+            double sumXY = 0;
+            for (int i = 0 ; i < count ; i++) {
+                final double x = datelongs[i] - datelongs[0];
+                sumX  += x;
+                sumY  += sgvs[i];
+                sumXX += x * x;
+                sumXY += x * sgvs[i];
+            }
+            final double denominator = count * sumXX - sumX * sumX;
+            if (0 == denominator) { return sumY / count; }
+            final double slope     = (count * sumXY - sumX * sumY) / denominator;
+            final double intercept = (sumY - slope * sumX) / count;
+            return intercept + slope * horizonSeconds;
+        }
+    }
+
+    private static final class ExponentialSmoothing implements PredictionModel {
+        private final double alpha;
+        private final double beta;
+        private final int    noOfReadings;
+
+
+        ExponentialSmoothing(final double alpha, final double beta, final int noOfReadings) {
+            this.alpha        = alpha;
+            this.beta         = beta;
+            this.noOfReadings = noOfReadings;
+        }
+
+
+        @Override public int getNoOfReadings() { return noOfReadings; }
+
+        // The trend is smoothed per second, so gaps between the readings are taken into account
+        @Override public double estimate(final long[] datelongs, final double[] sgvs, final int count, final long horizonSeconds) {
+            double level = sgvs[count - 1];
+            double trend = 0;
+            for (int i = count - 2 ; i >= 0 ; i--) {
+                final long dt = datelongs[i] - datelongs[i + 1];
+                if (dt <= 0) { continue; }
+                final double lastLevel = level;
+                level = alpha * sgvs[i] + (1 - alpha) * (level + trend * dt);
+                trend = beta * (level - lastLevel) / dt + (1 - beta) * trend;
+            }
+            return level + trend * horizonSeconds;
+        }
+    }
+}
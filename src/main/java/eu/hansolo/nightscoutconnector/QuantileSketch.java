@@ -0,0 +1,136 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.util.Arrays;
+
+
+/**
+ * Mergeable quantile sketch with relative accuracy (DDSketch, https://arxiv.org/abs/1908.10693).
+ * Values are counted in logarithmic bins, each bin covers the values (gamma^(i-1), gamma^i] with
+ * gamma = (1 + accuracy) / (1 - accuracy), so every quantile is within the relative accuracy of the exact value.
+ * The memory only depends on the range of the values, e.g. glucose values from 20 to 600 mg/dl need
+ * less than 200 bins for 1% accuracy, no matter how many values have been added.
+ * Sketches with the same accuracy can be merged, e.g. the sketches of several days or several patients.
+ * Instances are not thread safe.
+ */
+public class QuantileSketch {
+    public  static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+    private static final int    GROWTH                    = 16;
+    private final        double relativeAccuracy;
+    private final        double gamma;
+    private final        double logGamma;
+    private              long[] counts;
+    private              int    offset;
+    private              long   zeroCount;
+    private              long   count;
+    private              double min;
+    private              double max;
+
+
+    // ******************** Constructors **************************************
+    public QuantileSketch() {
+        this(DEFAULT_RELATIVE_ACCURACY);
+    }
+    public QuantileSketch(final double relativeAccuracy) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) { throw new IllegalArgumentException("relativeAccuracy must be in the range (0, 1)"); }
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma            = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma         = Math.log(gamma);
+        this.counts           = new long[0];
+        this.offset           = 0;
+        clear();
+    }
+
+
+    // ******************** Methods *******************************************
+    public void add(final double value) { add(value, 1); }
+    public void add(final double value, final long n) {
+        if (Double.isNaN(value) || Double.isInfinite(value) || value < 0) { throw new IllegalArgumentException("value must be a finite number >= 0"); }
+        if (n < 0) { throw new IllegalArgumentException("n cannot be negative"); }
+        if (0 == n) { return; }
+        if (0 == value) {
+            zeroCount += n;
+        } else {
+            final int index = index(value);
+            ensureCapacity(index, index);
+            counts[index - offset] += n;
+        }
+        count += n;
+        if (value < min) { min = value; }
+        if (value > max) { max = value; }
+    }
+
+    /**
+     * Adds the values of the given sketch to this sketch, both sketches must have the same relative accuracy.
+     */
+    public void merge(final QuantileSketch other) {
+        if (null == other) { throw new IllegalArgumentException("sketch cannot be null"); }
+        if (Double.compare(relativeAccuracy, other.relativeAccuracy) != 0) { throw new IllegalArgumentException("sketches must have the same relative accuracy"); }
+        if (other.isEmpty()) { return; }
+        if (other.counts.length > 0) {
+            ensureCapacity(other.offset, other.offset + other.counts.length - 1);
+            for (int i = 0 ; i < other.counts.length ; i++) { counts[other.offset + i - offset] += other.counts[i]; }
+        }
+        zeroCount += other.zeroCount;
+        count     += other.count;
+        min        = Math.min(min, other.min);
+        max        = Math.max(max, other.max);
+    }
+
+    public void clear() {
+        Arrays.fill(counts, 0);
+        zeroCount = 0;
+        count     = 0;
+        min       = Double.POSITIVE_INFINITY;
+        max       = Double.NEGATIVE_INFINITY;
+    }
+
+    public double getRelativeAccuracy() { return relativeAccuracy; }
+
+    public long getCount() { return count; }
+
+    public boolean isEmpty() { return 0 == count; }
+
+    public double getMin() { return isEmpty() ? Double.NaN : min; }
+
+    public double getMax() { return isEmpty() ? Double.NaN : max; }
+
+    /**
+     * Returns the value at the given quantile (0.0 - 1.0), e.g. 0.5 for the median, or NaN if the sketch is empty.
+     */
+    public double getQuantile(final double quantile) {
+        if (quantile < 0 || quantile > 1) { throw new IllegalArgumentException("quantile must be in the range [0, 1]"); }
+        if (isEmpty()) { return Double.NaN; }
+        if (0 == quantile) { return min; }
+        if (1 == quantile) { return max; }
+        final double rank = quantile * (count - 1);
+        long         seen = zeroCount;
+        if (seen > rank) { return 0; }
+        for (int i = 0 ; i < counts.length ; i++) {
+            seen += counts[i];
+            if (seen > rank) {
+                // Center of the bin (relative to the accuracy), the min and max are exact
+                final double value = 2 * Math.pow(gamma, offset + i) / (gamma + 1);
+                return Math.max(min, Math.min(max, value));
+            }
+        }
+        return max;
+    }
+
+    private int index(final double value) { return (int) Math.ceil(Math.log(value) / logGamma); }
+
+    private void ensureCapacity(final int minIndex, final int maxIndex) {
+        if (0 == counts.length) {
+            counts = new long[maxIndex - minIndex + 1 + GROWTH];
+            offset = minIndex - GROWTH / 2;
+            return;
+        }
+        if (minIndex >= offset && maxIndex < offset + counts.length) { return; }
+        final int    end       = offset + counts.length;
+        final int    newOffset = minIndex < offset ? minIndex - GROWTH : offset;
+        final int    newEnd    = maxIndex >= end   ? maxIndex + 1 + GROWTH : end;
+        final long[] newCounts = new long[newEnd - newOffset];
+        System.arraycopy(counts, 0, newCounts, offset - newOffset, counts.length);
+        counts = newCounts;
+        offset = newOffset;
+    }
+}
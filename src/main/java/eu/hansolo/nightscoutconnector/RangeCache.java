@@ -0,0 +1,271 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+
+/**
+ * Cache for entries and treatments that remembers which time ranges have already been fetched
+ * per (nightscoutUrl, nightscoutToken, data type). Fully covered requests will be answered from
+ * memory, partially covered requests only fetch the missing edges.
+ * The least recently used site will be evicted if the configured item or byte budget is exceeded.
+ * Like Nightscout itself the cache returns the newest records first.
+ */
+public class RangeCache {
+    public enum DataType { ENTRIES, TREATMENTS }
+
+    // Recent data might still be uploaded later, so the last minutes will never be marked as covered
+    private static final long                 UNSETTLED_MILLIS = 600_000;
+    private static final long                 ITEM_BASE_SIZE   = 160;
+    private final        long                 maxItems;
+    private final        long                 maxBytes;
+    private final        Map<Key, Segment<?>> segments;
+    private final        LongAdder            hits;
+    private final        LongAdder            partialHits;
+    private final        LongAdder            misses;
+    private              long                 itemCount;
+    private              long                 byteSize;
+
+
+    // ******************** Constructors **************************************
+    private RangeCache(final long maxItems, final long maxBytes) {
+        this.maxItems    = maxItems;
+        this.maxBytes    = maxBytes;
+        this.segments    = new LinkedHashMap<>(16, 0.75f, true);
+        this.hits        = new LongAdder();
+        this.partialHits = new LongAdder();
+        this.misses      = new LongAdder();
+        this.itemCount   = 0;
+        this.byteSize    = 0;
+    }
+
+
+    // ******************** Methods *******************************************
+    public static RangeCache withMaxItems(final long maxItems) {
+        if (maxItems < 1) { throw new IllegalArgumentException("maxItems must at least be 1"); }
+        return new RangeCache(maxItems, Long.MAX_VALUE);
+    }
+
+    public static RangeCache withMaxBytes(final long maxBytes) {
+        if (maxBytes < 1) { throw new IllegalArgumentException("maxBytes must at least be 1"); }
+        return new RangeCache(Long.MAX_VALUE, maxBytes);
+    }
+
+    public List<Entry> getEntriesFromTo(final ZonedDateTime from, final ZonedDateTime to, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) {
+        if (null == from || null == to) { throw new IllegalArgumentException("from and to cannot be null"); }
+        return getEntries(from.toEpochSecond() * 1000, to.toEpochSecond() * 1000, nightscoutUrl, apiSecret, nightscoutToken);
+    }
+
+    public List<Entry> getEntriesFromInterval(final TimeInterval interval, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) {
+        final long now = Instant.now().getEpochSecond();
+        return getEntries((now - interval.getSeconds()) * 1000, now * 1000, nightscoutUrl, apiSecret, nightscoutToken);
+    }
+
+    public List<Entry> getEntries(final long fromMillis, final long toMillis, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) {
+        return getEntries(fromMillis, toMillis, nightscoutUrl, nightscoutToken, (f, t) -> Connector.getEntriesBetween(f, t, nightscoutUrl, apiSecret, nightscoutToken));
+    }
+    // The entries only have a datelong in seconds, so the range will be widened to whole seconds to not drop entries within the first second
+    List<Entry> getEntries(final long fromMillis, final long toMillis, final String nightscoutUrl, final String nightscoutToken, final RangeFetcher<Entry> fetcher) {
+        if (fromMillis > toMillis) { throw new IllegalArgumentException("from must be before to parameter"); }
+        return get(new Key(nightscoutUrl, nightscoutToken, DataType.ENTRIES), Math.floorDiv(fromMillis, 1000) * 1000, Math.floorDiv(toMillis, 1000) * 1000 + 999,
+                   fetcher, entry -> entry.datelong() * 1000, Entry::id, RangeCache::estimateSize);
+    }
+
+    public List<Treatment> getTreatmentsFromTo(final ZonedDateTime from, final ZonedDateTime to, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) {
+        if (null == from || null == to) { throw new IllegalArgumentException("from and to cannot be null"); }
+        return getTreatments(from.toEpochSecond() * 1000, to.toEpochSecond() * 1000, nightscoutUrl, apiSecret, nightscoutToken);
+    }
+
+    public List<Treatment> getTreatmentsFromInterval(final TimeInterval interval, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) {
+        final long now = Instant.now().getEpochSecond();
+        return getTreatments((now - interval.getSeconds()) * 1000, now * 1000, nightscoutUrl, apiSecret, nightscoutToken);
+    }
+
+    public List<Treatment> getTreatments(final long fromMillis, final long toMillis, final String nightscoutUrl, final String apiSecret, final String nightscoutToken) {
+        return get(new Key(nightscoutUrl, nightscoutToken, DataType.TREATMENTS), fromMillis, toMillis,
+                   (f, t) -> Connector.getTreatmentsBetween(f, t, nightscoutUrl, apiSecret, nightscoutToken),
+                   Treatment::createdAtMillis, Treatment::id, RangeCache::estimateSize);
+    }
+
+    public long getHits() { return hits.sum(); }
+
+    public long getPartialHits() { return partialHits.sum(); }
+
+    public long getMisses() { return misses.sum(); }
+
+    public synchronized long getItemCount() { return itemCount; }
+
+    public synchronized long getByteSize() { return byteSize; }
+
+    public synchronized void invalidate(final String nightscoutUrl, final String nightscoutToken) {
+        for (DataType dataType : DataType.values()) { remove(new Key(nightscoutUrl, nightscoutToken, dataType)); }
+    }
+
+    public synchronized void clear() {
+        segments.clear();
+        itemCount = 0;
+        byteSize  = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> List<T> get(final Key key, final long fromMillis, final long toMillis, final RangeFetcher<T> fetcher, final ToLongFunction<T> timeFunction, final Function<T, String> idFunction, final ToLongFunction<T> sizeFunction) {
+        if (null == key.nightscoutUrl() || key.nightscoutUrl().isEmpty()) { throw new IllegalArgumentException("nightscoutUrl cannot be null"); }
+        if (fromMillis > toMillis) { throw new IllegalArgumentException("from must be before to parameter"); }
+
+        boolean firstAttempt = true;
+        while (true) {
+            final Segment<T>   cached;
+            final List<long[]> gaps;
+            synchronized (this) {
+                cached = (Segment<T>) segments.get(key);
+                gaps   = null == cached ? List.of(new long[] { fromMillis, toMillis }) : cached.getGaps(fromMillis, toMillis);
+                if (gaps.isEmpty()) {
+                    hits.increment();
+                    return cached.getItems(fromMillis, toMillis);
+                }
+            }
+            if (firstAttempt) {
+                if (gaps.size() == 1 && gaps.get(0)[0] == fromMillis && gaps.get(0)[1] == toMillis) {
+                    misses.increment();
+                } else {
+                    partialHits.increment();
+                }
+                firstAttempt = false;
+            }
+
+            // Fetch the missing ranges without holding the lock
+            final long          settled = System.currentTimeMillis() - UNSETTLED_MILLIS;
+            final List<List<T>> fetched = new ArrayList<>(gaps.size());
+            for (long[] gap : gaps) { fetched.add(fetcher.fetch(gap[0], gap[1])); }
+
+            synchronized (this) {
+                Segment<T> segment = (Segment<T>) segments.get(key);
+                // The covered parts of the request are only in the cached segment, if it has been evicted or replaced meanwhile the request will be answered again
+                if (null != cached && segment != cached) { continue; }
+                if (null == segment) {
+                    segment = new Segment<>();
+                    segments.put(key, segment);
+                }
+                for (int i = 0 ; i < gaps.size() ; i++) {
+                    for (T item : fetched.get(i)) {
+                        if (segment.add(timeFunction.applyAsLong(item), idFunction.apply(item), item)) {
+                            final long size = sizeFunction.applyAsLong(item);
+                            segment.byteSize += size;
+                            itemCount++;
+                            byteSize += size;
+                        }
+                    }
+                    final long[] gap = gaps.get(i);
+                    if (gap[0] <= settled) { segment.addRange(gap[0], Math.min(gap[1], settled)); }
+                }
+                final List<T> items = segment.getItems(fromMillis, toMillis);
+                evict(key);
+                return items;
+            }
+        }
+    }
+
+    private void evict(final Key current) {
+        final Iterator<Map.Entry<Key, Segment<?>>> iterator = segments.entrySet().iterator();
+        while ((itemCount > maxItems || byteSize > maxBytes) && iterator.hasNext()) {
+            final Map.Entry<Key, Segment<?>> eldest = iterator.next();
+            if (eldest.getKey().equals(current) && segments.size() > 1) { continue; }
+            itemCount -= eldest.getValue().itemCount;
+            byteSize  -= eldest.getValue().byteSize;
+            iterator.remove();
+        }
+    }
+
+    private void remove(final Key key) {
+        final Segment<?> segment = segments.remove(key);
+        if (null == segment) { return; }
+        itemCount -= segment.itemCount;
+        byteSize  -= segment.byteSize;
+    }
+
+    private static long estimateSize(final Entry entry) {
+        return ITEM_BASE_SIZE + 2L * (length(entry.id()) + length(entry.dateString()) + length(entry.direction()) + length(entry.device()) + length(entry.type()) + length(entry.sysTime()));
+    }
+
+    private static long estimateSize(final Treatment treatment) {
+        return ITEM_BASE_SIZE + 2L * (length(treatment.id()) + length(treatment.eventType()) + length(treatment.created_at()) + length(treatment.glucose()) + length(treatment.glucoseType()) + length(treatment.units()) +
+                                      length(treatment.transmitterId()) + length(treatment.sensorCode()) + length(treatment.notes()) + length(treatment.enteredBy()));
+    }
+
+    private static int length(final String text) { return null == text ? 0 : 40 + text.length(); }
+
+
+    // ******************** Inner Classes *************************************
+    @FunctionalInterface
+    interface RangeFetcher<T> {
+        List<T> fetch(long fromMillis, long toMillis);
+    }
+
+    record Key(String nightscoutUrl, String nightscoutToken, DataType dataType) {
+        Key(final String nightscoutUrl, final String nightscoutToken, final DataType dataType) {
+            this.nightscoutUrl   = nightscoutUrl;
+            this.nightscoutToken = null == nightscoutToken ? "" : nightscoutToken;
+            this.dataType        = Objects.requireNonNull(dataType);
+        }
+    }
+
+    private static class Segment<T> {
+        private final TreeMap<Long, Map<String, T>> items  = new TreeMap<>();
+        private final TreeMap<Long, Long>           ranges = new TreeMap<>();
+        private       long                          itemCount;
+        private       long                          byteSize;
+
+        private boolean add(final long time, final String id, final T item) {
+            final Map<String, T> itemsAtTime = items.computeIfAbsent(time, t -> new LinkedHashMap<>(2));
+            if (itemsAtTime.put(null == id ? "" : id, item) != null) { return false; }
+            itemCount++;
+            return true;
+        }
+
+        // Adds [from, to] to the covered ranges and merges overlapping or adjacent ranges
+        private void addRange(final long from, final long to) {
+            long start = from;
+            long end   = to;
+            final Map.Entry<Long, Long> lower = ranges.floorEntry(from);
+            if (null != lower && lower.getValue() >= from - 1) {
+                start = lower.getKey();
+                end   = Math.max(end, lower.getValue());
+            }
+            final NavigableMap<Long, Long> overlapping = ranges.subMap(start, true, end + 1, true);
+            for (long rangeEnd : overlapping.values()) { end = Math.max(end, rangeEnd); }
+            overlapping.clear();
+            ranges.put(start, end);
+        }
+
+        private List<long[]> getGaps(final long from, final long to) {
+            final List<long[]> gaps   = new ArrayList<>();
+            long               cursor = from;
+            final Map.Entry<Long, Long> lower = ranges.floorEntry(from);
+            if (null != lower && lower.getValue() >= from) { cursor = lower.getValue() + 1; }
+            for (Map.Entry<Long, Long> range : ranges.subMap(from, false, to, true).entrySet()) {
+                if (cursor > to) { break; }
+                if (range.getKey() > cursor) { gaps.add(new long[] { cursor, range.getKey() - 1 }); }
+                cursor = Math.max(cursor, range.getValue() + 1);
+            }
+            if (cursor <= to) { gaps.add(new long[] { cursor, to }); }
+            return gaps;
+        }
+
+        private List<T> getItems(final long from, final long to) {
+            final List<T> result = new ArrayList<>();
+            for (Map<String, T> itemsAtTime : items.subMap(from, true, to, true).descendingMap().values()) { result.addAll(itemsAtTime.values()); }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+
+/**
+ * Executes requests with the retries, hedging and circuit breaker defined by a ResiliencePolicy.
+ * The circuit breaker and the latencies used for hedging are kept per host.
+ */
+final class Resilience {
+    private static final ConcurrentHashMap<String, Host> HOSTS = new ConcurrentHashMap<>();
+
+
+    // ******************** Constructors **************************************
+    private Resilience() {}
+
+
+    // ******************** Methods *******************************************
+    static <T> CompletableFuture<HttpResponse<T>> execute(final URI uri, final ResiliencePolicy policy, final Supplier<CompletableFuture<HttpResponse<T>>> attempt) {
+        final Host                               host   = getHost(uri);
+        final String                             name   = null == uri.getAuthority() ? uri.toString() : uri.getAuthority();
+        final CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        execute(host, name, Metrics.getEndpoint(uri), policy, attempt, 0, result);
+        return result;
+    }
+
+    static CircuitBreaker.State getCircuitState(final URI uri) { return getHost(uri).breaker.getState(); }
+
+    static void reset() { HOSTS.clear(); }
+
+    private static <T> void execute(final Host host, final String name, final String endpoint, final ResiliencePolicy policy, final Supplier<CompletableFuture<HttpResponse<T>>> attempt,
+                                    final int retry, final CompletableFuture<HttpResponse<T>> result) {
+        if (!host.breaker.tryAcquire(policy)) {
+            Connector.getMetrics().recordRejected(endpoint);
+            result.completeExceptionally(new CircuitBreakerOpenException(name));
+            return;
+        }
+        final long start = System.nanoTime();
+        (policy.isHedging() ? hedge(host, endpoint, policy, attempt) : call(attempt)).whenComplete((response, throwable) -> {
+            final Throwable cause     = unwrap(throwable);
+            final boolean   failed    = null != cause || policy.isRetryable(response.statusCode());
+            // Only io errors and retryable status codes will be retried, as long as the circuit is not open
+            final boolean   retryable = failed && (null == cause || cause instanceof IOException);
+            final boolean   last      = !retryable || retry >= policy.getMaxRetries();
+            if (failed) {
+                host.breaker.onFailure(policy, last);
+            } else {
+                host.breaker.onSuccess();
+                host.latency.record((System.nanoTime() - start) / 1_000);
+            }
+            if (last || host.breaker.isOpen()) {
+                if (null == cause) {
+                    result.complete(response);
+                } else {
+                    result.completeExceptionally(cause);
+                }
+                return;
+            }
+            discard(response);
+            Connector.getMetrics().recordRetry(endpoint);
+            CompletableFuture.delayedExecutor(policy.getBackoffMillis(retry), TimeUnit.MILLISECONDS, Connector.getExecutor())
+                             .execute(() -> execute(host, name, endpoint, policy, attempt, retry + 1, result));
+        });
+    }
+
+    // Sends a second request if the first one did not complete within the hedge delay, the first response wins
+    private static <T> CompletableFuture<HttpResponse<T>> hedge(final Host host, final String endpoint, final ResiliencePolicy policy, final Supplier<CompletableFuture<HttpResponse<T>>> attempt) {
+        final CompletableFuture<HttpResponse<T>> result  = new CompletableFuture<>();
+        final AtomicInteger                      running = new AtomicInteger(1);
+        call(attempt).whenComplete((response, throwable) -> complete(result, running, response, throwable));
+        CompletableFuture.delayedExecutor(host.getHedgeDelayMillis(policy), TimeUnit.MILLISECONDS, Connector.getExecutor()).execute(() -> {
+            if (result.isDone()) { return; }
+            running.incrementAndGet();
+            Connector.getMetrics().recordHedge(endpoint);
+            call(attempt).whenComplete((response, throwable) -> complete(result, running, response, throwable));
+        });
+        return result;
+    }
+
+    private static <T> void complete(final CompletableFuture<HttpResponse<T>> result, final AtomicInteger running, final HttpResponse<T> response, final Throwable throwable) {
+        if (null == throwable) {
+            if (!result.complete(response)) { discard(response); }
+        } else if (0 == running.decrementAndGet()) {
+            // Only fail if no other request is running anymore
+            result.completeExceptionally(throwable);
+        }
+    }
+
+    private static <T> CompletableFuture<HttpResponse<T>> call(final Supplier<CompletableFuture<HttpResponse<T>>> attempt) {
+        try {
+            return attempt.get();
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // Closes streamed bodies of responses that will not be used
+    private static void discard(final HttpResponse<?> response) {
+        if (null != response && response.body() instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                // nothing to do
+            }
+        }
+    }
+
+    private static Throwable unwrap(final Throwable throwable) {
+        return throwable instanceof CompletionException && null != throwable.getCause() ? throwable.getCause() : throwable;
+    }
+
+    private static Host getHost(final URI uri) {
+        final String key = null == uri.getAuthority() ? "" : uri.getAuthority();
+        return HOSTS.computeIfAbsent(key, k -> new Host());
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private static final class Host {
+        private final CircuitBreaker   breaker = new CircuitBreaker();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+
+        // The max delay will be used until at least 20 latencies are known
+        long getHedgeDelayMillis(final ResiliencePolicy policy) {
+            final long minDelay = policy.getHedgeMinDelay().toMillis();
+            final long maxDelay = policy.getHedgeMaxDelay().toMillis();
+            if (latency.getCount() < 20) { return maxDelay; }
+            return Math.max(minDelay, Math.min(maxDelay, latency.getPercentile(policy.getHedgeQuantile()) / 1_000));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ * Defines how failing requests will be handled.
+ * - Retries: Connection errors, timeouts and 429/5xx responses will be retried with exponential backoff.
+ * - Hedging: If a request takes longer than the given latency quantile of the host, a second request
+ *            will be sent and the first response wins. Disabled by default.
+ * - Circuit breaker: After the given number of consecutive failed calls of a host, all requests to this
+ *            host fail fast for the given open duration. After that one trial request decides if the
+ *            circuit closes again. A call only counts as failed when its last retry failed.
+ * Use ResiliencePolicy.NONE to send every request exactly once.
+ */
+public final class ResiliencePolicy {
+    public static final ResiliencePolicy NONE    = builder().maxRetries(0).failureThreshold(0).build();
+    // Also used by the static Connector methods: 2 retries, the circuit of a host opens for 30 s after 5 consecutive failed calls
+    public static final ResiliencePolicy DEFAULT = builder().build();
+    private final       int              maxRetries;
+    private final       Duration         initialBackoff;
+    private final       Duration         maxBackoff;
+    private final       double           hedgeQuantile;
+    private final       Duration         hedgeMinDelay;
+    private final       Duration         hedgeMaxDelay;
+    private final       int              failureThreshold;
+    private final       Duration         openDuration;
+
+
+    // ******************** Constructors **************************************
+    private ResiliencePolicy(final Builder builder) {
+        this.maxRetries       = builder.maxRetries;
+        this.initialBackoff   = builder.initialBackoff;
+        this.maxBackoff       = builder.maxBackoff;
+        this.hedgeQuantile    = builder.hedgeQuantile;
+        this.hedgeMinDelay    = builder.hedgeMinDelay;
+        this.hedgeMaxDelay    = builder.hedgeMaxDelay;
+        this.failureThreshold = builder.failureThreshold;
+        this.openDuration     = builder.openDuration;
+    }
+
+
+    // ******************** Methods *******************************************
+    public static Builder builder() { return new Builder(); }
+
+    public int getMaxRetries() { return maxRetries; }
+
+    public Duration getInitialBackoff() { return initialBackoff; }
+
+    public Duration getMaxBackoff() { return maxBackoff; }
+
+    public boolean isHedging() { return hedgeQuantile > 0; }
+
+    public double getHedgeQuantile() { return hedgeQuantile; }
+
+    public Duration getHedgeMinDelay() { return hedgeMinDelay; }
+
+    public Duration getHedgeMaxDelay() { return hedgeMaxDelay; }
+
+    public boolean isCircuitBreaking() { return failureThreshold > 0; }
+
+    public int getFailureThreshold() { return failureThreshold; }
+
+    public Duration getOpenDuration() { return openDuration; }
+
+    public boolean isRetryable(final int statusCode) { return 429 == statusCode || statusCode >= 500; }
+
+    // Exponential backoff with jitter between 50% and 100% of the delay to not retry in lockstep
+    long getBackoffMillis(final int retry) {
+        final long delay = Math.min(maxBackoff.toMillis(), initialBackoff.toMillis() << Math.min(retry, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+
+    // ******************** Inner Classes *************************************
+    public static class Builder {
+        private int      maxRetries;
+        private Duration initialBackoff;
+        private Duration maxBackoff;
+        private double   hedgeQuantile;
+        private Duration hedgeMinDelay;
+        private Duration hedgeMaxDelay;
+        private int      failureThreshold;
+        private Duration openDuration;
+
+
+        // ******************** Constructors **********************************
+        private Builder() {
+            this.maxRetries       = 2;
+            this.initialBackoff   = Duration.ofMillis(200);
+            this.maxBackoff       = Duration.ofSeconds(2);
+            this.hedgeQuantile    = 0;
+            this.hedgeMinDelay    = Duration.ofMillis(50);
+            this.hedgeMaxDelay    = Duration.ofSeconds(1);
+            this.failureThreshold = 5;
+            this.openDuration     = Duration.ofSeconds(30);
+        }
+
+
+        // ******************** Methods ***************************************
+        public Builder maxRetries(final int maxRetries) {
+            if (maxRetries < 0) { throw new IllegalArgumentException("maxRetries cannot be negative"); }
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        public Builder backoff(final Duration initialBackoff, final Duration maxBackoff) {
+            if (null == initialBackoff || initialBackoff.isNegative()) { throw new IllegalArgumentException("initialBackoff cannot be negative"); }
+            if (null == maxBackoff || maxBackoff.compareTo(initialBackoff) < 0) { throw new IllegalArgumentException("maxBackoff must be greater or equal to initialBackoff"); }
+            this.initialBackoff = initialBackoff;
+            this.maxBackoff     = maxBackoff;
+            return this;
+        }
+
+        // Sends a second request if the first one takes longer than the given quantile (e.g. 0.95) of the latencies
+        // of the host, the delay is clamped between min and max delay. max delay will be used until enough latencies are known.
+        public Builder hedge(final double quantile, final Duration minDelay, final Duration maxDelay) {
+            if (quantile <= 0 || quantile >= 1) { throw new IllegalArgumentException("quantile must be between 0 and 1"); }
+            if (null == minDelay || minDelay.isNegative()) { throw new IllegalArgumentException("minDelay cannot be negative"); }
+            if (null == maxDelay || maxDelay.compareTo(minDelay) < 0) { throw new IllegalArgumentException("maxDelay must be greater or equal to minDelay"); }
+            this.hedgeQuantile = quantile;
+            this.hedgeMinDelay = minDelay;
+            this.hedgeMaxDelay = maxDelay;
+            return this;
+        }
+
+        // A failureThreshold of 0 disables the circuit breaker
+        public Builder circuitBreaker(final int failureThreshold, final Duration openDuration) {
+            if (null == openDuration || openDuration.isNegative()) { throw new IllegalArgumentException("openDuration cannot be negative"); }
+            failureThreshold(failureThreshold);
+            this.openDuration = openDuration;
+            return this;
+        }
+
+        public Builder failureThreshold(final int failureThreshold) {
+            if (failureThreshold < 0) { throw new IllegalArgumentException("failureThreshold cannot be negative"); }
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+
+        public ResiliencePolicy build() { return new ResiliencePolicy(this); }
+    }
+}
@@ -0,0 +1,190 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static eu.hansolo.nightscoutconnector.Constants.MAX_HIGH;
+import static eu.hansolo.nightscoutconnector.Constants.MIN_CRITICAL;
+import static eu.hansolo.nightscoutconnector.Constants.MIN_HIGH;
+import static eu.hansolo.nightscoutconnector.Constants.MIN_NORMAL;
+
+
+/**
+ * Running glucose statistics over a sliding time window, e.g. the last 14 days of one patient.
+ * Every reading updates the aggregates in O(1) and evicts the readings that dropped out of the window,
+ * so there is no need to rescan all readings on every poll.
+ * The ranges are the ones of the international consensus on time in range: very low (< MIN_CRITICAL),
+ * below range (< MIN_NORMAL), in range (MIN_NORMAL - MIN_HIGH), above range (> MIN_HIGH) and very high (> MAX_HIGH).
+ * Instances are not thread safe.
+ */
+public class RollingAnalytics {
+    // sgv values are shifted by a typical mean to reduce the cancellation in the variance
+    private static final double   SHIFT = 150;
+    private final        long     windowSeconds;
+    private              long[]   datelongs;
+    private              double[] sgvs;
+    private              int      head;
+    private              int      size;
+    private              long     lastDatelong;
+    private              double   sum;
+    private              double   sumOfSquares;
+    private              int      veryLow;
+    private              int      belowRange;
+    private              int      aboveRange;
+    private              int      veryHigh;
+    private              int      evictions;
+
+
+    // ******************** Constructors **************************************
+    public RollingAnalytics(final TimeInterval window) {
+        if (null == window) { throw new IllegalArgumentException("window cannot be null"); }
+        this.windowSeconds = window.getSeconds();
+        this.datelongs     = new long[Math.max(16, window.getNoOfEntries() + 1)];
+        this.sgvs          = new double[datelongs.length];
+        this.head          = 0;
+        this.size          = 0;
+        this.lastDatelong  = Long.MIN_VALUE;
+    }
+
+
+    // ******************** Methods *******************************************
+    public boolean add(final Entry entry) {
+        if (null == entry) { throw new IllegalArgumentException("entry cannot be null"); }
+        return add(entry.datelong(), entry.sgv());
+    }
+    /**
+     * Adds the reading and evicts all readings that are older than the window relative to it.
+     * Returns false if the reading is not newer than the newest reading (it will be ignored).
+     */
+    public boolean add(final long datelong, final double sgv) {
+        if (datelong <= lastDatelong) { return false; }
+        lastDatelong = datelong;
+        evict(datelong - windowSeconds);
+        if (size == datelongs.length) { grow(); }
+        final int tail = (head + size) % datelongs.length;
+        datelongs[tail] = datelong;
+        sgvs[tail]      = sgv;
+        size++;
+        final double shifted = sgv - SHIFT;
+        sum          += shifted;
+        sumOfSquares += shifted * shifted;
+        count(sgv, 1);
+        return true;
+    }
+
+    // The entries can be in any order, Nightscout returns the newest entries first
+    public void addAll(final List<Entry> entries) {
+        if (null == entries) { throw new IllegalArgumentException("list of entries cannot be null"); }
+        final List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.naturalOrder());
+        for (Entry entry : sorted) { add(entry.datelong(), entry.sgv()); }
+    }
+
+    public void addAll(final GlucoseSeries series) {
+        if (null == series) { throw new IllegalArgumentException("series cannot be null"); }
+        for (int i = 0 ; i < series.size() ; i++) { add(series.getDatelong(i), series.getSgv(i)); }
+    }
+
+    /**
+     * Evicts the readings that are older than the window relative to the given datelong (epoch seconds),
+     * e.g. if no new readings arrived for some time.
+     */
+    public void advanceTo(final long datelong) { evict(datelong - windowSeconds); }
+
+    public void clear() {
+        head         = 0;
+        size         = 0;
+        lastDatelong = Long.MIN_VALUE;
+        veryLow      = 0;
+        belowRange   = 0;
+        aboveRange   = 0;
+        veryHigh     = 0;
+        recalc();
+    }
+
+    public int getCount() { return size; }
+
+    public boolean isEmpty() { return 0 == size; }
+
+    public double getMean() { return 0 == size ? 0 : sum / size + SHIFT; }
+
+    // Same formula as Connector.calcHbA1c()
+    public double getHbA1c() { return 0 == size ? 0 : (0.0296 * getMean()) + 2.419; }
+
+    // Glucose management indicator in % (https://diabetesjournals.org/care/article/41/11/2275/36593)
+    public double getGMI() { return 0 == size ? 0 : 3.31 + 0.02392 * getMean(); }
+
+    public double getStandardDeviation() {
+        if (0 == size) { return 0; }
+        final double mean = sum / size;
+        return Math.sqrt(Math.max(0, sumOfSquares / size - mean * mean));
+    }
+
+    // Coefficient of variation in %
+    public double getCoefficientOfVariation() {
+        final double mean = getMean();
+        return 0 == mean ? 0 : getStandardDeviation() / mean * 100;
+    }
+
+    // The times in range are the percentages of the readings in the window
+    public double getTimeVeryLow() { return percentage(veryLow); }
+
+    public double getTimeBelowRange() { return percentage(belowRange); }
+
+    public double getTimeInRange() { return percentage(size - belowRange - aboveRange); }
+
+    public double getTimeAboveRange() { return percentage(aboveRange); }
+
+    public double getTimeVeryHigh() { return percentage(veryHigh); }
+
+    private void evict(final long minDatelong) {
+        while (size > 0 && datelongs[head] < minDatelong) {
+            final double sgv     = sgvs[head];
+            final double shifted = sgv - SHIFT;
+            sum          -= shifted;
+            sumOfSquares -= shifted * shifted;
+            count(sgv, -1);
+            head = (head + 1) % datelongs.length;
+            size--;
+            // Recalculate the sums from time to time to get rid of the accumulated rounding errors, amortized O(1)
+            if (++evictions >= datelongs.length) { recalc(); }
+        }
+    }
+
+    private void count(final double sgv, final int increment) {
+        if (sgv < MIN_NORMAL) {
+            belowRange += increment;
+            if (sgv < MIN_CRITICAL) { veryLow += increment; }
+        } else if (sgv > MIN_HIGH) {
+            aboveRange += increment;
+            if (sgv > MAX_HIGH) { veryHigh += increment; }
+        }
+    }
+
+    private void recalc() {
+        sum          = 0;
+        sumOfSquares = 0;
+        evictions    = 0;
+        for (int i = 0 ; i < size ; i++) {
+            final double shifted = sgvs[(head + i) % sgvs.length] - SHIFT;
+            sum          += shifted;
+            sumOfSquares += shifted * shifted;
+        }
+    }
+
+    private double percentage(final int count) { return 0 == size ? 0 : count * 100.0 / size; }
+
+    private void grow() {
+        final int      capacity     = datelongs.length + (datelongs.length >> 1);
+        final long[]   newDatelongs = new long[capacity];
+        final double[] newSgvs      = new double[capacity];
+        for (int i = 0 ; i < size ; i++) {
+            newDatelongs[i] = datelongs[(head + i) % datelongs.length];
+            newSgvs[i]      = sgvs[(head + i) % sgvs.length];
+        }
+        datelongs = newDatelongs;
+        sgvs      = newSgvs;
+        head      = 0;
+    }
+}
@@ -1,10 +1,27 @@
 package eu.hansolo.nightscoutconnector;
 
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.Objects;
 
 
 public record Treatment(String id, String eventType, String created_at, String glucose, String glucoseType, double carbs, double protein, double fat, double insulin, String units, String transmitterId, String sensorCode, String notes, String enteredBy) {
 
+    // Returns the epoch milliseconds of created_at or 0 if it is not a valid ISO 8601 timestamp
+    public long createdAtMillis() {
+        if (null == created_at || created_at.isEmpty()) { return 0; }
+        try {
+            return Instant.parse(created_at).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            try {
+                return OffsetDateTime.parse(created_at).toInstant().toEpochMilli();
+            } catch (DateTimeParseException ex) {
+                return 0;
+            }
+        }
+    }
+
     @Override public boolean equals(final Object o) {
         if (this == o) { return true; }
         if (o == null || getClass() != o.getClass()) { return false; }
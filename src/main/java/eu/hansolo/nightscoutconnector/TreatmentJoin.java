@@ -0,0 +1,201 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Joins treatments (e.g. meals and boluses) with the glucose readings after them to score the glucose response.
+ * The created_at timestamp of every treatment will only be parsed once, treatments and readings will be sorted
+ * by time (Entry.compareTo() order) and merged in a single pass, so the work is linear in the number of
+ * treatments and readings instead of treatments x readings. The min and max of the window after every treatment
+ * come from monotonic queues that are updated while the window moves forward.
+ * For every treatment the response contains the baseline (the newest reading at or before the treatment),
+ * the readings closest to the offsets after the treatment (e.g. +30, +60 and +120 minutes) and the min and max
+ * sgv in the window up to the largest offset. Missing readings are NaN.
+ */
+public class TreatmentJoin {
+    public  static final List<Duration> DEFAULT_OFFSETS   = List.of(Duration.ofMinutes(30), Duration.ofMinutes(60), Duration.ofMinutes(120));
+    // Readings are 5 minutes apart, a reading that is further away than that from an offset is treated as missing
+    public  static final Duration       DEFAULT_TOLERANCE = Duration.ofMinutes(5);
+    private final        long[]         offsetMillis;
+    private final        long           toleranceMillis;
+
+
+    // ******************** Constructors **************************************
+    public TreatmentJoin() {
+        this(DEFAULT_OFFSETS, DEFAULT_TOLERANCE);
+    }
+    public TreatmentJoin(final List<Duration> offsets, final Duration tolerance) {
+        if (null == offsets || offsets.isEmpty()) { throw new IllegalArgumentException("offsets cannot be null or empty"); }
+        if (null == tolerance || tolerance.isNegative()) { throw new IllegalArgumentException("tolerance cannot be null or negative"); }
+        this.offsetMillis = new long[offsets.size()];
+        for (int i = 0 ; i < offsetMillis.length ; i++) {
+            final Duration offset = offsets.get(i);
+            if (null == offset || offset.isNegative()) { throw new IllegalArgumentException("offsets cannot be null or negative"); }
+            if (i > 0 && offset.toMillis() <= offsetMillis[i - 1]) { throw new IllegalArgumentException("offsets must be in ascending order"); }
+            offsetMillis[i] = offset.toMillis();
+        }
+        this.toleranceMillis = tolerance.toMillis();
+    }
+
+
+    // ******************** Methods *******************************************
+    public List<Duration> getOffsets() {
+        final List<Duration> offsets = new ArrayList<>(offsetMillis.length);
+        for (long millis : offsetMillis) { offsets.add(Duration.ofMillis(millis)); }
+        return offsets;
+    }
+
+    public Duration getTolerance() { return Duration.ofMillis(toleranceMillis); }
+
+    /**
+     * Returns the responses of all treatments with a valid created_at timestamp, oldest first.
+     * Treatments and entries can be in any order, Nightscout returns the newest first.
+     */
+    public List<Response> join(final List<Treatment> treatments, final List<Entry> entries) {
+        if (null == entries) { throw new IllegalArgumentException("list of entries cannot be null"); }
+        final int    size      = entries.size();
+        final long[] datelongs = new long[size];
+        for (int i = 0 ; i < size ; i++) { datelongs[i] = entries.get(i).datelong(); }
+        final int         order  = order(datelongs);
+        final List<Entry> sorted;
+        if (0 == order) {
+            sorted = new ArrayList<>(entries);
+            sorted.sort(Comparator.naturalOrder());
+        } else {
+            sorted = entries;
+        }
+        final long[]   millis = new long[size];
+        final double[] sgvs   = new double[size];
+        for (int i = 0 ; i < size ; i++) {
+            final Entry entry = sorted.get(order < 0 ? size - 1 - i : i);
+            millis[i] = entry.datelong() * 1000;
+            sgvs[i]   = entry.sgv();
+        }
+        return join(treatments, millis, sgvs);
+    }
+    public List<Response> join(final List<Treatment> treatments, final GlucoseSeries series) {
+        if (null == series) { throw new IllegalArgumentException("series cannot be null"); }
+        final int    size      = series.size();
+        final long[] datelongs = new long[size];
+        for (int i = 0 ; i < size ; i++) { datelongs[i] = series.getDatelong(i); }
+        final int order = order(datelongs);
+        if (0 == order) { return join(treatments, series.asEntries()); }
+        final long[]   millis = new long[size];
+        final double[] sgvs   = new double[size];
+        for (int i = 0 ; i < size ; i++) {
+            final int index = order < 0 ? size - 1 - i : i;
+            millis[i] = datelongs[index] * 1000;
+            sgvs[i]   = series.getSgv(index);
+        }
+        return join(treatments, millis, sgvs);
+    }
+
+    private List<Response> join(final List<Treatment> treatments, final long[] millis, final double[] sgvs) {
+        if (null == treatments) { throw new IllegalArgumentException("list of treatments cannot be null"); }
+        // Parse created_at only once
+        final List<Timed> timed = new ArrayList<>(treatments.size());
+        for (Treatment treatment : treatments) {
+            if (null == treatment) { continue; }
+            final long createdAt = treatment.createdAtMillis();
+            if (createdAt > 0) { timed.add(new Timed(createdAt, treatment)); }
+        }
+        timed.sort(Comparator.comparingLong(Timed::millis));
+
+        final int            size        = millis.length;
+        final int            noOfOffsets = offsetMillis.length;
+        final long           window      = offsetMillis[noOfOffsets - 1];
+        final int[]          cursors     = new int[noOfOffsets];
+        // Indices of the readings in the window with ascending (min) and descending (max) sgvs, every index will be added once
+        final int[]          minQueue    = new int[size];
+        final int[]          maxQueue    = new int[size];
+        final List<Response> responses   = new ArrayList<>(timed.size());
+        // All cursors only move forward because the treatments are sorted by time
+        int start   = 0;
+        int end     = 0;
+        int minHead = 0;
+        int minTail = 0;
+        int maxHead = 0;
+        int maxTail = 0;
+        for (Timed t : timed) {
+            final long createdAt = t.millis();
+            while (start < size && millis[start] < createdAt) { start++; }
+
+            // Baseline is the newest reading at or before the treatment
+            final int    baseIndex = start < size && millis[start] == createdAt ? start : start - 1;
+            final double baseline  = baseIndex >= 0 && createdAt - millis[baseIndex] <= toleranceMillis ? sgvs[baseIndex] : Double.NaN;
+
+            final double[] values = new double[noOfOffsets];
+            for (int o = 0 ; o < noOfOffsets ; o++) {
+                final long target = createdAt + offsetMillis[o];
+                int cursor = Math.max(cursors[o], start);
+                while (cursor < size && millis[cursor] < target) { cursor++; }
+                cursors[o] = cursor;
+                values[o]  = nearest(millis, sgvs, cursor, target);
+            }
+
+            // Min and max of the window from the treatment to the largest offset, the window only moves forward
+            if (end < start) { end = start; }
+            while (end < size && millis[end] <= createdAt + window) {
+                while (minTail > minHead && sgvs[minQueue[minTail - 1]] >= sgvs[end]) { minTail--; }
+                minQueue[minTail++] = end;
+                while (maxTail > maxHead && sgvs[maxQueue[maxTail - 1]] <= sgvs[end]) { maxTail--; }
+                maxQueue[maxTail++] = end;
+                end++;
+            }
+            while (minHead < minTail && minQueue[minHead] < start) { minHead++; }
+            while (maxHead < maxTail && maxQueue[maxHead] < start) { maxHead++; }
+            final double min = minHead < minTail ? sgvs[minQueue[minHead]] : Double.NaN;
+            final double max = maxHead < maxTail ? sgvs[maxQueue[maxHead]] : Double.NaN;
+            responses.add(new Response(t.treatment(), createdAt, baseline, values, min, max));
+        }
+        return responses;
+    }
+
+    // Closest reading to the target of the readings around the given index or NaN if none is within the tolerance
+    private double nearest(final long[] millis, final double[] sgvs, final int index, final long target) {
+        long   distance = Long.MAX_VALUE;
+        double sgv      = Double.NaN;
+        if (index < millis.length) {
+            distance = millis[index] - target;
+            sgv      = sgvs[index];
+        }
+        if (index > 0 && target - millis[index - 1] < distance) {
+            distance = target - millis[index - 1];
+            sgv      = sgvs[index - 1];
+        }
+        return distance <= toleranceMillis ? sgv : Double.NaN;
+    }
+
+    // 1 if the datelongs are in ascending order, -1 if they are in descending order and 0 otherwise
+    private static int order(final long[] datelongs) {
+        boolean ascending  = true;
+        boolean descending = true;
+        for (int i = 1 ; i < datelongs.length && (ascending || descending) ; i++) {
+            if (datelongs[i - 1] > datelongs[i]) { ascending  = false; }
+            if (datelongs[i - 1] < datelongs[i]) { descending = false; }
+        }
+        return ascending ? 1 : descending ? -1 : 0;
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private record Timed(long millis, Treatment treatment) {}
+
+    /**
+     * The sgvs are the readings closest to the offsets of the join (same order), min and max are the
+     * lowest and highest sgv from the treatment to the largest offset.
+     */
+    public record Response(Treatment treatment, long createdAtMillis, double baseline, double[] sgvs, double minSgv, double maxSgv) {
+        public boolean hasBaseline() { return !Double.isNaN(baseline); }
+
+        // Change of the sgv at the given offset index relative to the baseline, NaN if one of them is missing
+        public double getDelta(final int offsetIndex) { return sgvs[offsetIndex] - baseline; }
+
+        // Largest rise above the baseline in the window, e.g. the glucose excursion after a meal
+        public double getPeakDelta() { return maxSgv - baseline; }
+    }
+}
@@ -1,8 +1,5 @@
 package eu.hansolo.nightscoutconnector;
 
-import java.util.Arrays;
-import java.util.Optional;
-
 
 public enum Trend {
     FLAT("Flat", 0, "\u2192"),
@@ -14,6 +11,12 @@ public enum Trend {
     FORTY_FIVE_UP("FortyFiveUp", 6, "\u2197"),
     NONE("", 7, "");
 
+    private static final Trend[] TRENDS = values();
+    private static final Trend[] BY_KEY = new Trend[TRENDS.length];
+    static {
+        for (Trend trend : TRENDS) { BY_KEY[trend.key] = trend; }
+    }
+
     private final String textKey;
     private final int    key;
     private final String symbol;
@@ -35,17 +38,23 @@ public enum Trend {
     public String getSymbol() { return symbol; }
 
 
+    /**
+     * Returns the trend for the given text key (case insensitive, e.g. "FortyFiveUp" or "fortyfiveup") or numeric key (e.g. "6").
+     * Unknown texts return Trend.NONE. The lookup doesn't allocate, so it can be used for every parsed entry.
+     */
     public static Trend getFromText(final String text) {
-        Optional<Trend> optTrend = Arrays.stream(Trend.values()).filter(trend -> trend.getTextKey().toLowerCase().equals(text.toLowerCase())).findFirst();
-        if (optTrend.isPresent()) {
-            return optTrend.get();
-        } else {
-            optTrend = Arrays.stream(Trend.values()).filter(trend -> Integer.toString(trend.getKey()).equals(text)).findFirst();
-            if (optTrend.isPresent()) {
-                return optTrend.get();
-            } else {
-                return NONE;
-            }
+        if (null == text || text.isEmpty()) { return NONE; }
+        if (1 == text.length() && text.charAt(0) >= '0' && text.charAt(0) <= '9') { return getFromKey(text.charAt(0) - '0'); }
+        for (Trend trend : TRENDS) {
+            if (trend.textKey.equals(text)) { return trend; }
         }
+        for (Trend trend : TRENDS) {
+            if (trend.textKey.equalsIgnoreCase(text)) { return trend; }
+        }
+        return NONE;
+    }
+
+    public static Trend getFromKey(final int key) {
+        return key >= 0 && key < BY_KEY.length && null != BY_KEY[key] ? BY_KEY[key] : NONE;
     }
 }
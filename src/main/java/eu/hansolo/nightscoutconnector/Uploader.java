@@ -0,0 +1,173 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+
+/**
+ * Batches entries and treatments and uploads them as json arrays to one Nightscout site.
+ * A batch will be sent as soon as it contains batchSize records or flushInterval after its first record
+ * has been added, whatever comes first. Up to maxInFlight batches will be sent at the same time over the
+ * shared http client, further batches are queued without blocking the callers.
+ * Failed requests will be retried with the ResiliencePolicy of the client, records without an id get an id that
+ * is derived from their content, so a retried batch doesn't create duplicates.
+ * An Uploader can be registered at an EntryPoller (poller.addEntryListener(uploader)) to mirror a site.
+ */
+public class Uploader implements Consumer<Entry>, AutoCloseable {
+    public  static final int                             DEFAULT_BATCH_SIZE     = 1_000;
+    public  static final Duration                        DEFAULT_FLUSH_INTERVAL = Duration.ofSeconds(5);
+    public  static final int                             DEFAULT_MAX_IN_FLIGHT  = 4;
+    private final        NightscoutClient                client;
+    private final        int                             batchSize;
+    private final        long                            flushIntervalMillis;
+    private final        ConcurrencyLimiter              limiter;
+    private final        Batch<Entry>                    entries;
+    private final        Batch<Treatment>                treatments;
+    private final        Set<CompletableFuture<Void>>    inFlight;
+    private final        AtomicLong                      uploaded;
+    private final        AtomicLong                      failed;
+    private volatile     boolean                         closed;
+
+
+    // ******************** Constructors **************************************
+    public Uploader(final NightscoutClient client) {
+        this(client, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL, DEFAULT_MAX_IN_FLIGHT);
+    }
+    public Uploader(final NightscoutClient client, final int batchSize, final Duration flushInterval, final int maxInFlight) {
+        if (null == client) { throw new IllegalArgumentException("client cannot be null"); }
+        if (batchSize < 1) { throw new IllegalArgumentException("batchSize must at least be 1"); }
+        if (null == flushInterval || flushInterval.isNegative() || flushInterval.isZero()) { throw new IllegalArgumentException("flushInterval must be positive"); }
+        if (maxInFlight < 1) { throw new IllegalArgumentException("maxInFlight must at least be 1"); }
+        this.client              = client;
+        this.batchSize           = batchSize;
+        this.flushIntervalMillis = flushInterval.toMillis();
+        this.limiter             = new ConcurrencyLimiter(maxInFlight);
+        this.entries             = new Batch<>(client::uploadEntriesAsync);
+        this.treatments          = new Batch<>(client::uploadTreatmentsAsync);
+        this.inFlight            = ConcurrentHashMap.newKeySet();
+        this.uploaded            = new AtomicLong(0);
+        this.failed              = new AtomicLong(0);
+        this.closed              = false;
+    }
+
+
+    // ******************** Methods *******************************************
+    @Override public void accept(final Entry entry) { add(entry); }
+
+    public void add(final Entry entry) {
+        if (null == entry) { throw new IllegalArgumentException("entry cannot be null"); }
+        entries.add(entry);
+    }
+
+    public void add(final Treatment treatment) {
+        if (null == treatment) { throw new IllegalArgumentException("treatment cannot be null"); }
+        treatments.add(treatment);
+    }
+
+    public void addEntries(final List<Entry> entries) {
+        if (null == entries) { throw new IllegalArgumentException("list of entries cannot be null"); }
+        for (Entry entry : entries) { add(entry); }
+    }
+
+    public void addTreatments(final List<Treatment> treatments) {
+        if (null == treatments) { throw new IllegalArgumentException("list of treatments cannot be null"); }
+        for (Treatment treatment : treatments) { add(treatment); }
+    }
+
+    /**
+     * Sends the buffered records, the returned future completes when all batches that have been sent so far are done.
+     */
+    public CompletableFuture<Void> flush() {
+        entries.flush();
+        treatments.flush();
+        return CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0]));
+    }
+
+    // Flushes the buffered records and waits until all batches are done, records added afterwards will be rejected
+    @Override public void close() {
+        closed = true;
+        flush().join();
+    }
+
+    public NightscoutClient getClient() { return client; }
+
+    // Number of records that have been accepted by the site
+    public long getUploaded() { return uploaded.get(); }
+
+    // Number of records of batches that failed after all retries
+    public long getFailed() { return failed.get(); }
+
+    public int getBuffered() { return entries.size() + treatments.size(); }
+
+    private <T> void send(final List<T> records, final Function<List<T>, CompletableFuture<Boolean>> upload) {
+        // Count the records before the batch is done, otherwise flush() could complete before the counters are updated
+        final CompletableFuture<Void> done = limiter.submit(() -> upload.apply(records)).handle((accepted, throwable) -> {
+            if (null == throwable && Boolean.TRUE.equals(accepted)) {
+                uploaded.addAndGet(records.size());
+            } else {
+                failed.addAndGet(records.size());
+            }
+            return null;
+        });
+        inFlight.add(done);
+        done.whenComplete((v, throwable) -> inFlight.remove(done));
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private final class Batch<T> {
+        private final Function<List<T>, CompletableFuture<Boolean>> upload;
+        private       List<T>                                       records;
+        private       long                                          generation;
+
+
+        Batch(final Function<List<T>, CompletableFuture<Boolean>> upload) {
+            this.upload     = upload;
+            this.records    = new ArrayList<>();
+            this.generation = 0;
+        }
+
+
+        void add(final T record) {
+            final List<T> full;
+            synchronized (this) {
+                if (closed) { throw new IllegalStateException("uploader has been closed"); }
+                records.add(record);
+                if (1 == records.size()) {
+                    // The timer only flushes the batch it has been started for
+                    final long gen = generation;
+                    CompletableFuture.delayedExecutor(flushIntervalMillis, TimeUnit.MILLISECONDS, Connector.getExecutor()).execute(() -> flush(gen));
+                }
+                full = records.size() >= batchSize ? take() : null;
+            }
+            if (null != full) { send(full, upload); }
+        }
+
+        void flush() { flush(-1); }
+        private void flush(final long gen) {
+            final List<T> batch;
+            synchronized (this) {
+                if (records.isEmpty() || (gen >= 0 && gen != generation)) { return; }
+                batch = take();
+            }
+            send(batch, upload);
+        }
+
+        synchronized int size() { return records.size(); }
+
+        private List<T> take() {
+            final List<T> batch = records;
+            records = new ArrayList<>(Math.min(batchSize, 1_024));
+            generation++;
+            return batch;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package eu.hansolo.nightscoutconnector;
+
+import java.net.URI;
+import java.net.http.HttpHeaders;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Bounded LRU store of the validators (ETag, Last-Modified) and the parsed records of the last
+ * response per request key. It is used to send conditional requests and to return the
+ * records of the last response without parsing if the server answers with 304 Not Modified.
+ */
+final class ValidatorCache {
+    static final  int                              DEFAULT_MAX_ENTRIES = 1_000;
+    private final LinkedHashMap<String, Validated> entries;
+    private       int                              maxEntries;
+
+
+    // ******************** Constructors **************************************
+    ValidatorCache(final int maxEntries) {
+        this.entries    = new LinkedHashMap<>(16, 0.75f, true);
+        this.maxEntries = maxEntries;
+    }
+
+
+    // ******************** Methods *******************************************
+    synchronized Validated get(final String key) { return entries.get(key); }
+
+    // Only stores responses that contain at least one validator
+    <T> void put(final String key, final URI uri, final HttpHeaders headers, final List<T> records) {
+        final String etag         = headers.firstValue("ETag").orElse(null);
+        final String lastModified = headers.firstValue("Last-Modified").orElse(null);
+        if (null == etag && null == lastModified) { return; }
+        final Validated validated = new Validated(uri, etag, lastModified, Collections.unmodifiableList(new ArrayList<>(records)));
+        synchronized (this) {
+            if (0 == maxEntries) { return; }
+            entries.put(key, validated);
+            evict();
+        }
+    }
+
+    synchronized void remove(final String key) { entries.remove(key); }
+
+    synchronized int size() { return entries.size(); }
+
+    synchronized int getMaxEntries() { return maxEntries; }
+    synchronized void setMaxEntries(final int maxEntries) {
+        if (maxEntries < 0) { throw new IllegalArgumentException("maxEntries cannot be negative"); }
+        this.maxEntries = maxEntries;
+        evict();
+    }
+
+    synchronized void clear() { entries.clear(); }
+
+    private void evict() {
+        while (entries.size() > maxEntries) {
+            final Map.Entry<String, Validated> eldest = entries.entrySet().iterator().next();
+            entries.remove(eldest.getKey());
+        }
+    }
+
+
+    // ******************** Inner Classes *************************************
+    record Validated(URI uri, String etag, String lastModified, List<?> records) {
+        // Returns a mutable copy of the records like a freshly parsed response
+        @SuppressWarnings("unchecked")
+        <T> List<T> copyOfRecords() { return new ArrayList<>((List<T>) records); }
+    }
+}
@@ -5,14 +5,41 @@ import eu.hansolo.toolbox.observables.ObservableList;
 import eu.hansolo.toolbox.properties.ObjectProperty;
 import org.junit.jupiter.api.Test;
 
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 
 public class LibTest {
@@ -167,6 +194,7 @@ public class LibTest {
         entries = List.of(entry1, entry2, entry3, entry4, entry5);
 
         assert Connector.predict(entries) == Prediction.SOON_HIGH;
+        assert Connector.predict(GlucoseSeries.of(entries)) == Prediction.SOON_HIGH;
 
         Entry entry6  = new Entry("6", 100, min5, OffsetDateTime.ofInstant(nowMinus5, ZoneId.systemDefault()), "", Trend.FLAT, "", "", "", 2, 0, 0, 0, 0, 0, "");
         Entry entry7  = new Entry("7", 95, min10, OffsetDateTime.ofInstant(nowMinus10, ZoneId.systemDefault()), "", Trend.FLAT, "", "", "", 2, 0, 0, 0, 0, 0, "");
@@ -176,6 +204,7 @@ public class LibTest {
         entries = List.of(entry6, entry7, entry8, entry9, entry10);
 
         assert Connector.predict(entries) == Prediction.SOON_TOO_LOW;
+        assert Connector.predict(GlucoseSeries.of(entries)) == Prediction.SOON_TOO_LOW;
     }
 
     @Test
@@ -204,4 +233,961 @@ public class LibTest {
             throw new RuntimeException(e);
         }
     }
+
+    @Test
+    void testParseFromInputStream() {
+        String entries = "[{\"_id\":\"64e114641ace7961997a8950\",\"device\":\"bubble\",\"date\":1692472374395,\"dateString\":\"2023-08-19T19:12:54.395Z\",\"sgv\":223,\"delta\":1.5,\"direction\":\"SingleUp\",\"type\":\"sgv\",\"filtered\":223000,\"unfiltered\":223000,\"rssi\":1,\"noise\":1,\"sysTime\":\"2023-08-19T19:12:54.395Z\",\"dataType\":0,\"meta\":{\"tags\":[1,2]},\"utcOffset\":120}," +
+                         "{\"_id\":\"64e30997533cf5d7beb9ca14\",\"sgv\":119,\"date\":1692600707100,\"trend\":null,\"direction\":\"Flat\",\"type\":\"sgv\",\"utcOffset\":0}]";
+        try {
+            List<Entry> result = Connector.getEntriesFromInputStream(new ByteArrayInputStream(entries.getBytes(StandardCharsets.UTF_8)));
+            assert result.size() == 2;
+            assert result.get(0).sgv() == 223;
+            assert result.get(0).datelong() == 1692472374L;
+            assert result.get(0).utcOffset() == 120;
+            assert result.get(1).sgv() == 119;
+        } catch (AccessDeniedException e) {
+            throw new RuntimeException(e);
+        }
+
+        String treatments = "[{\"_id\":\"64e2f6a2ec3a1c4b2d2c0ab1\",\"eventType\":\"Meal Bolus\",\"created_at\":\"2023-08-21T05:30:00.000Z\",\"glucose\":128,\"carbs\":45,\"insulin\":4.5,\"enteredBy\":\"xDrip\"}]";
+        try {
+            List<Treatment> result = Connector.getTreatmentsFromInputStream(new ByteArrayInputStream(treatments.getBytes(StandardCharsets.UTF_8)));
+            assert result.size() == 1;
+            assert result.get(0).carbs() == 45;
+            assert result.get(0).glucose().equals("128");
+        } catch (AccessDeniedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    void testParseAccessDenied() {
+        String error = "{\"status\":401,\"message\":\"Unauthorized\",\"description\":\"Invalid/Missing\"}";
+        try {
+            Connector.getEntriesFromJsonText(error);
+            assert false;
+        } catch (AccessDeniedException e) {
+            assert e.getMessage().equals("Unauthorized");
+        }
+        try {
+            Connector.getTreatmentsFromInputStream(new ByteArrayInputStream(error.getBytes(StandardCharsets.UTF_8)));
+            assert false;
+        } catch (AccessDeniedException e) {
+            assert e.getMessage().equals("Unauthorized");
+        }
+    }
+
+    @Test
+    void testGlucoseSeries() {
+        String json = "[{\"_id\":\"1\",\"sgv\":100,\"date\":1692600000000,\"trend\":0,\"type\":\"sgv\"}," +
+                      "{\"_id\":\"2\",\"sgv\":110,\"date\":1692599700000,\"trend\":1,\"type\":\"sgv\"}," +
+                      "{\"_id\":\"3\",\"type\":\"cal\",\"date\":1692599600000,\"slope\":666.6}," +
+                      "{\"_id\":\"4\",\"sgv\":130,\"date\":1692599400000,\"trend\":1,\"type\":\"sgv\"}," +
+                      "{\"_id\":\"5\",\"sgv\":155,\"date\":1692599100000,\"trend\":2,\"type\":\"sgv\"}," +
+                      "{\"_id\":\"6\",\"sgv\":185,\"date\":1692598800000,\"trend\":2,\"type\":\"sgv\"}]";
+        try {
+            GlucoseSeries series = Connector.getGlucoseSeriesFromJsonText(json);
+            assert series.size() == 5;
+            assert series.getDatelong(0) == 1692600000L;
+            assert series.getTrend(1) == Trend.SINGLE_UP;
+            assert series.asEntries().get(4).sgv() == 185;
+            assert !series.getEntry(0).equals(series.getEntry(1));
+            assert series.asEntries().indexOf(series.getEntry(3)) == 3;
+            assert series.getEntry(0).id().equals(Entry.deriveId(1692600000L, "", null));
+            assert !Entry.deriveId(1692600000L, "mbg", "").equals(Entry.deriveId(1692600000L, "sgv", ""));
+
+            List<Entry> entries = Connector.getEntriesFromJsonText(json).stream().filter(entry -> entry.sgv() > 0).toList();
+            assert Math.abs(Connector.calcHbA1c(series) - Connector.calcHbA1c(entries)) < 1e-9;
+            assert Connector.predict(series) == Connector.predict(entries);
+            assert Connector.predict(GlucoseSeries.of(entries)) == Prediction.SOON_HIGH;
+        } catch (AccessDeniedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    void testTrendLookup() {
+        assert Trend.getFromText("FortyFiveUp") == Trend.FORTY_FIVE_UP;
+        assert Trend.getFromText("doubledown")  == Trend.DOUBLE_DOWN;
+        assert Trend.getFromText("3")           == Trend.DOUBLE_DOWN;
+        assert Trend.getFromText("9")           == Trend.NONE;
+        assert Trend.getFromText("NOT COMPUTABLE") == Trend.NONE;
+        assert Trend.getFromText(null)          == Trend.NONE;
+        assert Trend.getFromKey(6)              == Trend.FORTY_FIVE_UP;
+        assert Trend.getFromKey(-1)             == Trend.NONE;
+
+        String json = "[{\"_id\":\"1\",\"sgv\":100,\"date\":1692600000000,\"direction\":\"FortyFiveDown\",\"type\":\"sgv\"}," +
+                      "{\"_id\":\"2\",\"sgv\":110,\"date\":1692599700000,\"trend\":\"2\",\"type\":\"sgv\"}]";
+        try {
+            GlucoseSeries series = Connector.getGlucoseSeriesFromJsonText(json);
+            assert series.getTrend(0) == Trend.FORTY_FIVE_DOWN;
+            assert series.getTrend(1) == Trend.DOUBLE_UP;
+
+            List<Entry> entries = Connector.getEntriesFromJsonText(json);
+            assert entries.get(0).trend() == Trend.FORTY_FIVE_DOWN;
+            assert entries.get(0).direction() == Trend.FORTY_FIVE_DOWN.getTextKey();
+            assert entries.get(1).trend() == Trend.DOUBLE_UP;
+        } catch (AccessDeniedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    void testLazyEntry() {
+        String json = "[{\"_id\":\"1\",\"sgv\":100,\"date\":1692600000000,\"dateString\":\"2023-08-21T06:40:00.000Z\",\"direction\":\"FortyFiveDown\",\"device\":\"xDrip-DexcomG6\",\"type\":\"sgv\",\"noise\":1,\"rssi\":100,\"delta\":-5.5}," +
+                      "{\"_id\":\"2\",\"sgv\":110,\"date\":1692599700000,\"trend\":2,\"device\":\"xDrip-DexcomG6\",\"type\":\"sgv\",\"utcOffset\":120,\"sysTime\":null}]";
+        try {
+            List<Entry>     entries     = Connector.getEntriesFromJsonText(json);
+            List<LazyEntry> lazyEntries = Connector.getLazyEntriesFromJsonText(json);
+            assert lazyEntries.size() == 2;
+            for (int i = 0 ; i < entries.size() ; i++) {
+                Entry     entry     = entries.get(i);
+                LazyEntry lazyEntry = lazyEntries.get(i);
+                assert lazyEntry.id().equals(entry.id());
+                assert lazyEntry.sgv()       == entry.sgv();
+                assert lazyEntry.datelong()  == entry.datelong();
+                assert lazyEntry.date().isEqual(entry.date());
+                assert lazyEntry.date().getOffset().equals(entry.date().getOffset());
+                assert lazyEntry.trend()     == entry.trend();
+                assert lazyEntry.direction().equals(entry.direction());
+                assert lazyEntry.type().equals(entry.type());
+                assert lazyEntry.utcOffset() == entry.utcOffset();
+                assert lazyEntry.noise()     == entry.noise();
+                assert lazyEntry.rssi()      == entry.rssi();
+                assert lazyEntry.delta()     == entry.delta();
+            }
+            // Shared strings and derived date strings
+            assert lazyEntries.get(0).device() == lazyEntries.get(1).device();
+            assert lazyEntries.get(0).direction() == Trend.FORTY_FIVE_DOWN.getTextKey();
+            assert lazyEntries.get(0).dateString().equals("2023-08-21T06:40:00Z");
+            assert lazyEntries.get(1).dateString().equals("2023-08-21T08:35:00+02:00");
+            assert lazyEntries.get(0).date() == lazyEntries.get(0).date();
+
+            Entry entry = lazyEntries.get(1).toEntry();
+            assert entry.equals(entries.get(1));
+            assert entry.trend() == Trend.DOUBLE_UP;
+            assert LazyEntry.of(entry).equals(lazyEntries.get(1));
+            assert lazyEntries.get(1).compareTo(lazyEntries.get(0)) < 0;
+        } catch (AccessDeniedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    void testLocalServer() {
+        try (NightscoutServer server = new NightscoutServer().setToken("local-token").start()) {
+            NightscoutClient client = NightscoutClient.builder(server.getUrl()).nightscoutToken("local-token").build();
+
+            List<Entry> last10 = client.getLastNEntries(10);
+            assert last10.size() == 10;
+            assert last10.get(0).datelong() > last10.get(9).datelong();
+
+            ZonedDateTime to      = ZonedDateTime.now();
+            ZonedDateTime from    = to.minusDays(1);
+            List<Entry>   entries = client.getEntriesFromTo(from, to);
+            assert entries.size() == 288;
+            assert entries.stream().allMatch(entry -> entry.datelong() >= from.toEpochSecond() && entry.datelong() <= to.toEpochSecond());
+
+            List<Entry> since = client.getEntriesSince(last10.get(1).datelong(), 10);
+            assert since.size() == 1 && since.get(0).id().equals(last10.get(0).id());
+
+            assert client.getTreatmentsFromInterval(Interval.LAST_24_HOURS).size() >= 8;
+            assert client.getEntriesFromIntervalAsync(Interval.LAST_3_HOURS).join().size() == 36;
+
+            try {
+                NightscoutClient.builder(server.getUrl()).nightscoutToken("wrong-token").build().getCurrentEntry();
+                assert false;
+            } catch (AccessDeniedException e) {
+                assert server.getDenied() == 1;
+            }
+        }
+    }
+
+    @Test
+    void testExecutors() {
+        Executor        previousExecutor        = Connector.getExecutor();
+        Executor        previousComputeExecutor = Connector.getComputeExecutor();
+        ExecutorService pool                    = Executors.newCachedThreadPool();
+        AtomicInteger   httpTasks               = new AtomicInteger(0);
+        AtomicInteger   computeTasks            = new AtomicInteger(0);
+        try (NightscoutServer server = new NightscoutServer().start()) {
+            Connector.setExecutor(task -> { httpTasks.incrementAndGet(); pool.execute(task); });
+            Connector.setComputeExecutor(task -> { computeTasks.incrementAndGet(); pool.execute(task); });
+
+            // The http client sends and receives on the executor, the response will be parsed on the compute executor
+            assert Connector.getLastNEntriesAsync(10, server.getUrl(), "", "").join().size() == 10;
+            assert httpTasks.get() > 0;
+            assert computeTasks.get() > 0;
+
+            try {
+                Connector.setExecutor(null);
+                assert false;
+            } catch (IllegalArgumentException e) { }
+            try {
+                Connector.setComputeExecutor(null);
+                assert false;
+            } catch (IllegalArgumentException e) { }
+
+            if (Connector.isVirtualThreadSupported()) {
+                Connector.useVirtualThreads();
+                assert Connector.getExecutor() instanceof ExecutorService;
+                ((ExecutorService) Connector.getExecutor()).shutdown();
+            } else {
+                try {
+                    Connector.useVirtualThreads();
+                    assert false;
+                } catch (UnsupportedOperationException e) { }
+            }
+        } finally {
+            Connector.setExecutor(previousExecutor);
+            Connector.setComputeExecutor(previousComputeExecutor);
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testLocalServerLatencyAndErrors() {
+        try (NightscoutServer server = new NightscoutServer().setLatency(Duration.ofMillis(50)).setJitter(Duration.ofMillis(20)).start()) {
+            NightscoutClient client = NightscoutClient.builder(server.getUrl()).build();
+
+            long start = System.nanoTime();
+            List<CompletableFuture<List<Entry>>> futures = new ArrayList<>();
+            for (int i = 0 ; i < 50 ; i++) { futures.add(client.getLastNEntriesAsync(12)); }
+            futures.forEach(future -> { assert future.join().size() == 12; });
+            long duration = Duration.ofNanos(System.nanoTime() - start).toMillis();
+            // requests are sent concurrently and should not add up their latency
+            assert duration >= 50 && duration < 50 * 50;
+
+            server.setLatency(Duration.ZERO).setJitter(Duration.ZERO).setErrorRate(1);
+            try {
+                client.getLastNEntries(10);
+                assert false;
+            } catch (RuntimeException e) {
+                // the request will be retried with the default resilience policy
+                assert server.getErrors() == 1 + ResiliencePolicy.DEFAULT.getMaxRetries();
+            }
+        }
+    }
+
+    @Test
+    void testChunkedFetcher() {
+        try (NightscoutServer server = new NightscoutServer().start()) {
+            NightscoutClient client  = NightscoutClient.builder(server.getUrl()).build();
+            long             to      = Math.floorDiv(Instant.now().toEpochMilli(), NightscoutServer.ENTRY_INTERVAL) * NightscoutServer.ENTRY_INTERVAL - 3_600_000;
+            long             from    = to - 10 * 3_600_000L;
+            ChunkedFetcher   fetcher = new ChunkedFetcher(Duration.ofHours(1), 3);
+
+            // 10 chunks that don't overlap, the last one includes the end of the range
+            List<Entry> entries = fetcher.getEntriesAsync(client, from, to).join();
+            assert server.getRequests() == 10;
+            assert entries.size() == 121;
+            assert entries.get(0).datelong() * 1000 == from && entries.get(entries.size() - 1).datelong() * 1000 == to;
+            for (int i = 1 ; i < entries.size() ; i++) { assert entries.get(i).datelong() - entries.get(i - 1).datelong() == 300; }
+
+            // Chunks are sorted ascending and entries that are in several chunks are only kept once
+            List<Entry> newestFirst = new ArrayList<>(entries.subList(0, 3));
+            Collections.reverse(newestFirst);
+            List<Entry> merged = ChunkedFetcher.merge(List.of(newestFirst, new ArrayList<>(entries.subList(2, 5))));
+            assert merged.equals(entries.subList(0, 5));
+        }
+    }
+
+    @Test
+    void testConcurrencyLimiter() throws InterruptedException {
+        // Sync callers and async tasks get the permits in the order they asked for them
+        ConcurrencyLimiter        limiter = new ConcurrencyLimiter(1);
+        List<String>              order   = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<String> first   = new CompletableFuture<>();
+        limiter.acquire();
+        CompletableFuture<String> async1 = limiter.submit(() -> { order.add("async1"); return first; });
+        Thread sync = new Thread(() -> {
+            try {
+                limiter.acquire();
+                order.add("sync");
+                limiter.release();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        sync.setDaemon(true);
+        sync.start();
+        while (limiter.getQueued() < 2) { Thread.onSpinWait(); }
+        CompletableFuture<String> async2 = limiter.submit(() -> { order.add("async2"); return CompletableFuture.completedFuture("async2"); });
+        assert limiter.getQueued() == 3 && limiter.getActive() == 1;
+
+        limiter.release();
+        first.complete("async1");
+        assert async1.join().equals("async1") && async2.join().equals("async2");
+        sync.join(5_000);
+        assert order.equals(List.of("async1", "sync", "async2"));
+        assert limiter.getActive() == 0 && limiter.getQueued() == 0;
+    }
+
+    @Test
+    void testRangeCache() {
+        // Settled data, one entry every 5 minutes
+        long         start    = 1_599_999_900_000L;
+        long         hour     = 3_600_000L;
+        List<long[]> requests = new ArrayList<>();
+        RangeCache.RangeFetcher<Entry> fetcher = (from, to) -> {
+            requests.add(new long[] { from, to });
+            List<Entry> entries = new ArrayList<>();
+            for (long datelong = Math.floorDiv(to, 300_000L) * 300 ; datelong * 1000 >= from ; datelong -= 300) {
+                entries.add(new Entry("" + datelong, NightscoutServer.sgvAt(datelong * 1000), datelong, OffsetDateTime.now(), "", Trend.FLAT, "", "", "sgv", 0, 0, 0, 0, 0, 0, ""));
+            }
+            return entries;
+        };
+
+        RangeCache  cache = RangeCache.withMaxItems(100);
+        List<Entry> first = cache.getEntries(start, start + hour, "http://site", "", fetcher);
+        assert first.size() == 13 && first.get(0).datelong() > first.get(12).datelong();
+        assert requests.size() == 1 && cache.getMisses() == 1;
+        assert cache.getEntries(start, start + hour, "http://site", "", fetcher).equals(first);
+        assert requests.size() == 1 && cache.getHits() == 1;
+
+        // Only the missing edges will be fetched and merged with the covered range
+        assert cache.getEntries(start - hour, start + 2 * hour, "http://site", "", fetcher).size() == 37;
+        assert requests.size() == 3 && cache.getPartialHits() == 1;
+        assert requests.get(1)[0] == start - hour && requests.get(1)[1] == start - 1;
+        assert requests.get(2)[0] == start + hour + 1000 && requests.get(2)[1] == start + 2 * hour + 999;
+        assert cache.getEntries(start - hour + 1, start + 2 * hour - 1, "http://site", "", fetcher).size() == 36;
+        assert requests.size() == 3 && cache.getHits() == 2;
+
+        // Ranges will be widened to whole seconds because entries only have a datelong in seconds
+        assert cache.getEntries(start + 300_300, start + 600_300, "http://site", "", fetcher).size() == 2;
+        assert cache.getEntries(start + 300, start + hour + 300, "http://other-site", "", fetcher).size() == 13;
+        assert requests.get(3)[0] == start && requests.get(3)[1] == start + hour + 999;
+        assert cache.getItemCount() == 50;
+
+        // The least recently used site will be evicted
+        RangeCache small = RangeCache.withMaxItems(20);
+        small.getEntries(start, start + hour, "http://a", "", fetcher);
+        small.getEntries(start, start + hour, "http://b", "", fetcher);
+        assert small.getItemCount() == 13;
+        small.getEntries(start, start + hour, "http://b", "", fetcher);
+        small.getEntries(start, start + hour, "http://a", "", fetcher);
+        assert small.getHits() == 1 && small.getMisses() == 3;
+        assert small.getItemCount() == 13;
+    }
+
+    @Test
+    void testBatchFetcher() {
+        try (NightscoutServer server = new NightscoutServer().setToken("local-token").setLatency(Duration.ofMillis(50)).start()) {
+            // localhost and 127.0.0.1 are different hosts for the per host limit
+            String                 port    = server.getUrl().substring(server.getUrl().lastIndexOf(':'));
+            List<NightscoutClient> sites   = new ArrayList<>();
+            for (int i = 0 ; i < 6 ; i++) {
+                sites.add(NightscoutClient.builder(server.getUrl()).nightscoutToken("local-token").build());
+                sites.add(NightscoutClient.builder("http://localhost" + port).nightscoutToken("local-token").build());
+            }
+            Map<String, AtomicInteger> inFlight    = new ConcurrentHashMap<>();
+            Map<String, AtomicInteger> maxInFlight = new ConcurrentHashMap<>();
+            AtomicInteger              global      = new AtomicInteger();
+            AtomicInteger              maxGlobal   = new AtomicInteger();
+            BatchFetcher               fetcher     = new BatchFetcher(3, 2);
+            Function<NightscoutClient, CompletableFuture<List<Entry>>> request = site -> {
+                String host = URI.create(site.getNightscoutUrl()).getHost();
+                maxInFlight.computeIfAbsent(host, h -> new AtomicInteger()).accumulateAndGet(inFlight.computeIfAbsent(host, h -> new AtomicInteger()).incrementAndGet(), Math::max);
+                maxGlobal.accumulateAndGet(global.incrementAndGet(), Math::max);
+                return site.getLastNEntriesAsync(5).whenComplete((entries, throwable) -> {
+                    inFlight.get(host).decrementAndGet();
+                    global.decrementAndGet();
+                });
+            };
+            // Two batches at the same time share the limiters of the hosts
+            CompletableFuture<BatchFetcher.BatchResult<List<Entry>>> other  = fetcher.fetch(sites, request, null);
+            BatchFetcher.BatchResult<List<Entry>>                    result = fetcher.fetch(sites, request, null).join();
+            assert !other.join().hasFailures();
+            assert !result.hasFailures();
+            assert result.results().size() == sites.size();
+            assert result.results().values().stream().allMatch(entries -> entries.size() == 5);
+            assert maxGlobal.get() <= 3;
+            assert maxInFlight.get("127.0.0.1").get() <= 2 && maxInFlight.get("localhost").get() <= 2;
+            // The limiters of idle hosts have been removed
+            assert fetcher.getNoOfHosts() == 0;
+
+            // A denied site and a failing callback only fail their own site
+            NightscoutClient denied  = NightscoutClient.builder(server.getUrl()).nightscoutToken("wrong-token").build();
+            NightscoutClient failing = sites.get(1);
+            List<NightscoutClient> mixed = List.of(sites.get(0), denied, failing);
+            BatchFetcher.BatchResult<Entry> current = new BatchFetcher().getCurrentEntries(mixed, (site, entry) -> {
+                if (site == failing) { throw new IllegalStateException("callback failed"); }
+            }).join();
+            assert current.results().size() == 1 && null != current.results().get(sites.get(0));
+            assert current.failures().size() == 2;
+            assert current.failures().get(failing) instanceof IllegalStateException;
+            assert current.failures().containsKey(denied);
+        }
+    }
+
+    @Test
+    void testEntryPollerWithLocalServer() {
+        try (NightscoutServer server = new NightscoutServer().start();
+             EntryPoller      poller = new EntryPoller(NightscoutClient.builder(server.getUrl()).build(), Interval.LAST_3_HOURS)) {
+            List<Entry> received = new ArrayList<>();
+            poller.addEntryListener(received::add);
+
+            assert poller.poll().size() == 36;
+            assert poller.poll().isEmpty();
+            assert received.size() == 36;
+            assert poller.getLastEntry().datelong() == poller.getLastDatelong();
+            assert server.getRequests() == 2;
+            for (int i = 1 ; i < received.size() ; i++) { assert received.get(i).datelong() > received.get(i - 1).datelong(); }
+        }
+
+        // A subscriber that doesn't request anything doesn't block the polling, it misses the entries that don't fit into its buffer
+        try (NightscoutServer server = new NightscoutServer().start();
+             EntryPoller      poller = new EntryPoller(NightscoutClient.builder(server.getUrl()).build(), Interval.LAST_24_HOURS)) {
+            poller.subscribe(new Flow.Subscriber<>() {
+                @Override public void onSubscribe(final Flow.Subscription subscription) {}
+                @Override public void onNext(final Entry item) {}
+                @Override public void onError(final Throwable throwable) {}
+                @Override public void onComplete() {}
+            });
+            assert poller.poll().size() >= 288;
+            assert poller.getDropped() > 0;
+        }
+    }
+
+    @Test
+    void testMetrics() {
+        try (NightscoutServer server = new NightscoutServer().setToken("local-token").start();
+             JmxMetrics       metrics = new JmxMetrics()) {
+            Connector.setMetrics(metrics);
+            NightscoutClient client = NightscoutClient.builder(server.getUrl()).nightscoutToken("local-token").build();
+
+            assert client.getLastNEntries(10).size() == 10;
+            assert client.getLastNEntriesAsync(20).join().size() == 20;
+            try {
+                NightscoutClient.builder(server.getUrl()).build().getCurrentEntry();
+                assert false;
+            } catch (AccessDeniedException e) {
+                // expected
+            }
+
+            String          endpoint = server.getUrl().substring("http://".length()) + Constants.ENTRIES_JSON;
+            EndpointMetrics entries  = metrics.getEndpoint(endpoint);
+            assert entries.getRequests() == 3;
+            assert entries.getStatusCodeCounts().get(200) == 2;
+            assert entries.getStatusCodeCounts().get(401) == 1;
+            assert entries.getAccessDenied() == 1;
+            assert entries.getRecords() == 30;
+            assert entries.getBytes() > 0;
+            assert entries.getLatencyP50Millis() > 0 && entries.getLatencyP50Millis() <= entries.getLatencyP999Millis();
+            assert ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(JmxMetrics.DOMAIN + ":type=Endpoint,name=" + ObjectName.quote(endpoint)));
+        } catch (MalformedObjectNameException e) {
+            throw new RuntimeException(e);
+        } finally {
+            Connector.setMetrics(null);
+        }
+    }
+
+    @Test
+    void testResilience() {
+        try (NightscoutServer server = new NightscoutServer().start()) {
+            ResiliencePolicy policy = ResiliencePolicy.builder().maxRetries(3).backoff(Duration.ofMillis(10), Duration.ofMillis(50)).circuitBreaker(3, Duration.ofMinutes(1)).build();
+            NightscoutClient client = NightscoutClient.builder(server.getUrl()).resiliencePolicy(policy).build();
+
+            // retries until the request succeeds
+            server.failNext(2);
+            assert client.getLastNEntries(5).size() == 5;
+            assert client.getLastNEntriesAsync(5).join().size() == 5;
+            assert server.getErrors() == 2 && server.getRequests() == 4;
+
+            // after 3 consecutive failed calls (with 3 retries each) the circuit opens and requests fail fast without reaching the server
+            server.resetCounters();
+            server.setErrorRate(1);
+            for (int i = 0 ; i < 3 ; i++) {
+                assert Resilience.getCircuitState(URI.create(server.getUrl())) == CircuitBreaker.State.CLOSED;
+                try {
+                    client.getEntriesBetween(0, 1);
+                    assert false;
+                } catch (RuntimeException e) {
+                    assert server.getRequests() == (i + 1) * 4;
+                }
+            }
+            assert Resilience.getCircuitState(URI.create(server.getUrl())) == CircuitBreaker.State.OPEN;
+            try {
+                client.getLastNEntriesAsync(5).join();
+                assert false;
+            } catch (CompletionException e) {
+                assert e.getCause() instanceof CircuitBreakerOpenException;
+            }
+            assert client.getLastNEntries(5).isEmpty();
+            assert server.getRequests() == 12;
+        } finally {
+            Resilience.reset();
+        }
+    }
+
+    @Test
+    void testHedging() {
+        try (NightscoutServer server = new NightscoutServer().start()) {
+            ResiliencePolicy policy = ResiliencePolicy.builder().hedge(0.95, Duration.ofMillis(10), Duration.ofMillis(100)).build();
+            NightscoutClient client = NightscoutClient.builder(server.getUrl()).resiliencePolicy(policy).build();
+
+            // the first request is stuck, the hedged request answers
+            server.delayNext(1, Duration.ofSeconds(3));
+            long start = System.nanoTime();
+            assert client.getLastNEntriesAsync(5).join().size() == 5;
+            assert Duration.ofNanos(System.nanoTime() - start).toMillis() < 2_000;
+            assert server.getRequests() == 2;
+        } finally {
+            Resilience.reset();
+        }
+    }
+
+    @Test
+    void testCompression() {
+        try (NightscoutServer server = new NightscoutServer().start();
+             JmxMetrics       metrics = new JmxMetrics(null)) {
+            Connector.setMetrics(metrics);
+            NightscoutClient client   = NightscoutClient.builder(server.getUrl()).build();
+            String           endpoint = server.getUrl().substring("http://".length()) + Constants.ENTRIES_JSON;
+
+            assert client.getEntriesFromInterval(Interval.LAST_24_HOURS).size() == 288;
+            assert client.getEntriesFromIntervalAsync(Interval.LAST_24_HOURS).join().size() == 288;
+            EndpointMetrics entries = metrics.getEndpoint(endpoint);
+            assert entries.getCompressedBytes() == entries.getBytes();
+            assert entries.getCompressionRatio() > 3;
+
+            server.setContentEncoding("deflate");
+            assert client.getLastNEntries(10).size() == 10;
+            String json = Connector.get(server.getUrl() + Constants.ENTRIES_JSON + "?count=3", "").body();
+            assert Connector.getEntriesFromJsonText(json).size() == 3;
+
+            server.setContentEncoding("");
+            assert client.getLastNEntriesAsync(10).join().size() == 10;
+        } catch (AccessDeniedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            Connector.setMetrics(null);
+        }
+    }
+
+    @Test
+    void testConditionalRequests() {
+        try (NightscoutServer server = new NightscoutServer().setETags(true).start()) {
+            Connector.clearValidatorCache();
+            NightscoutClient client = NightscoutClient.builder(server.getUrl()).build();
+
+            List<Entry> entries = client.getLastNEntries(10);
+            assert server.getNotModified() == 0;
+            List<Entry> cached  = client.getLastNEntries(10);
+            assert server.getNotModified() == 1;
+            assert cached.equals(entries);
+            // Every call returns its own mutable list
+            cached.clear();
+            assert client.getLastNEntriesAsync(10).join().equals(entries);
+            assert server.getNotModified() == 2;
+
+            Entry current = client.getCurrentEntry();
+            assert null != current;
+            assert current.equals(client.getCurrentEntryAsync().join());
+            assert server.getNotModified() == 3;
+
+            Connector.setValidatorCacheSize(0);
+            assert client.getLastNEntries(10).equals(entries);
+            assert server.getNotModified() == 3;
+        } catch (AccessDeniedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            Connector.setValidatorCacheSize(ValidatorCache.DEFAULT_MAX_ENTRIES);
+            Connector.clearValidatorCache();
+        }
+    }
+
+    @Test
+    void testEntryStore() throws IOException {
+        Path directory = Files.createTempDirectory("entrystore");
+        try (NightscoutServer server = new NightscoutServer().start()) {
+            NightscoutClient client = NightscoutClient.builder(server.getUrl()).build();
+            long             now    = Instant.now().getEpochSecond();
+
+            try (EntryStore store = EntryStore.open(directory)) {
+                assert store.isEmpty();
+                assert store.sync(client, Interval.LAST_3_DAYS) >= 863;
+                assert store.append(store.getEntries()) == 0;
+            }
+
+            // Warm restart only fetches the entries after the last stored entry
+            try (EntryStore store = EntryStore.open(directory)) {
+                long        last    = store.getLastDatelong();
+                List<Entry> entries = store.getEntries();
+                assert entries.size() == store.size();
+                assert entries.get(entries.size() - 1).datelong() == last;
+                for (int i = 1 ; i < entries.size() ; i++) { assert entries.get(i).datelong() - entries.get(i - 1).datelong() == 300; }
+
+                Entry newest = entries.get(entries.size() - 1);
+                assert newest.id().equals(String.format("%024x", last * 1000));
+                assert newest.sgv() == NightscoutServer.sgvAt(last * 1000);
+
+                server.resetCounters();
+                assert store.sync(client, Interval.LAST_3_DAYS) <= 1;
+                assert server.getRequests() <= 1;
+
+                List<Entry>   lastDay = store.getEntries(now - 86_400, now);
+                GlucoseSeries series  = store.getGlucoseSeries(now - 86_400, now);
+                assert lastDay.size() == series.size();
+                assert lastDay.size() >= 287 && lastDay.size() <= 289;
+                assert series.getDatelong(0) == lastDay.get(0).datelong();
+
+                // Entries without an object id get distinct ids
+                long stored = store.getLastDatelong();
+                assert store.append(List.of(new Entry("", 100, stored + 300, OffsetDateTime.now(), "", Trend.FLAT, "", "", "sgv", 0, 0, 0, 0, 0, 0, ""),
+                                            new Entry("", 110, stored + 600, OffsetDateTime.now(), "", Trend.FLAT, "", "Receiver", "", 0, 0, 0, 0, 0, 0, ""))) == 2;
+                List<Entry> withoutIds = store.getEntries(stored + 300, stored + 600);
+                assert withoutIds.size() == 2 && !withoutIds.get(0).id().isEmpty() && !withoutIds.get(0).equals(withoutIds.get(1));
+                assert withoutIds.get(1).id().equals(Entry.deriveId(stored + 600, "sgv", "Receiver"));
+                assert store.getGlucoseSeries(stored + 300, stored + 600).size() == 2;
+            }
+        } catch (AccessDeniedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            try (var paths = Files.list(directory)) {
+                for (Path path : paths.toList()) { Files.delete(path); }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    void testBinaryCodec() {
+        try (NightscoutServer server = new NightscoutServer().setContentEncoding("").start()) {
+            String      json    = Connector.get(server.getUrl() + Constants.ENTRIES_JSON + "?count=288", "").body();
+            List<Entry> entries = Connector.getEntriesFromJsonText(json);
+            ByteBuffer  buffer  = BinaryCodec.encodeEntries(entries);
+            assert buffer.remaining() * 8 < json.length();
+
+            List<Entry> decoded = BinaryCodec.decodeEntries(buffer.duplicate());
+            assert decoded.size() == entries.size();
+            for (int i = 0 ; i < entries.size() ; i++) {
+                assert decoded.get(i).equals(entries.get(i));
+                assert decoded.get(i).hashCode() == entries.get(i).hashCode();
+            }
+
+            GlucoseSeries series = BinaryCodec.decodeGlucoseSeries(buffer.duplicate());
+            assert series.size() == entries.size();
+            assert series.getDatelong(10) == entries.get(10).datelong();
+            assert series.getSgv(10) == entries.get(10).sgv();
+            assert series.getTrend(10) == entries.get(10).trend();
+
+            NightscoutClient client     = NightscoutClient.builder(server.getUrl()).build();
+            List<Treatment>  treatments = client.getTreatmentsFromInterval(Interval.LAST_7_DAYS);
+            assert !treatments.isEmpty();
+            assert BinaryCodec.decodeTreatments(BinaryCodec.encodeTreatments(treatments)).equals(treatments);
+
+            try {
+                BinaryCodec.decodeTreatments(buffer.duplicate());
+                assert false;
+            } catch (IllegalArgumentException e) {
+                // expected, the buffer contains entries
+            }
+        } catch (AccessDeniedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    void testRollingAnalytics() {
+        RollingAnalytics analytics = new RollingAnalytics(Interval.LAST_24_HOURS);
+        long             start     = 1_700_000_000L;
+        List<Entry>      all       = new ArrayList<>();
+        for (int i = 0 ; i < 2_000 ; i++) {
+            long  datelong = start + i * 300L;
+            Entry entry    = new Entry("id" + i, NightscoutServer.sgvAt(datelong * 1000), datelong, OffsetDateTime.now(), "", Trend.FLAT, "Flat", "", "sgv", 0, 0, 0, 0, 0, 0, "");
+            all.add(entry);
+            assert analytics.add(entry);
+        }
+        assert !analytics.add(all.get(10));
+
+        // The window contains the readings of the last 24 hours (both ends inclusive)
+        List<Entry> window = all.subList(all.size() - 289, all.size());
+        assert analytics.getCount() == window.size();
+        double mean     = window.stream().mapToDouble(Entry::sgv).average().orElse(0);
+        double variance = window.stream().mapToDouble(entry -> (entry.sgv() - mean) * (entry.sgv() - mean)).sum() / window.size();
+        long   inRange  = window.stream().filter(entry -> entry.sgv() >= Constants.MIN_NORMAL && entry.sgv() <= Constants.MIN_HIGH).count();
+        assert Math.abs(analytics.getMean() - mean) < 1e-9;
+        assert Math.abs(analytics.getHbA1c() - Connector.calcHbA1c(window)) < 1e-9;
+        assert Math.abs(analytics.getStandardDeviation() - Math.sqrt(variance)) < 1e-6;
+        assert Math.abs(analytics.getTimeInRange() - inRange * 100.0 / window.size()) < 1e-9;
+        assert Math.abs(analytics.getTimeBelowRange() + analytics.getTimeInRange() + analytics.getTimeAboveRange() - 100) < 1e-9;
+
+        analytics.advanceTo(all.get(all.size() - 1).datelong() + 86_400);
+        assert analytics.getCount() == 1;
+        analytics.clear();
+        assert analytics.isEmpty() && analytics.getMean() == 0 && analytics.getTimeInRange() == 0;
+    }
+
+    @Test
+    void testPredictor() {
+        long        start   = 1_700_000_000L;
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0 ; i < 100 ; i++) {
+            long datelong = start + i * 300L;
+            entries.add(new Entry("id" + i, NightscoutServer.sgvAt(datelong * 1000), datelong, OffsetDateTime.now(), "", Trend.FLAT, "", "", "sgv", 0, 0, 0, 0, 0, 0, ""));
+        }
+        List<Entry> newestFirst = new ArrayList<>(entries);
+        Collections.reverse(newestFirst);
+        GlucoseSeries series = GlucoseSeries.of(entries);
+
+        for (PredictionModel model : List.of(Predictor.SECOND_DIFFERENCE, Predictor.LINEAR_REGRESSION, Predictor.EXPONENTIAL_SMOOTHING)) {
+            Predictor predictor = new Predictor(model, Duration.ofMinutes(30));
+            double    estimate  = predictor.estimate(entries);
+            assert estimate == predictor.estimate(newestFirst);
+            assert estimate == predictor.estimate(series);
+            assert predictor.predict(entries) == predictor.predict(series);
+        }
+
+        // A straight line is extrapolated exactly by the regression and the smoothing
+        List<Entry> line = new ArrayList<>();
+        for (int i = 0 ; i < 12 ; i++) { line.add(new Entry("l" + i, 100 + i * 2, start + i * 300L, OffsetDateTime.now(), "", Trend.FLAT, "", "", "sgv", 0, 0, 0, 0, 0, 0, "")); }
+        assert Math.abs(new Predictor(Predictor.LINEAR_REGRESSION, Duration.ofMinutes(15)).estimate(line) - 128) < 1e-9;
+        assert Math.abs(new Predictor(Predictor.SECOND_DIFFERENCE, Duration.ofMinutes(15)).estimate(line) - 122) < 1e-9;
+        assert Math.abs(new Predictor(Predictor.EXPONENTIAL_SMOOTHING, Duration.ofMinutes(15)).estimate(line) - 128) < 1;
+
+        try {
+            new Predictor().predict(line.subList(0, 4));
+            assert false;
+        } catch (IllegalArgumentException e) {
+            // expected, the model needs 5 readings
+        }
+    }
+
+    @Test
+    void testLiveFeed() throws InterruptedException {
+        LiveFeed        feed    = new LiveFeed(16, new Predictor());
+        LiveFeed.Cursor lagging = feed.newCursor();
+        assert null == feed.getLatest();
+        assert null == lagging.poll();
+
+        long        start   = 1_700_000_000L;
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0 ; i < 10_000 ; i++) {
+            long datelong = start + i * 300L;
+            entries.add(new Entry("id" + i, NightscoutServer.sgvAt(datelong * 1000), datelong, OffsetDateTime.now(), "", Trend.values()[i % 8], "", "", "sgv", 0, 0, 0, 0, 0, 0, ""));
+        }
+
+        // A concurrent reader sees the entries in order, it might miss some if it falls behind
+        List<Entry>     read     = new ArrayList<>();
+        long[]          missed   = new long[1];
+        LiveFeed.Cursor cursor   = feed.newCursorFromOldest();
+        long            deadline = System.nanoTime() + 10_000_000_000L;
+        Thread reader = new Thread(() -> {
+            while (read.size() + missed[0] < entries.size() && System.nanoTime() < deadline) {
+                cursor.drainTo(read::add);
+                missed[0] = cursor.getMissed();
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+        for (Entry entry : entries) { assert feed.publish(entry); }
+        reader.join(10_000);
+        assert !reader.isAlive();
+        assert read.size() + missed[0] == entries.size();
+        for (int i = 1 ; i < read.size() ; i++) { assert read.get(i).datelong() > read.get(i - 1).datelong(); }
+
+        assert !feed.publish(entries.get(0));
+        assert lagging.available() == 16;
+        assert lagging.poll().equals(entries.get(entries.size() - 16));
+        assert lagging.getMissed() == entries.size() - 16;
+
+        LiveFeed.Snapshot snapshot = feed.getLatest();
+        assert snapshot.entry().equals(entries.get(entries.size() - 1));
+        assert snapshot.trend() == entries.get(entries.size() - 1).trend();
+        assert snapshot.sequence() == entries.size();
+        assert snapshot.prediction() == new Predictor().predict(entries);
+    }
+
+    @Test
+    void testTreatmentJoin() {
+        // One reading every 5 minutes, newest first, rising by 1 mg/dl per minute
+        long        start   = 1_692_600_000L;
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 24 ; i >= 0 ; i--) {
+            long datelong = start + i * 300;
+            entries.add(new Entry("" + i, 100 + i * 5, datelong, OffsetDateTime.ofInstant(Instant.ofEpochSecond(datelong), ZoneId.of("UTC")), "", Trend.FLAT, "", "", "sgv", 0, 0, 0, 0, 0, 0, ""));
+        }
+        List<Treatment> treatments = List.of(new Treatment("2", "Meal Bolus", Instant.ofEpochSecond(start + 1800).toString(), "", "", 40, 0, 0, 4, "mg/dl", "", "", "", ""),
+                                             new Treatment("1", "Correction Bolus", Instant.ofEpochSecond(start + 60).toString(), "", "", 0, 0, 0, 1, "mg/dl", "", "", "", ""),
+                                             new Treatment("3", "Note", "", "", "", 0, 0, 0, 0, "", "", "", "", ""));
+
+        TreatmentJoin                join      = new TreatmentJoin();
+        List<TreatmentJoin.Response>   responses = join.join(treatments, entries);
+        assert responses.size() == 2;
+        assert responses.get(0).treatment().id().equals("1");
+        assert responses.get(0).baseline() == 100;
+        assert responses.get(0).sgvs()[0] == 130;  // closest reading to +30 min is at +30 min
+        assert responses.get(0).getDelta(2) == 120;
+        assert responses.get(0).maxSgv() == 220;
+
+        // There are no readings 2 hours after the meal
+        TreatmentJoin.Response meal = responses.get(1);
+        assert meal.getDelta(0) == 30;
+        assert meal.sgvs()[1] == 190;
+        assert Double.isNaN(meal.sgvs()[2]);
+        assert meal.getPeakDelta() == 90;
+
+        List<Entry> shuffled = new ArrayList<>(entries);
+        Collections.shuffle(shuffled, new Random(7));
+        List<TreatmentJoin.Response> fromSeries = join.join(treatments, GlucoseSeries.of(shuffled));
+        assert Arrays.equals(fromSeries.get(1).sgvs(), meal.sgvs());
+
+        // Min and max of overlapping windows with random readings and treatments
+        Random          rnd         = new Random(11);
+        List<Entry>     readings    = new ArrayList<>();
+        List<Treatment> randomTreat = new ArrayList<>();
+        for (int i = 0 ; i < 2_000 ; i++) {
+            long datelong = start + i * 300;
+            readings.add(new Entry("" + i, 40 + rnd.nextInt(300), datelong, OffsetDateTime.ofInstant(Instant.ofEpochSecond(datelong), ZoneId.of("UTC")), "", Trend.FLAT, "", "", "sgv", 0, 0, 0, 0, 0, 0, ""));
+        }
+        for (int i = 0 ; i < 300 ; i++) {
+            long createdAt = start + rnd.nextInt(2_100 * 300);
+            randomTreat.add(new Treatment("" + i, "Meal Bolus", Instant.ofEpochSecond(createdAt).toString(), "", "", 40, 0, 0, 4, "mg/dl", "", "", "", ""));
+        }
+        for (TreatmentJoin.Response response : join.join(randomTreat, readings)) {
+            long   createdAt = response.createdAtMillis() / 1000;
+            double min       = Double.NaN;
+            double max       = Double.NaN;
+            for (Entry reading : readings) {
+                if (reading.datelong() < createdAt || reading.datelong() > createdAt + 7_200) { continue; }
+                if (Double.isNaN(min) || reading.sgv() < min) { min = reading.sgv(); }
+                if (Double.isNaN(max) || reading.sgv() > max) { max = reading.sgv(); }
+            }
+            assert Double.compare(response.minSgv(), min) == 0 && Double.compare(response.maxSgv(), max) == 0;
+        }
+    }
+
+    @Test
+    void testAgpProfile() {
+        QuantileSketch sketch = new QuantileSketch();
+        double[]       values = new double[10_000];
+        Random         rnd    = new Random(42);
+        for (int i = 0 ; i < values.length ; i++) {
+            values[i] = 40 + rnd.nextInt(360);
+            sketch.add(values[i]);
+        }
+        Arrays.sort(values);
+        for (double q : AgpProfile.PERCENTILES) {
+            double exact = values[(int) (q * (values.length - 1))];
+            assert Math.abs(sketch.getQuantile(q) - exact) <= exact * sketch.getRelativeAccuracy();
+        }
+        assert sketch.getQuantile(0) == values[0] && sketch.getQuantile(1) == values[values.length - 1];
+
+        // Local time of day across the daylight saving time changes
+        ZoneId     zone    = ZoneId.of("Europe/Berlin");
+        AgpProfile profile = new AgpProfile(zone, AgpProfile.DEFAULT_BUCKET_SIZE, QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+        AgpProfile first   = new AgpProfile(zone, AgpProfile.DEFAULT_BUCKET_SIZE, QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+        AgpProfile second  = new AgpProfile(zone, AgpProfile.DEFAULT_BUCKET_SIZE, QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+        long       start   = ZonedDateTime.of(2023, 3, 1, 0, 0, 0, 0, zone).toEpochSecond();
+        int        n       = Interval.LAST_90_DAYS.getNoOfEntries();
+        for (int i = 0 ; i < n ; i++) {
+            long datelong = start + i * 300L;
+            int  minutes  = Instant.ofEpochSecond(datelong).atZone(zone).toLocalTime().toSecondOfDay() / 60;
+            assert profile.getBucket(datelong) == minutes / 15;
+            // Glucose is 100 at night and 200 at daytime
+            double sgv = minutes < 360 ? 100 : 200;
+            profile.add(datelong, sgv);
+            (i < n / 2 ? first : second).add(datelong, sgv);
+        }
+        first.merge(second);
+        assert first.getCount() == profile.getCount();
+        assert Arrays.equals(first.getCurve(0.5), profile.getCurve(0.5));
+
+        AgpProfile.Curves curves = profile.getCurves();
+        assert curves.p50().length == 96;
+        assert curves.p5()[0] == 100 && curves.p95()[95] == 200;
+        try {
+            AgpProfile.PERCENTILES.set(0, 0.5);
+            assert false;
+        } catch (UnsupportedOperationException e) { }
+        assert Math.abs(profile.getHbA1c() - (0.0296 * (100 * 0.25 + 200 * 0.75) + 2.419)) < 0.01;
+        assert Double.isNaN(new AgpProfile().getCurve(0.5)[0]);
+    }
+
+    @Test
+    void testBulkAnalytics() {
+        Map<String, List<Entry>>   entriesByPatient = new LinkedHashMap<>();
+        Map<String, GlucoseSeries> seriesByPatient  = new LinkedHashMap<>();
+        Random                     rnd              = new Random(42);
+        long                       now              = Instant.now().getEpochSecond();
+        for (int p = 0 ; p < 20 ; p++) {
+            int         noOfEntries = 0 == p ? 3 : 1 + rnd.nextInt(Interval.LAST_90_DAYS.getNoOfEntries());
+            List<Entry> entries     = new ArrayList<>(noOfEntries);
+            for (int i = 0 ; i < noOfEntries ; i++) {
+                long datelong = now - i * 300L;
+                entries.add(new Entry("" + i, 40 + rnd.nextInt(300), datelong, OffsetDateTime.ofInstant(Instant.ofEpochSecond(datelong), ZoneId.systemDefault()), "", Trend.FLAT, "", "", "sgv", 0, 0, 0, 0, 0, 0, ""));
+            }
+            entriesByPatient.put("patient" + p, entries);
+            seriesByPatient.put("patient" + p, GlucoseSeries.of(entries));
+        }
+
+        BulkAnalytics        analytics  = new BulkAnalytics(new ForkJoinPool(4), Predictor.SECOND_DIFFERENCE, Predictor.DEFAULT_HORIZON, 1_000);
+        BulkAnalytics        regression = new BulkAnalytics(new ForkJoinPool(4), Predictor.LINEAR_REGRESSION, Predictor.DEFAULT_HORIZON, 1_000);
+        BulkAnalytics.Report report     = analytics.analyze(entriesByPatient);
+        BulkAnalytics.Report fromSeries = analytics.analyzeSeries(seriesByPatient);
+        BulkAnalytics.Report regressed  = regression.analyze(entriesByPatient);
+        assert report.size() == 20;
+        assert report.predictions()[report.indexOf("patient0")] == Prediction.NONE;
+        for (int i = 0 ; i < report.size() ; i++) {
+            List<Entry>      entries = entriesByPatient.get(report.patients()[i]);
+            RollingAnalytics rolling = new RollingAnalytics(Interval.LAST_90_DAYS);
+            rolling.addAll(entries);
+            assert report.counts()[i] == entries.size();
+            assert Math.abs(report.hbA1cs()[i] - Connector.calcHbA1c(entries)) < 1e-9;
+            assert Math.abs(report.timesInRange()[i] - rolling.getTimeInRange()) < 1e-9;
+            assert Math.abs(report.timesVeryHigh()[i] - rolling.getTimeVeryHigh()) < 1e-9;
+            assert Math.abs(fromSeries.timesBelowRange()[i] - rolling.getTimeBelowRange()) < 1e-9;
+            if (entries.size() >= 5) {
+                // Same prediction as the nightly job that calls Connector.predict() for every patient
+                assert report.predictions()[i] == Connector.predict(entries);
+                assert fromSeries.predictions()[i] == Connector.predict(entries);
+            }
+            if (entries.size() >= 6) { assert regressed.predictions()[i] == new Predictor(Predictor.LINEAR_REGRESSION, Predictor.DEFAULT_HORIZON).predict(entries); }
+        }
+        assert analytics.analyze(Map.of()).size() == 0;
+    }
+
+    @Test
+    void testUploader() throws InterruptedException {
+        try (NightscoutServer server = new NightscoutServer().setApiSecret("upload-secret").start()) {
+            NightscoutClient client  = NightscoutClient.builder(server.getUrl()).apiSecret("upload-secret").build();
+            long             start   = Instant.now().getEpochSecond() - 86_400;
+            List<Entry>      entries = new ArrayList<>();
+            for (int i = 0 ; i < 1_050 ; i++) {
+                long datelong = start + i * 300L;
+                entries.add(new Entry("", 100 + i % 50, datelong, OffsetDateTime.ofInstant(Instant.ofEpochSecond(datelong), ZoneId.systemDefault()), "", Trend.FORTY_FIVE_UP, "", "Receiver \"1\"", "sgv", 0, 1, 0, 0, 100, 2.5, ""));
+            }
+            Treatment treatment = new Treatment("", "Meal Bolus", Instant.ofEpochSecond(start).toString(), "", "", 45, 0, 0, 4.5, "mg/dl", "", "", "Pasta\nand salad", "Uploader");
+
+            Uploader uploader = new Uploader(client, 100, Duration.ofSeconds(30), 2);
+            uploader.addEntries(entries);
+            uploader.add(treatment);
+            uploader.close();
+            assert uploader.getUploaded() == 1_051 && uploader.getFailed() == 0;
+            // 10 full batches, the remaining 50 entries and the treatment
+            assert server.getUploads() == 12;
+            assert server.getUploadedEntries().size() == 1_050;
+            Entry uploaded = server.getUploadedEntries().stream().filter(e -> e.datelong() == start).findFirst().orElseThrow();
+            assert uploaded.sgv() == 100 && uploaded.trend() == Trend.FORTY_FIVE_UP && uploaded.delta() == 2.5 && uploaded.device().equals("Receiver \"1\"");
+            // Same id as an entry of the same reading without type
+            assert uploaded.id().equals(Entry.deriveId(start, "", "Receiver \"1\""));
+            assert server.getUploadedTreatments().get(0).notes().equals("Pasta\nand salad");
+
+            // The response of the first request gets lost, the retry must not create duplicates
+            server.resetCounters();
+            server.failNext(1);
+            assert client.uploadEntries(entries.subList(0, 10));
+            assert server.getUploads() == 2;
+            assert server.getUploadedEntries().size() == 1_050;
+
+            // Batches that are not full will be sent after the flush interval
+            Uploader timed = new Uploader(client, 100, Duration.ofMillis(50), 1);
+            timed.add(new Entry("", 120, start - 300, OffsetDateTime.ofInstant(Instant.ofEpochSecond(start - 300), ZoneId.systemDefault()), "", Trend.FLAT, "", "", "sgv", 0, 0, 0, 0, 0, 0, ""));
+            for (int i = 0 ; i < 100 && timed.getUploaded() == 0 ; i++) { Thread.sleep(20); }
+            assert timed.getUploaded() == 1;
+            assert server.getUploadedEntries().size() == 1_051;
+            timed.close();
+        }
+    }
 }
@@ -0,0 +1,393 @@
+package eu.hansolo.nightscoutconnector;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static eu.hansolo.nightscoutconnector.Constants.ENTRIES_JSON;
+import static eu.hansolo.nightscoutconnector.Constants.ENTRIES_POST_JSON;
+import static eu.hansolo.nightscoutconnector.Constants.TREATMENTS_JSON;
+import static eu.hansolo.nightscoutconnector.Constants.TREATMENTS_POST_JSON;
+
+
+/**
+ * Local stand-in for a Nightscout server to test the connector without a network connection.
+ * It serves synthetic cgm data (one entry every 5 minutes, one treatment every 3 hours) for any
+ * time range and honors the count, find[date][$gte], find[date][$lte], find[date][$gt] and token
+ * parameters. Requests with a wrong token or API_SECRET get the object shaped access denied error.
+ * Latency, jitter and errors can be injected to simulate slow or unreliable sites.
+ * Uploaded entries and treatments will be stored by their id (like Nightscout does), injected errors
+ * are sent after the records have been stored to simulate lost responses.
+ * Responses are gzip compressed if the client accepts it.
+ */
+public class NightscoutServer implements AutoCloseable {
+    public static final  long                                 ENTRY_INTERVAL     = 300_000;
+    public static final  long                                 TREATMENT_INTERVAL = 10_800_000;
+    public static final  int                                  DEFAULT_COUNT      = 10;
+    private static final String[]                             DIRECTIONS         = { "Flat", "FortyFiveUp", "SingleUp", "DoubleUp", "FortyFiveDown", "SingleDown", "DoubleDown" };
+    private final        HttpServer                           server;
+    private final        ExecutorService                      executorService;
+    private final        AtomicLong                           requests;
+    private final        AtomicLong                           errors;
+    private final        AtomicLong                           denied;
+    private final        AtomicLong                           notModified;
+    private volatile     String                               token;
+    private volatile     String                               apiSecretHash;
+    private volatile     Duration                             latency;
+    private volatile     Duration                             jitter;
+    private volatile     double                               errorRate;
+    private volatile     int                                  errorStatus;
+    private final        AtomicLong                           failNext;
+    private final        AtomicLong                           delayNext;
+    private volatile     Duration                             delayNextBy;
+    private volatile     String                               contentEncoding;
+    private volatile     boolean                              etags;
+    private final        AtomicLong                           uploads;
+    private final        ConcurrentHashMap<String, Entry>     uploadedEntries;
+    private final        ConcurrentHashMap<String, Treatment> uploadedTreatments;
+
+
+    // ******************** Constructors **************************************
+    public NightscoutServer() {
+        try {
+            this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.executorService = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "NightscoutServer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.requests           = new AtomicLong(0);
+        this.errors             = new AtomicLong(0);
+        this.denied             = new AtomicLong(0);
+        this.notModified        = new AtomicLong(0);
+        this.token              = "";
+        this.apiSecretHash      = "";
+        this.latency            = Duration.ZERO;
+        this.jitter             = Duration.ZERO;
+        this.errorRate          = 0;
+        this.errorStatus        = 500;
+        this.failNext           = new AtomicLong(0);
+        this.delayNext          = new AtomicLong(0);
+        this.delayNextBy        = Duration.ZERO;
+        this.contentEncoding    = "gzip";
+        this.etags              = false;
+        this.uploads            = new AtomicLong(0);
+        this.uploadedEntries    = new ConcurrentHashMap<>();
+        this.uploadedTreatments = new ConcurrentHashMap<>();
+
+        this.server.createContext(ENTRIES_JSON, exchange -> handle(exchange, false));
+        this.server.createContext(TREATMENTS_JSON, exchange -> handle(exchange, true));
+        this.server.createContext(ENTRIES_POST_JSON, exchange -> handleUpload(exchange, false));
+        this.server.createContext(TREATMENTS_POST_JSON, exchange -> handleUpload(exchange, true));
+        this.server.setExecutor(executorService);
+    }
+
+
+    // ******************** Methods *******************************************
+    public NightscoutServer start() {
+        server.start();
+        return this;
+    }
+
+    @Override public void close() {
+        server.stop(0);
+        executorService.shutdownNow();
+    }
+
+    public String getUrl() { return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort(); }
+
+    // Requests must contain this token or the API_SECRET, an empty token disables the check
+    public NightscoutServer setToken(final String token) {
+        this.token = null == token ? "" : token;
+        return this;
+    }
+
+    public NightscoutServer setApiSecret(final String apiSecret) {
+        this.apiSecretHash = null == apiSecret || apiSecret.isEmpty() ? "" : sha1(apiSecret);
+        return this;
+    }
+
+    public NightscoutServer setLatency(final Duration latency) {
+        this.latency = null == latency ? Duration.ZERO : latency;
+        return this;
+    }
+
+    // Adds a random delay between 0 and jitter to the latency of every request
+    public NightscoutServer setJitter(final Duration jitter) {
+        this.jitter = null == jitter ? Duration.ZERO : jitter;
+        return this;
+    }
+
+    // Fraction of requests (0 - 1) that will be answered with the error status
+    public NightscoutServer setErrorRate(final double errorRate) {
+        if (errorRate < 0 || errorRate > 1) { throw new IllegalArgumentException("errorRate must be between 0 and 1"); }
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    public NightscoutServer setErrorStatus(final int errorStatus) {
+        this.errorStatus = errorStatus;
+        return this;
+    }
+
+    // The next n requests will be answered with the error status
+    public NightscoutServer failNext(final int n) {
+        failNext.set(n);
+        return this;
+    }
+
+    // The next n requests will be delayed by the given duration in addition to the latency
+    public NightscoutServer delayNext(final int n, final Duration delay) {
+        delayNextBy = null == delay ? Duration.ZERO : delay;
+        delayNext.set(n);
+        return this;
+    }
+
+    // Encoding of the responses if the client accepts it ("gzip", "deflate" or "" for uncompressed responses)
+    public NightscoutServer setContentEncoding(final String contentEncoding) {
+        this.contentEncoding = null == contentEncoding ? "" : contentEncoding;
+        return this;
+    }
+
+    // Send a weak ETag with every response and answer with 304 Not Modified if the If-None-Match header matches it
+    public NightscoutServer setETags(final boolean etags) {
+        this.etags = etags;
+        return this;
+    }
+
+    public long getRequests() { return requests.get(); }
+
+    public long getErrors() { return errors.get(); }
+
+    public long getDenied() { return denied.get(); }
+
+    public long getNotModified() { return notModified.get(); }
+
+    // Number of upload requests (POST)
+    public long getUploads() { return uploads.get(); }
+
+    public List<Entry> getUploadedEntries() { return new ArrayList<>(uploadedEntries.values()); }
+
+    public List<Treatment> getUploadedTreatments() { return new ArrayList<>(uploadedTreatments.values()); }
+
+    public void resetCounters() {
+        requests.set(0);
+        errors.set(0);
+        denied.set(0);
+        notModified.set(0);
+        uploads.set(0);
+    }
+
+    // The synthetic sgv at the given time, a slow sine wave between 70 and 250 mg/dl with a little noise
+    public static int sgvAt(final long millis) {
+        final double phase = (millis % 21_600_000L) / 21_600_000.0 * 2 * Math.PI;
+        final int    noise = (int) ((millis / ENTRY_INTERVAL) * 2_654_435_761L % 7) - 3;
+        return (int) Math.round(160 + 90 * Math.sin(phase)) + noise;
+    }
+
+    private void handle(final HttpExchange exchange, final boolean treatments) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            delay();
+
+            final String rawQuery = exchange.getRequestURI().getRawQuery();
+            final String query    = null == rawQuery ? "" : URLDecoder.decode(rawQuery, StandardCharsets.UTF_8);
+            long   from  = Long.MIN_VALUE;
+            long   to    = Long.MAX_VALUE;
+            int    count = DEFAULT_COUNT;
+            String tkn   = "";
+            for (String parameter : query.split("&")) {
+                final int index = parameter.indexOf('=');
+                if (index < 0) { continue; }
+                final String key   = parameter.substring(0, index);
+                final String value = parameter.substring(index + 1);
+                switch (key) {
+                    case "find[date][$gte]" -> from  = Long.parseLong(value);
+                    case "find[date][$gt]"  -> from  = Long.parseLong(value) + 1;
+                    case "find[date][$lte]" -> to    = Long.parseLong(value);
+                    case "count"            -> count = Integer.parseInt(value);
+                    case "token"            -> tkn   = value;
+                }
+            }
+
+            if (!isAuthorized(tkn, exchange.getRequestHeaders().getFirst("API_SECRET"))) {
+                denied.incrementAndGet();
+                send(exchange, 401, "{\"status\":401,\"message\":\"Unauthorized\",\"description\":\"Invalid/Missing\"}");
+                return;
+            }
+            if (failNext.getAndUpdate(n -> Math.max(0, n - 1)) > 0 || (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate)) {
+                errors.incrementAndGet();
+                send(exchange, errorStatus, "{\"status\":" + errorStatus + ",\"message\":\"Injected error\"}");
+                return;
+            }
+
+            final long interval = treatments ? TREATMENT_INTERVAL : ENTRY_INTERVAL;
+            final long now      = Instant.now().toEpochMilli();
+            // Nightscout returns the newest records first
+            long   millis = Math.floorDiv(Math.min(to, now), interval) * interval;
+            final StringBuilder json = new StringBuilder(Math.min(count, 100_000) * 300).append("[");
+            for (int i = 0 ; i < count && millis >= from ; i++, millis -= interval) {
+                if (i > 0) { json.append(","); }
+                if (treatments) {
+                    appendTreatment(json, millis);
+                } else {
+                    appendEntry(json, millis);
+                }
+            }
+            final String body = json.append("]").toString();
+            if (etags) {
+                final String etag = "W/\"" + sha1(body) + "\"";
+                exchange.getResponseHeaders().set("ETag", etag);
+                if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+            }
+            send(exchange, 200, body);
+        }
+    }
+
+    private void handleUpload(final HttpExchange exchange, final boolean treatments) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            delay();
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "{\"status\":405,\"message\":\"Method not allowed\"}");
+                return;
+            }
+            uploads.incrementAndGet();
+            final String rawQuery = exchange.getRequestURI().getRawQuery();
+            final String tkn      = null != rawQuery && rawQuery.startsWith("token=") ? URLDecoder.decode(rawQuery.substring(6), StandardCharsets.UTF_8) : "";
+            if (!isAuthorized(tkn, exchange.getRequestHeaders().getFirst("API_SECRET"))) {
+                denied.incrementAndGet();
+                send(exchange, 401, "{\"status\":401,\"message\":\"Unauthorized\",\"description\":\"Invalid/Missing\"}");
+                return;
+            }
+            final int count;
+            try {
+                if (treatments) {
+                    final List<Treatment> records = Connector.getTreatmentsFromInputStream(exchange.getRequestBody());
+                    records.forEach(treatment -> uploadedTreatments.put(treatment.id(), treatment));
+                    count = records.size();
+                } else {
+                    final List<Entry> records = Connector.getEntriesFromInputStream(exchange.getRequestBody());
+                    records.forEach(entry -> uploadedEntries.put(entry.id(), entry));
+                    count = records.size();
+                }
+            } catch (Exception e) {
+                send(exchange, 400, "{\"status\":400,\"message\":\"Invalid json\"}");
+                return;
+            }
+            if (failNext.getAndUpdate(n -> Math.max(0, n - 1)) > 0 || (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate)) {
+                errors.incrementAndGet();
+                send(exchange, errorStatus, "{\"status\":" + errorStatus + ",\"message\":\"Injected error\"}");
+                return;
+            }
+            send(exchange, 200, "{\"n\":" + count + "}");
+        }
+    }
+
+    private boolean isAuthorized(final String requestToken, final String requestApiSecret) {
+        final String tkn    = token;
+        final String secret = apiSecretHash;
+        if (tkn.isEmpty() && secret.isEmpty()) { return true; }
+        if (!tkn.isEmpty() && tkn.equals(requestToken)) { return true; }
+        return !secret.isEmpty() && secret.equalsIgnoreCase(requestApiSecret);
+    }
+
+    private void delay() {
+        long delay = latency.toMillis();
+        if (delayNext.getAndUpdate(n -> Math.max(0, n - 1)) > 0) { delay += delayNextBy.toMillis(); }
+        if (!jitter.isZero()) { delay += ThreadLocalRandom.current().nextLong(jitter.toMillis() + 1); }
+        if (delay <= 0) { return; }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void appendEntry(final StringBuilder json, final long millis) {
+        final int    sgv       = sgvAt(millis);
+        final int    delta     = sgv - sgvAt(millis - ENTRY_INTERVAL);
+        final String dateText  = Instant.ofEpochMilli(millis).toString();
+        final String direction = DIRECTIONS[Math.floorMod(millis / ENTRY_INTERVAL, DIRECTIONS.length)];
+        json.append("{\"_id\":\"").append(String.format("%024x", millis)).append("\",")
+            .append("\"device\":\"xDrip-DexcomG6\",")
+            .append("\"date\":").append(millis).append(",")
+            .append("\"dateString\":\"").append(dateText).append("\",")
+            .append("\"sgv\":").append(sgv).append(",")
+            .append("\"delta\":").append(delta).append(",")
+            .append("\"direction\":\"").append(direction).append("\",")
+            .append("\"type\":\"sgv\",")
+            .append("\"filtered\":").append(sgv * 1000).append(",")
+            .append("\"unfiltered\":").append(sgv * 1000).append(",")
+            .append("\"rssi\":100,")
+            .append("\"noise\":1,")
+            .append("\"sysTime\":\"").append(dateText).append("\",")
+            .append("\"utcOffset\":0}");
+    }
+
+    private static void appendTreatment(final StringBuilder json, final long millis) {
+        final boolean meal = (millis / TREATMENT_INTERVAL) % 2 == 0;
+        json.append("{\"_id\":\"").append(String.format("%024x", millis)).append("\",")
+            .append("\"eventType\":\"").append(meal ? "Meal Bolus" : "Correction Bolus").append("\",")
+            .append("\"created_at\":\"").append(Instant.ofEpochMilli(millis)).append("\",")
+            .append("\"date\":").append(millis).append(",")
+            .append("\"glucose\":\"").append(sgvAt(millis)).append("\",")
+            .append("\"glucoseType\":\"Sensor\",")
+            .append("\"carbs\":").append(meal ? 45 : 0).append(",")
+            .append("\"insulin\":").append(String.format(Locale.US, "%.1f", meal ? 4.5 : 1.5)).append(",")
+            .append("\"units\":\"mg/dl\",")
+            .append("\"enteredBy\":\"NightscoutServer\"}");
+    }
+
+    private void send(final HttpExchange exchange, final int status, final String body) throws IOException {
+        final String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        final String encoding = null != accepted && !contentEncoding.isEmpty() && accepted.contains(contentEncoding) ? contentEncoding : "";
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        if (!encoding.isEmpty()) {
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+            try (OutputStream os = "gzip".equals(encoding) ? new GZIPOutputStream(compressed) : new DeflaterOutputStream(compressed)) { os.write(bytes); }
+            bytes = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", encoding);
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) { os.write(bytes); }
+    }
+
+    private static String sha1(final String text) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}